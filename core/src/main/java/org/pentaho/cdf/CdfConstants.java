@@ -28,7 +28,24 @@ public class CdfConstants {
 
   public static final String PLUGIN_SETTINGS_DOWNLOADABLE_FORMATS = "settings/resources/downloadable-formats";
   public static final String PLUGIN_SETTINGS_HIBERNATE_AVAILABLE = "settings/hibernate-available";
+  public static final String PLUGIN_SETTINGS_HIBERNATE_POOL_MIN_SIZE = "settings/hibernate-pool/min-size";
+  public static final String PLUGIN_SETTINGS_HIBERNATE_POOL_MAX_SIZE = "settings/hibernate-pool/max-size";
+  public static final String PLUGIN_SETTINGS_HIBERNATE_POOL_TIMEOUT = "settings/hibernate-pool/timeout";
+  public static final String PLUGIN_SETTINGS_HIBERNATE_POOL_MAX_STATEMENTS = "settings/hibernate-pool/max-statements";
+  public static final String PLUGIN_SETTINGS_HIBERNATE_POOL_IDLE_TEST_PERIOD =
+      "settings/hibernate-pool/idle-test-period";
   public static final String PLUGIN_SETTINGS_LEGACY_DASHBOARD_CONTEXT = "settings/legacy-dashboard-context";
+  public static final String PLUGIN_SETTINGS_STREAMING_RENDER = "settings/streaming-render";
+  public static final String PLUGIN_SETTINGS_AUTOINCLUDE_THREADS = "settings/autoincludes/threads";
+  public static final String PLUGIN_SETTINGS_AUTOINCLUDE_TIMEOUT = "settings/autoincludes/timeout";
+  public static final String PLUGIN_SETTINGS_STORAGE_CACHE_SIZE = "settings/storage/cache-size";
+  public static final String PLUGIN_SETTINGS_STORAGE_MAX_STALENESS = "settings/storage/max-staleness";
+  public static final String PLUGIN_SETTINGS_COMMENTS_ARCHIVE_MIN_AGE = "settings/comments-archive/min-age";
+  public static final String PLUGIN_SETTINGS_COMMENTS_ARCHIVE_INTERVAL = "settings/comments-archive/interval";
+  public static final String PLUGIN_SETTINGS_COMMENTS_ARCHIVE_DIRECTORY = "settings/comments-archive/directory";
+  public static final String PLUGIN_SETTINGS_EXPORT_JOBS_THREADS = "settings/export-jobs/threads";
+  public static final String PLUGIN_SETTINGS_EXPORT_JOBS_QUEUE_SIZE = "settings/export-jobs/queue-size";
+  public static final String PLUGIN_SETTINGS_EXPORT_JOBS_RETENTION = "settings/export-jobs/retention";
 
   //CORS util constants
   public static final String PLUGIN_SETTINGS_ALLOW_CROSS_DOMAIN_RESOURCES = "settings/allow-cross-domain-resources";
@@ -0,0 +1,81 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.comments;
+
+import java.sql.Timestamp;
+import java.util.Date;
+
+import org.pentaho.cdf.InvalidCdfOperationException;
+
+/**
+ * Position of the last comment of a listed page, comments are listed by descending creation date and id.<br>
+ * Sent to clients as an opaque string, the next page is read right after it without skipping previous rows.
+ */
+public class CommentCursor {
+
+  private static final int RADIX = 36;
+  private static final String SEPARATOR = ".";
+
+  private final Timestamp createdDate;
+  private final int commentId;
+
+  public CommentCursor( Date createdDate, int commentId ) {
+    this.createdDate = toTimestamp( createdDate );
+    this.commentId = commentId;
+  }
+
+  public CommentCursor( CommentEntry comment ) {
+    this( comment.getCreatedDate(), comment.getCommentId() );
+  }
+
+  /**
+   * @param cursor as given by {@link #toString()}
+   * @throws InvalidCdfOperationException if not a valid cursor
+   */
+  public static CommentCursor parse( String cursor ) throws InvalidCdfOperationException {
+    String[] parts = cursor == null ? new String[ 0 ] : cursor.split( "\\" + SEPARATOR );
+    if ( parts.length != 3 ) {
+      throw new InvalidCdfOperationException( "Invalid cursor: " + cursor );
+    }
+    try {
+      Timestamp createdDate = new Timestamp( Long.parseLong( parts[ 0 ], RADIX ) );
+      createdDate.setNanos( Integer.parseInt( parts[ 1 ], RADIX ) );
+      return new CommentCursor( createdDate, Integer.parseInt( parts[ 2 ], RADIX ) );
+    } catch ( IllegalArgumentException e ) {
+      throw new InvalidCdfOperationException( "Invalid cursor: " + cursor );
+    }
+  }
+
+  public Timestamp getCreatedDate() {
+    return createdDate;
+  }
+
+  public int getCommentId() {
+    return commentId;
+  }
+
+  @Override
+  public String toString() {
+    // nanos are kept, databases may store timestamps with more than millisecond precision
+    return Long.toString( createdDate.getTime(), RADIX ) + SEPARATOR + Integer.toString( createdDate.getNanos(), RADIX )
+        + SEPARATOR + Integer.toString( commentId, RADIX );
+  }
+
+  private static Timestamp toTimestamp( Date date ) {
+    if ( date instanceof Timestamp ) {
+      return (Timestamp) date;
+    }
+    return new Timestamp( date.getTime() );
+  }
+}
@@ -0,0 +1,245 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.comments;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.pentaho.cdf.PluginHibernateException;
+import org.pentaho.cdf.utils.PluginHibernateUtil;
+
+/**
+ * Moves deleted and archived comments older than a given age out of the comments table, into gzipped JSON lines
+ * files with one comment per line.<br>
+ * Comments are read in batches through a forward only cursor, each batch is written to disk before being deleted in
+ * the same transaction, so memory use doesn't depend on the number of comments. Comments of a failed batch may be
+ * left in a file and written again by a later run.
+ */
+public class CommentsArchiver {
+
+  private static final Log logger = LogFactory.getLog( CommentsArchiver.class );
+
+  static final int BATCH_SIZE = 500;
+  private static final String FILE_PREFIX = "comments-";
+  private static final String FILE_EXTENSION = ".jsonl.gz";
+
+  private final File directory;
+  private final long minAge;
+  private final CommentsCache cache;
+  private ScheduledExecutorService executor;
+
+  /**
+   * @param directory where archive files are written
+   * @param minAge milliseconds since creation before a deleted or archived comment is moved
+   * @param cache listings to invalidate, may be <code>null</code>
+   */
+  public CommentsArchiver( File directory, long minAge, CommentsCache cache ) {
+    this.directory = directory;
+    this.minAge = minAge;
+    this.cache = cache;
+  }
+
+  /**
+   * Runs {@link #archive()} periodically in the background, the first run after one interval.
+   */
+  public synchronized void start( long interval ) {
+    if ( executor != null ) {
+      return;
+    }
+    executor = new ScheduledThreadPoolExecutor( 1, new ThreadFactory() {
+      @Override
+      public Thread newThread( Runnable r ) {
+        Thread thread = new Thread( r, "cdf-comments-archiver" );
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+    executor.scheduleWithFixedDelay( new Runnable() {
+      @Override
+      public void run() {
+        try {
+          archive();
+        } catch ( Exception e ) {
+          logger.error( "Unable to archive comments", e );
+        }
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS );
+  }
+
+  /**
+   * Stops background runs, a running one stops after its current batch.
+   */
+  public synchronized void shutdown() {
+    if ( executor != null ) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  /**
+   * Moves comments to a new archive file.
+   *
+   * @return number of comments moved, the file is removed if none
+   */
+  public int archive() throws IOException, JSONException, PluginHibernateException {
+    Date before = new Date( System.currentTimeMillis() - minAge );
+    if ( !directory.isDirectory() && !directory.mkdirs() ) {
+      throw new IOException( "Unable to create " + directory );
+    }
+    File file = new File( directory, FILE_PREFIX + new SimpleDateFormat( "yyyyMMdd-HHmmss-SSS" ).format( new Date() )
+        + FILE_EXTENSION );
+
+    int count = 0;
+    FileOutputStream fileOut = new FileOutputStream( file );
+    Writer writer = null;
+    try {
+      // sync flush, each batch is readable on its own
+      writer = new OutputStreamWriter( new GZIPOutputStream( new BufferedOutputStream( fileOut ), true ), "UTF-8" );
+      int afterId = Integer.MIN_VALUE;
+      int batch;
+      do {
+        List<Integer> ids = archiveBatch( writer, fileOut, before, afterId );
+        batch = ids.size();
+        count += batch;
+        if ( batch > 0 ) {
+          afterId = ids.get( batch - 1 );
+        }
+      } while ( batch == BATCH_SIZE && !Thread.currentThread().isInterrupted() );
+      writer.close();
+      writer = null;
+    } finally {
+      if ( writer != null ) {
+        // failed, the gzip is still completed so the comments already moved can be read back
+        IOUtils.closeQuietly( writer );
+        if ( count > 0 ) {
+          logger.error( "Archiving stopped after " + count + " comments, they were moved to " + file );
+        }
+      }
+      IOUtils.closeQuietly( fileOut );
+    }
+
+    if ( count == 0 ) {
+      file.delete();
+    } else {
+      logger.info( "Archived " + count + " comments to " + file );
+    }
+    return count;
+  }
+
+  /**
+   * Writes and deletes the comments following the given id, in one transaction.
+   *
+   * @return ids of the comments moved, in order
+   */
+  private List<Integer> archiveBatch( Writer writer, FileOutputStream fileOut, Date before, int afterId )
+    throws IOException, JSONException, PluginHibernateException {
+    List<Integer> ids = new ArrayList<Integer>( BATCH_SIZE );
+    Set<String> pages = new HashSet<String>();
+    Session session = getSession();
+    try {
+      session.beginTransaction();
+
+      Query query = session.getNamedQuery( "org.pentaho.cdf.comments.CommentEntry.getCommentsToArchive" );
+      query.setTimestamp( "before", before );
+      query.setInteger( "afterId", afterId );
+      query.setMaxResults( BATCH_SIZE );
+      query.setFetchSize( BATCH_SIZE );
+      ScrollableResults rows = query.scroll( ScrollMode.FORWARD_ONLY );
+      try {
+        while ( rows.next() ) {
+          Object[] row = rows.get();
+          writer.write( toJson( row ).toString() );
+          writer.write( '\n' );
+          ids.add( (Integer) row[ 0 ] );
+          pages.add( (String) row[ 1 ] );
+        }
+      } finally {
+        rows.close();
+      }
+
+      if ( !ids.isEmpty() ) {
+        // comments must be on disk before they are deleted
+        writer.flush();
+        fileOut.getFD().sync();
+
+        Query delete = session.getNamedQuery( "org.pentaho.cdf.comments.CommentEntry.deleteArchivedComments" );
+        delete.setParameterList( "commentIds", ids );
+        delete.executeUpdate();
+      }
+      session.getTransaction().commit();
+    } finally {
+      rollbackAndClose( session );
+    }
+
+    if ( cache != null ) {
+      for ( String page : pages ) {
+        cache.invalidate( page );
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * @param row commentId, page, user, comment, deleted, archived, createdDate
+   */
+  static JSONObject toJson( Object[] row ) throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put( "id", row[ 0 ] );
+    json.put( "page", row[ 1 ] );
+    json.put( "user", row[ 2 ] );
+    json.put( "comment", row[ 3 ] );
+    json.put( "deleted", row[ 4 ] );
+    json.put( "archived", row[ 5 ] );
+    json.put( "created", ( (Date) row[ 6 ] ).getTime() );
+    return json;
+  }
+
+  protected Session getSession() throws PluginHibernateException {
+    return PluginHibernateUtil.openSession();
+  }
+
+  private void rollbackAndClose( Session session ) {
+    try {
+      if ( session.getTransaction().isActive() ) {
+        session.getTransaction().rollback();
+      }
+    } finally {
+      session.close();
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.comments;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Comment listings by page, kept until a comment of that page changes.<br>
+ * Each page has a version that changes on every add, delete or archive of one of its comments. Listings are kept
+ * with the version they were read at and only served while it is still the current one.
+ * Versions start from the creation time so they aren't repeated after a restart.
+ */
+public class CommentsCache {
+
+  static final int DEFAULT_CACHE_SIZE = 1000;
+
+  private final long initialVersion;
+  private final AtomicLong lastVersion;
+  private final Map<String, Long> versions = new ConcurrentHashMap<String, Long>();
+  private final Map<String, Listing> listings;
+
+  public CommentsCache() {
+    this( DEFAULT_CACHE_SIZE );
+  }
+
+  @SuppressWarnings( "serial" )
+  public CommentsCache( final int cacheSize ) {
+    this.initialVersion = System.currentTimeMillis();
+    this.lastVersion = new AtomicLong( initialVersion );
+    this.listings = Collections.synchronizedMap( new LinkedHashMap<String, Listing>( 16, 0.75f, true ) {
+      @Override
+      protected boolean removeEldestEntry( Map.Entry<String, Listing> eldest ) {
+        return size() > cacheSize;
+      }
+    } );
+  }
+
+  /**
+   * @return current version of the page comments, read it before listing them
+   */
+  public long getVersion( String page ) {
+    Long version = versions.get( page );
+    return version == null ? initialVersion : version;
+  }
+
+  /**
+   * @param window listing parameters other than the page
+   * @return comments listed at the given version, <code>null</code> if not cached or outdated
+   */
+  public List<CommentEntry> get( String page, String window, long version ) {
+    Listing listing = listings.get( getKey( page, window ) );
+    return listing != null && listing.version == version ? listing.comments : null;
+  }
+
+  /**
+   * @param version page version read before listing the comments
+   */
+  public void put( String page, String window, long version, List<CommentEntry> comments ) {
+    if ( version == getVersion( page ) ) {
+      listings.put( getKey( page, window ), new Listing( version, Collections.unmodifiableList( comments ) ) );
+    }
+  }
+
+  /**
+   * Discards all listings of a page, to be called after one of its comments changes.
+   */
+  public void invalidate( String page ) {
+    versions.put( page, lastVersion.incrementAndGet() );
+  }
+
+  private static String getKey( String page, String window ) {
+    return page + '\n' + window;
+  }
+
+  private static class Listing {
+    private final long version;
+    private final List<CommentEntry> comments;
+
+    Listing( long version, List<CommentEntry> comments ) {
+      this.version = version;
+      this.comments = comments;
+    }
+  }
+}
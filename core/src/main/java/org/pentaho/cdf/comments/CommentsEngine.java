@@ -13,8 +13,16 @@
 
 package org.pentaho.cdf.comments;
 
-import java.text.SimpleDateFormat;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -24,7 +32,7 @@ import org.hibernate.Session;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.owasp.encoder.Encode;
+import org.pentaho.cdf.CdfConstants;
 import org.pentaho.cdf.InvalidCdfOperationException;
 import org.pentaho.cdf.PluginHibernateException;
 import org.pentaho.cdf.environment.CdfEngine;
@@ -37,6 +45,7 @@ import pt.webdetails.cpf.repository.api.IBasicFile;
 public class CommentsEngine {
   private static final Log logger = LogFactory.getLog( CommentsEngine.class );
   private static CommentsEngine instance;
+  private static CommentsArchiver archiver;
 
   public static enum Operation {
     ADD( "ADD" ), DELETE( "DELETE" ), ARCHIVE( "ARCHIVE" ), LIST( "LIST" ), UNKNOWN( "UNKNOWN" );
@@ -58,16 +67,78 @@ public class CommentsEngine {
     }
   }
 
-  private static final SimpleDateFormat format = new SimpleDateFormat( "yyyy-MM-dd HH:mm:ss" );
+  public static final String NEXT_CURSOR = "nextCursor";
+
+  private static final int ENCODED_CACHE_SIZE = 5000;
+  // ids per statement on bulk changes, some databases limit in clauses to 1000 items
+  private static final int BULK_SIZE = 500;
+  // hours
+  private static final int DEFAULT_ARCHIVE_INTERVAL = 24;
+
+  // encoded comment fields by comment id
+  @SuppressWarnings( "serial" )
+  private static final Map<Integer, EncodedComment> encoded = Collections.synchronizedMap(
+    new LinkedHashMap<Integer, EncodedComment>( 16, 0.75f, true ) {
+      @Override
+      protected boolean removeEldestEntry( Map.Entry<Integer, EncodedComment> eldest ) {
+        return size() > ENCODED_CACHE_SIZE;
+      }
+    } );
+
+  private final CommentsCache cache = new CommentsCache();
 
-  public static CommentsEngine getInstance() {
+  public static synchronized CommentsEngine getInstance() {
     if ( instance == null ) {
       PluginHibernateUtil.initialize();
       instance = new CommentsEngine();
+      archiver = createArchiver( instance.getCache() );
     }
     return instance;
   }
 
+  /**
+   * Stops the archive job, to be called when the plugin is unloaded.
+   */
+  public static synchronized void shutdown() {
+    if ( archiver != null ) {
+      archiver.shutdown();
+      archiver = null;
+    }
+    instance = null;
+  }
+
+  private static CommentsArchiver createArchiver( CommentsCache cache ) {
+    int minAge = getSetting( CdfConstants.PLUGIN_SETTINGS_COMMENTS_ARCHIVE_MIN_AGE, 0 );
+    String directory = getSetting( CdfConstants.PLUGIN_SETTINGS_COMMENTS_ARCHIVE_DIRECTORY );
+    if ( minAge <= 0 || StringUtils.isEmpty( directory ) ) {
+      return null;
+    }
+    CommentsArchiver commentsArchiver = new CommentsArchiver( new File( directory.trim() ),
+        TimeUnit.DAYS.toMillis( minAge ), cache );
+    commentsArchiver.start( TimeUnit.HOURS.toMillis(
+        getSetting( CdfConstants.PLUGIN_SETTINGS_COMMENTS_ARCHIVE_INTERVAL, DEFAULT_ARCHIVE_INTERVAL ) ) );
+    return commentsArchiver;
+  }
+
+  private static int getSetting( String key, int defaultValue ) {
+    String value = getSetting( key );
+    try {
+      return StringUtils.isEmpty( value ) ? defaultValue : Integer.parseInt( value.trim() );
+    } catch ( NumberFormatException e ) {
+      logger.error( "Invalid value for " + key + ", using " + defaultValue );
+      return defaultValue;
+    }
+  }
+
+  private static String getSetting( String key ) {
+    try {
+      return CdfEngine.getEnvironment().getResourceLoader().getPluginSetting( CommentsEngine.class, key );
+    } catch ( Exception e ) {
+      logger.error( "Unable to read " + key, e );
+      return null;
+    }
+  }
+
   public CommentsEngine() {
     try {
       logger.info( "Creating CommentsEngine instance" );
@@ -95,16 +166,40 @@ public class CommentsEngine {
     CommentEntry commentEntry = new CommentEntry( page, user, comment );
 
     Session session = getSession();
-    session.beginTransaction();
-    session.save( commentEntry );
-    session.flush();
-    session.getTransaction().commit();
+    try {
+      session.beginTransaction();
+      session.save( commentEntry );
+      session.flush();
+      session.getTransaction().commit();
+      getCache().invalidate( page );
+    } finally {
+      rollbackAndClose( session );
+    }
 
     return JsonUtil.makeJsonSuccessResponse( commentToJson( commentEntry, user ) );
   }
 
   public JSONObject list( String page, int firstResult, int maxResults, boolean isDeleted, boolean isArchived,
       String user ) throws JSONException, InvalidCdfOperationException, PluginHibernateException {
+    return list( page, firstResult, null, maxResults, isDeleted, isArchived, user );
+  }
+
+  /**
+   * Lists the comments following a previous page, reading it costs the same whatever the page depth.
+   *
+   * @param cursor <code>nextCursor</code> of the previous page
+   */
+  public JSONObject list( String page, String cursor, int maxResults, boolean isDeleted, boolean isArchived,
+      String user ) throws JSONException, InvalidCdfOperationException, PluginHibernateException {
+    if ( StringUtils.isEmpty( cursor ) ) {
+      logger.error( "Parameter 'cursor' is not optional" );
+      throw new InvalidCdfOperationException( "Cursor cannot be null" );
+    }
+    return list( page, 0, CommentCursor.parse( cursor ), maxResults, isDeleted, isArchived, user );
+  }
+
+  private JSONObject list( String page, int firstResult, CommentCursor after, int maxResults, boolean isDeleted,
+      boolean isArchived, String user ) throws JSONException, InvalidCdfOperationException, PluginHibernateException {
     logger.debug( "Listing messages" );
 
     if ( StringUtils.isEmpty( page ) ) {
@@ -114,30 +209,31 @@ public class CommentsEngine {
 
     final String queryName;
 
-    if ( isDeleted || isArchived ) {
+    if ( after != null ) {
+      queryName = "getCommentsByPageAfter";
+    } else if ( isDeleted || isArchived ) {
       queryName = "getCommentsByPageWhere";
     } else {
       queryName = "getCommentsByPage"; // default query
     }
 
-    logger.debug( "Adding comment" );
-    Session session = getSession();
-
-    Query query = session.getNamedQuery( "org.pentaho.cdf.comments.CommentEntry." + queryName );
-    query.setString( "page", page );
+    final int limit = maxResults < 0 ? 20 : maxResults; // default 20
+    final int first = firstResult < 0 ? 0 : firstResult; // default 0
 
-    if ( isDeleted || isArchived ) {
-      query.setBoolean( "deleted", isDeleted );
-      query.setBoolean( "archived", isArchived );
+    CommentsCache listingCache = getCache();
+    String window = isDeleted + ":" + isArchived + ":" + ( after != null ? after : first ) + ":" + limit;
+    long version = listingCache.getVersion( page );
+    List<CommentEntry> comments = listingCache.get( page, window, version );
+    if ( comments == null ) {
+      comments = query( queryName, page, first, after, limit, isDeleted, isArchived );
+      listingCache.put( page, window, version, comments );
     }
 
-    query.setFirstResult( firstResult < 0 ? 0 : firstResult ); // default 0
-    query.setMaxResults( maxResults < 0 ? 20 : maxResults ); // default 20
-
-    // Get it and build the tree
-
-    @SuppressWarnings( "unchecked" )
-    List<CommentEntry> comments = query.list();
+    String nextCursor = null;
+    if ( limit > 0 && comments.size() > limit ) {
+      comments = comments.subList( 0, limit );
+      nextCursor = new CommentCursor( comments.get( limit - 1 ) ).toString();
+    }
 
     JSONArray jsonArray = new JSONArray();
     for ( CommentEntry comment : comments ) {
@@ -145,7 +241,54 @@ public class CommentsEngine {
       jsonArray.put( commentJson );
     }
 
-    return JsonUtil.makeJsonSuccessResponse( jsonArray );
+    JSONObject response = JsonUtil.makeJsonSuccessResponse( jsonArray );
+    if ( nextCursor != null ) {
+      response.put( NEXT_CURSOR, nextCursor );
+    }
+    return response;
+  }
+
+  /**
+   * @return version of the comments of a page, changes whenever one of them is added, deleted or archived
+   */
+  public long getPageVersion( String page ) {
+    return getCache().getVersion( page );
+  }
+
+  private List<CommentEntry> query( String queryName, String page, int firstResult, CommentCursor after, int limit,
+      boolean isDeleted, boolean isArchived ) throws PluginHibernateException {
+    List<CommentEntry> comments;
+    Session session = getSession();
+    try {
+      Query query = session.getNamedQuery( "org.pentaho.cdf.comments.CommentEntry." + queryName );
+      query.setString( "page", page );
+
+      if ( after != null || isDeleted || isArchived ) {
+        query.setBoolean( "deleted", isDeleted );
+        query.setBoolean( "archived", isArchived );
+      }
+
+      if ( after != null ) {
+        query.setTimestamp( "createdDate", after.getCreatedDate() );
+        query.setInteger( "commentId", after.getCommentId() );
+      } else {
+        query.setFirstResult( firstResult );
+      }
+
+      if ( limit > 0 ) {
+        // one more row tells if there is a next page
+        query.setMaxResults( limit + 1 );
+      }
+
+      // Get it and build the tree
+
+      @SuppressWarnings( "unchecked" )
+      List<CommentEntry> result = query.list();
+      comments = result;
+    } finally {
+      session.close();
+    }
+    return comments;
   }
 
   public JSONObject delete( int commentId, boolean status, String user, boolean isAdmin ) throws JSONException,
@@ -160,50 +303,213 @@ public class CommentsEngine {
     return changeCommentStatus( Operation.ARCHIVE, commentId, status, user, isAdmin );
   }
 
+  /**
+   * Deletes several comments in one transaction, only those of the user unless an administrator.
+   *
+   * @return <code>updated</code> and <code>unauthorized</code> comment ids
+   */
+  public JSONObject delete( List<Integer> commentIds, boolean status, String user, boolean isAdmin )
+    throws JSONException, PluginHibernateException {
+    logger.debug( "Deleting " + commentIds.size() + " comments" );
+    return changeCommentsStatus( Operation.DELETE, commentIds, null, null, status, user, isAdmin );
+  }
+
+  /**
+   * Deletes the comments of a page created before the given date.
+   *
+   * @see #delete(List, boolean, String, boolean)
+   */
+  public JSONObject delete( String page, Date before, boolean status, String user, boolean isAdmin )
+    throws JSONException, InvalidCdfOperationException, PluginHibernateException {
+    checkPageBefore( page, before );
+    logger.debug( "Deleting comments of " + page );
+    return changeCommentsStatus( Operation.DELETE, null, page, before, status, user, isAdmin );
+  }
+
+  /**
+   * Archives several comments in one transaction, only those of the user unless an administrator.
+   *
+   * @return <code>updated</code> and <code>unauthorized</code> comment ids
+   */
+  public JSONObject archive( List<Integer> commentIds, boolean status, String user, boolean isAdmin )
+    throws JSONException, PluginHibernateException {
+    logger.debug( "Archiving " + commentIds.size() + " comments" );
+    return changeCommentsStatus( Operation.ARCHIVE, commentIds, null, null, status, user, isAdmin );
+  }
+
+  /**
+   * Archives the comments of a page created before the given date.
+   *
+   * @see #archive(List, boolean, String, boolean)
+   */
+  public JSONObject archive( String page, Date before, boolean status, String user, boolean isAdmin )
+    throws JSONException, InvalidCdfOperationException, PluginHibernateException {
+    checkPageBefore( page, before );
+    logger.debug( "Archiving comments of " + page );
+    return changeCommentsStatus( Operation.ARCHIVE, null, page, before, status, user, isAdmin );
+  }
+
+  private void checkPageBefore( String page, Date before ) throws InvalidCdfOperationException {
+    if ( StringUtils.isEmpty( page ) ) {
+      logger.error( "Parameter 'page' is not optional" );
+      throw new InvalidCdfOperationException( "Page cannot be null" );
+    }
+    if ( before == null ) {
+      logger.error( "Parameter 'before' is not optional" );
+      throw new InvalidCdfOperationException( "Before date cannot be null" );
+    }
+  }
+
+  /**
+   * Reads the owners of the selected comments, then changes those the user may change with batched updates.
+   */
+  private JSONObject changeCommentsStatus( Operation operation, List<Integer> commentIds, String page, Date before,
+      boolean status, String user, boolean isAdmin ) throws JSONException, PluginHibernateException {
+    List<Integer> updated = new ArrayList<Integer>();
+    List<Integer> unauthorized = new ArrayList<Integer>();
+    Set<String> pages = new HashSet<String>();
+
+    Session session = getSession();
+    try {
+      session.beginTransaction();
+
+      List<Object[]> owners = new ArrayList<Object[]>();
+      if ( commentIds != null ) {
+        for ( List<Integer> ids : partition( commentIds ) ) {
+          Query query = session.getNamedQuery( "org.pentaho.cdf.comments.CommentEntry.getCommentOwnersByIds" );
+          query.setParameterList( "commentIds", ids );
+          owners.addAll( listOwners( query ) );
+        }
+      } else {
+        Query query = session.getNamedQuery( "org.pentaho.cdf.comments.CommentEntry.getCommentOwnersByPageBefore" );
+        query.setString( "page", page );
+        query.setTimestamp( "before", before );
+        owners.addAll( listOwners( query ) );
+      }
+
+      // owner check done for each comment
+      for ( Object[] owner : owners ) {
+        Integer commentId = (Integer) owner[ 0 ];
+        if ( isAdmin || ( owner[ 1 ] != null && owner[ 1 ].equals( user ) ) ) {
+          updated.add( commentId );
+          pages.add( (String) owner[ 2 ] );
+        } else {
+          unauthorized.add( commentId );
+        }
+      }
+
+      String updateName = operation == Operation.DELETE ? "updateDeletedByIds" : "updateArchivedByIds";
+      for ( List<Integer> ids : partition( updated ) ) {
+        Query update = session.getNamedQuery( "org.pentaho.cdf.comments.CommentEntry." + updateName );
+        update.setBoolean( "status", status );
+        update.setParameterList( "commentIds", ids );
+        update.executeUpdate();
+      }
+      session.getTransaction().commit();
+    } finally {
+      rollbackAndClose( session );
+    }
+
+    for ( String changedPage : pages ) {
+      getCache().invalidate( changedPage );
+    }
+
+    JSONObject result = new JSONObject();
+    result.put( "updated", new JSONArray( updated ) );
+    result.put( "unauthorized", new JSONArray( unauthorized ) );
+    return JsonUtil.makeJsonSuccessResponse( result );
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private static List<Object[]> listOwners( Query query ) {
+    return query.list();
+  }
+
+  /**
+   * Splits ids in lists small enough for an <code>in</code> clause.
+   */
+  static List<List<Integer>> partition( List<Integer> commentIds ) {
+    List<List<Integer>> parts = new ArrayList<List<Integer>>();
+    for ( int i = 0; i < commentIds.size(); i += BULK_SIZE ) {
+      parts.add( commentIds.subList( i, Math.min( i + BULK_SIZE, commentIds.size() ) ) );
+    }
+    return parts;
+  }
+
   @SuppressWarnings( "incomplete-switch" )
   private JSONObject changeCommentStatus( Operation operation, int commentId, boolean status, String user,
       boolean isAdmin ) throws JSONException, PluginHibernateException {
     Session session = getSession();
-    session.beginTransaction();
-    CommentEntry comment = (CommentEntry) session.load( CommentEntry.class, commentId );
+    try {
+      session.beginTransaction();
+      CommentEntry comment = (CommentEntry) session.load( CommentEntry.class, commentId );
 
-    Boolean isUser = comment.getUser().equals( user );
+      Boolean isUser = comment.getUser().equals( user );
 
-    if ( !isUser && !isAdmin ) {
-      return JsonUtil.makeJsonErrorResponse( "Operation not authorized: not comment owner or administrator", false );
-    }
+      if ( !isUser && !isAdmin ) {
+        return JsonUtil.makeJsonErrorResponse( "Operation not authorized: not comment owner or administrator", false );
+      }
 
-    // this switch-case does not need enum's full spectrum
-    switch ( operation ) {
-      case DELETE:
-        comment.setDeleted( status );
-        break;
-      case ARCHIVE:
-        comment.setArchived( status );
-        break;
-    }
-    session.save( comment );
-    session.getTransaction().commit();
+      // this switch-case does not need enum's full spectrum
+      switch ( operation ) {
+        case DELETE:
+          comment.setDeleted( status );
+          break;
+        case ARCHIVE:
+          comment.setArchived( status );
+          break;
+      }
+      session.save( comment );
+      session.getTransaction().commit();
+      getCache().invalidate( comment.getPage() );
 
-    return JsonUtil.makeJsonSuccessResponse( commentToJson( comment, user ) );
+      return JsonUtil.makeJsonSuccessResponse( commentToJson( comment, user ) );
+    } finally {
+      rollbackAndClose( session );
+    }
   }
 
   protected JSONObject commentToJson( CommentEntry comment, String user ) throws JSONException {
+    EncodedComment encodedComment = getEncoded( comment );
     JSONObject commentJson = new JSONObject();
     commentJson.put( "id", comment.getCommentId() );
     commentJson.put( "user", comment.getUser() );
-    commentJson.put( "page", Encode.forJavaScriptSource( Encode.forHtmlUnquotedAttribute( comment.getPage() ) ) );
-    commentJson.put( "createdOn", format.format( comment.getCreatedDate() ) );
+    commentJson.put( "page", encodedComment.getPage() );
+    commentJson.put( "createdOn", encodedComment.getCreatedOn() );
     commentJson.put( "elapsedMinutes", comment.getMinutesSinceCreation() );
-    commentJson.put( "comment", Encode.forJavaScriptSource( Encode.forHtmlContent(  comment.getComment() ) ) );
+    commentJson.put( "comment", encodedComment.getComment() );
     commentJson.put( "isMe", comment.getUser().equals( user ) );
     commentJson.put( "isDeleted", comment.isDeleted() );
     commentJson.put( "isArchived", comment.isArchived() );
     return commentJson;
   }
 
-  private Session getSession() throws PluginHibernateException {
-    return PluginHibernateUtil.getSession();
+  private static EncodedComment getEncoded( CommentEntry comment ) {
+    EncodedComment encodedComment = encoded.get( comment.getCommentId() );
+    // ids could be reused if the table is recreated
+    if ( encodedComment == null || !encodedComment.isFor( comment ) ) {
+      encodedComment = new EncodedComment( comment );
+      encoded.put( comment.getCommentId(), encodedComment );
+    }
+    return encodedComment;
+  }
+
+  protected CommentsCache getCache() {
+    return cache;
+  }
+
+  protected Session getSession() throws PluginHibernateException {
+    return PluginHibernateUtil.openSession();
+  }
+
+  private void rollbackAndClose( Session session ) {
+    try {
+      if ( session.getTransaction().isActive() ) {
+        session.getTransaction().rollback();
+      }
+    } finally {
+      session.close();
+    }
   }
 
   private void initialize() throws PluginHibernateException {
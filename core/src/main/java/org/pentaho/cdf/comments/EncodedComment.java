@@ -0,0 +1,68 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.comments;
+
+import org.apache.commons.lang.time.FastDateFormat;
+import org.owasp.encoder.Encode;
+
+/**
+ * Fields of a {@link CommentEntry} as sent to clients. Comments are never edited, so these are computed once.
+ */
+public class EncodedComment {
+
+  /**
+   * Format of comment dates sent to clients.
+   */
+  public static final String DATE_PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+  // thread safe, unlike SimpleDateFormat
+  private static final FastDateFormat DATE_FORMAT = FastDateFormat.getInstance( DATE_PATTERN );
+
+  private final String rawPage;
+  private final String rawComment;
+  private final String page;
+  private final String comment;
+  private final String createdOn;
+
+  public EncodedComment( CommentEntry entry ) {
+    this.rawPage = entry.getPage();
+    this.rawComment = entry.getComment();
+    this.page = Encode.forJavaScriptSource( Encode.forHtmlUnquotedAttribute( rawPage ) );
+    this.comment = Encode.forJavaScriptSource( Encode.forHtmlContent( rawComment ) );
+    this.createdOn = DATE_FORMAT.format( entry.getCreatedDate() );
+  }
+
+  /**
+   * @return if this was built from the given entry contents
+   */
+  public boolean isFor( CommentEntry entry ) {
+    return equals( rawPage, entry.getPage() ) && equals( rawComment, entry.getComment() );
+  }
+
+  public String getPage() {
+    return page;
+  }
+
+  public String getComment() {
+    return comment;
+  }
+
+  public String getCreatedOn() {
+    return createdOn;
+  }
+
+  private static boolean equals( String a, String b ) {
+    return a == null ? b == null : a.equals( b );
+  }
+}
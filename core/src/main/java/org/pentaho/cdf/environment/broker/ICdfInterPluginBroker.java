@@ -21,6 +21,11 @@ public interface ICdfInterPluginBroker {
 
   public void addCdaQueries( JSONObject queries, String cdaPath );
 
+  /**
+   * Adds the results of all queries in the given cda files, in order, as if added one file at a time.
+   */
+  public void addCdaQueries( JSONObject queries, List<String> cdaPaths );
+
   public List<String> listCdaQueries( String cda );
 
   public String executeCdaQuery( String path, String id );
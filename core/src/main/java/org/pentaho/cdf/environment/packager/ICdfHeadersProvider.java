@@ -20,4 +20,6 @@ public interface ICdfHeadersProvider {
   public String getHeaders( String dashboardType, boolean isDebugMode, List<String> componentTypes );
 
   public String getHeaders( String dashboardType, boolean isDebugMode, String absRoot, List<String> componentTypes );
+
+  public void clearCache();
 }
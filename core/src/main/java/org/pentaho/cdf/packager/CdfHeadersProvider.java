@@ -18,6 +18,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -75,33 +76,69 @@ public class CdfHeadersProvider implements ICdfHeadersProvider {
   }
   private static final String DEFAULT_DASHBOARD_TYPE = "blueprint";
 
+  // max number of rendered headers kept in cache
+  private static final int HEADERS_CACHE_SIZE = 128;
+  // min interval between checks for changes in properties or dependency files
+  private static final long VERSION_CHECK_INTERVAL = 10000L;
+
   // base properties cache
   private Properties baseProperties;
-  private Properties extraProperties;
+  private volatile Properties extraProperties;
   // for cdf dashboards
-  private List<? extends DependenciesPackage> extraIncludes;
+  private volatile List<StaticDependenciesPackage> extraIncludes;
+
+  private volatile Map<String, List<StaticDependenciesPackage>> dashboardIncludes;
 
-  private Map<String, List<? extends DependenciesPackage>> dashboardIncludes =
-      new HashMap<String, List<? extends DependenciesPackage>>();
+  // rendered headers, keyed by version and getHeaders arguments
+  private final HeadersCache headersCache = new HeadersCache( HEADERS_CACHE_SIZE );
+  // properties files last modified dates when dependencies were loaded
+  private String propertiesVersion;
+  // incremented every time dependencies are reloaded
+  private volatile int version;
+  private volatile long lastVersionCheck;
+  private final Object versionLock = new Object();
 
   public CdfHeadersProvider() {
+    loadDependencies();
+  }
+
+  private void loadDependencies() {
     IReadAccess reader = getContentAccess().getPluginSystemReader( BASE_DIR );
+    String newPropertiesVersion = getPropertiesVersion( reader );
     // base includes
     baseProperties = new Properties();
     loadProperties( reader, BASE_DEPENDENCIES, baseProperties );
     // extra includes
-    extraProperties = loadProperties( reader, CDF_DASHBOARD_DEPENDENCIES, new Properties() );
+    Properties newExtraProperties = loadProperties( reader, CDF_DASHBOARD_DEPENDENCIES, new Properties() );
     PathSet pathSet = new PathSet();
-    addCustomDependencies( pathSet, extraProperties );
-    extraIncludes = createDependenciesPackages( "cdf-dashboard", pathSet );
+    addCustomDependencies( pathSet, newExtraProperties );
+    List<StaticDependenciesPackage> newExtraIncludes = createDependenciesPackages( "cdf-dashboard", pathSet );
     // dashboard types
+    Map<String, List<StaticDependenciesPackage>> newDashboardIncludes =
+        new HashMap<String, List<StaticDependenciesPackage>>();
     for ( String dashboardType : acceptedDashboardTypes ) {
       try {
-        dashboardIncludes.put( dashboardType, createDependenciesPackages( dashboardType ) );
+        newDashboardIncludes.put( dashboardType, createDependenciesPackages( dashboardType ) );
       } catch ( Exception e ) {
         logError( "Unable to load headers for " + dashboardType, e );
       }
     }
+    extraProperties = newExtraProperties;
+    extraIncludes = newExtraIncludes;
+    dashboardIncludes = newDashboardIncludes;
+    propertiesVersion = newPropertiesVersion;
+    lastVersionCheck = System.currentTimeMillis();
+  }
+
+  /**
+   * Drops all rendered headers, they will be rebuilt on the next request.
+   */
+  @Override
+  public void clearCache() {
+    synchronized ( versionLock ) {
+      version++;
+      headersCache.clear();
+    }
   }
 
   /**
@@ -139,6 +176,18 @@ public class CdfHeadersProvider implements ICdfHeadersProvider {
       getLog().error( dashboardType + " is not a valid dashboard type. Defaulting to " + DEFAULT_DASHBOARD_TYPE );
       dashboardType = DEFAULT_DASHBOARD_TYPE;
     }
+    checkVersion();
+    String cacheKey = getCacheKey( version, dashboardType, isDebugMode, absRoot, componentTypes );
+    String headers = headersCache.get( cacheKey );
+    if ( headers == null ) {
+      headers = buildHeaders( dashboardType, isDebugMode, absRoot, componentTypes );
+      headersCache.put( cacheKey, headers );
+    }
+    return headers;
+  }
+
+  protected String buildHeaders( String dashboardType, boolean isDebugMode, String absRoot,
+                                 List<String> componentTypes ) {
     StringBuilder deps = new StringBuilder();
     for ( DependenciesPackage pkg : getDependenciesPackages( dashboardType ) ) {
       deps.append( String.format( "<!-- %s -->", pkg.getName() ) );
@@ -205,6 +254,68 @@ public class CdfHeadersProvider implements ICdfHeadersProvider {
     return deps.toString();
   }
 
+  /**
+   * Reloads dependencies if any resources*.properties or dependency file changed since they were loaded.
+   * Only checks once every {@link #VERSION_CHECK_INTERVAL} ms.
+   */
+  protected void checkVersion() {
+    if ( System.currentTimeMillis() - lastVersionCheck < VERSION_CHECK_INTERVAL ) {
+      return;
+    }
+    synchronized ( versionLock ) {
+      if ( System.currentTimeMillis() - lastVersionCheck < VERSION_CHECK_INTERVAL ) {
+        return;
+      }
+      lastVersionCheck = System.currentTimeMillis();
+      IReadAccess reader = getContentAccess().getPluginSystemReader( BASE_DIR );
+      if ( !getPropertiesVersion( reader ).equals( propertiesVersion ) || isOutdated() ) {
+        getLog().info( "Dependencies changed, reloading CDF headers." );
+        loadDependencies();
+        clearCache();
+      }
+    }
+  }
+
+  private boolean isOutdated() {
+    for ( StaticDependenciesPackage pkg : extraIncludes ) {
+      if ( pkg.isOutdated() ) {
+        return true;
+      }
+    }
+    for ( List<StaticDependenciesPackage> packages : dashboardIncludes.values() ) {
+      for ( StaticDependenciesPackage pkg : packages ) {
+        if ( pkg.isOutdated() ) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private String getPropertiesVersion( IReadAccess reader ) {
+    StringBuilder propsVersion = new StringBuilder();
+    propsVersion.append( reader.getLastModified( BASE_DEPENDENCIES ) );
+    propsVersion.append( ',' ).append( reader.getLastModified( CDF_DASHBOARD_DEPENDENCIES ) );
+    for ( String dashboardType : acceptedDashboardTypes ) {
+      propsVersion.append( ',' )
+          .append( reader.getLastModified( String.format( "resources.%s.properties", dashboardType ) ) );
+    }
+    return propsVersion.toString();
+  }
+
+  private static String getCacheKey( int version, String dashboardType, boolean isDebugMode, String absRoot,
+                                     List<String> componentTypes ) {
+    StringBuilder key = new StringBuilder();
+    key.append( version ).append( '|' ).append( dashboardType ).append( '|' ).append( isDebugMode ).append( '|' )
+        .append( absRoot ).append( '|' );
+    if ( componentTypes != null ) {
+      for ( String componentType : componentTypes ) {
+        key.append( componentType ).append( ',' );
+      }
+    }
+    return key.toString();
+  }
+
   private class CdfDependencyInclusionFilter implements DependenciesPackage.IDependencyInclusionFilter {
     private List<String> filePaths;
     public CdfDependencyInclusionFilter( List<String> filePaths ) {
@@ -410,6 +521,37 @@ public class CdfHeadersProvider implements ICdfHeadersProvider {
     }
   }
 
+  @SuppressWarnings( "serial" )
+  private static class HeadersCache extends LinkedHashMap<String, String> {
+
+    private final int maxSize;
+
+    public HeadersCache( int maxSize ) {
+      super( 16, 0.75f, true );
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    public synchronized String get( Object key ) {
+      return super.get( key );
+    }
+
+    @Override
+    public synchronized String put( String key, String value ) {
+      return super.put( key, value );
+    }
+
+    @Override
+    public synchronized void clear() {
+      super.clear();
+    }
+
+    @Override
+    protected boolean removeEldestEntry( Map.Entry<String, String> eldest ) {
+      return size() > maxSize;
+    }
+  }
+
   private static class PathSet {
     public List<String> ie8ScriptsBeforeScripts = new ArrayList<String>();
     public List<String> scripts = new ArrayList<String>();
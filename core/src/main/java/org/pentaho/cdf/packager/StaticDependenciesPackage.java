@@ -13,6 +13,9 @@
 
 package org.pentaho.cdf.packager;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import pt.webdetails.cpf.context.api.IUrlProvider;
 import pt.webdetails.cpf.packager.DependenciesPackage;
 import pt.webdetails.cpf.packager.origin.PathOrigin;
@@ -25,6 +28,10 @@ import pt.webdetails.cpf.repository.api.IReadAccess;
 public class StaticDependenciesPackage extends DependenciesPackage {
 
   private boolean registryClosed = false;
+  private IContentAccessFactory factory;
+  private PathOrigin origin;
+  // file path -> version (lastModified) at registration time
+  private Map<String, String> fileVersions = new LinkedHashMap<String, String>();
 
   public StaticDependenciesPackage(
       String name,
@@ -34,14 +41,32 @@ public class StaticDependenciesPackage extends DependenciesPackage {
       PathOrigin origin,
       String[] files ) {
     super( name, type, factory, urlProvider );
+    this.factory = factory;
+    this.origin = origin;
     IReadAccess reader = origin.getReader( factory );
     for ( String filePath : files ) {
       String version = Long.toString( reader.getLastModified( filePath ) );
       registerFileDependency( filePath, version, origin, filePath );
+      fileVersions.put( filePath, version );
     }
     registryClosed = true;
   }
 
+  /**
+   * Checks the registered files against their current last modified date.
+   *
+   * @return <code>true</code> if any file changed since this package was created
+   */
+  public boolean isOutdated() {
+    IReadAccess reader = origin.getReader( factory );
+    for ( Map.Entry<String, String> file : fileVersions.entrySet() ) {
+      if ( !file.getValue().equals( Long.toString( reader.getLastModified( file.getKey() ) ) ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   @Override
   public boolean registerFileDependency( String name, String version, PathOrigin origin, String path ) {
     if ( registryClosed ) {
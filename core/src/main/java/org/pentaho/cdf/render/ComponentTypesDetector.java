@@ -0,0 +1,94 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.render;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.pentaho.cdf.CdfConstants;
+
+/**
+ * Finds which component types are used in a dashboard's content.<br>
+ * All types are compiled into a single alternation so the content is scanned only once.
+ */
+public class ComponentTypesDetector {
+
+  // e.g. type: "tableComponent"
+  private static final String TYPE_PATTERN = "type:\\s*[\"'](?i)(?:%s)[a-z]*[\"']";
+
+  private static final ComponentTypesDetector instance =
+      new ComponentTypesDetector( CdfConstants.DASHBOARD_COMPONENT_TYPES );
+
+  private final String[] componentTypes;
+  // group in pattern that matches each component type
+  private final int[] groups;
+  private final Pattern pattern;
+
+  /**
+   * @param componentTypes pairs of { type regex, component type }, see
+   *                       {@link CdfConstants#DASHBOARD_COMPONENT_TYPES}
+   */
+  public ComponentTypesDetector( String[][] componentTypes ) {
+    this.componentTypes = new String[componentTypes.length];
+    this.groups = new int[componentTypes.length];
+    StringBuilder alternatives = new StringBuilder();
+    int group = 1;
+    for ( int i = 0; i < componentTypes.length; i++ ) {
+      String regex = componentTypes[ i ][ 0 ];
+      if ( i > 0 ) {
+        alternatives.append( '|' );
+      }
+      alternatives.append( '(' ).append( regex ).append( ')' );
+      this.componentTypes[ i ] = componentTypes[ i ][ 1 ];
+      this.groups[ i ] = group;
+      // skip groups nested in the type regex
+      group += 1 + Pattern.compile( regex ).matcher( "" ).groupCount();
+    }
+    pattern = Pattern.compile( String.format( TYPE_PATTERN, alternatives ) );
+  }
+
+  public static ComponentTypesDetector getInstance() {
+    return instance;
+  }
+
+  /**
+   * @param content dashboard content
+   * @return component types found in content, in declaration order
+   */
+  public List<String> detect( CharSequence content ) {
+    boolean[] found = new boolean[ componentTypes.length ];
+    int remaining = componentTypes.length;
+    Matcher matcher = pattern.matcher( content );
+    while ( remaining > 0 && matcher.find() ) {
+      for ( int i = 0; i < groups.length; i++ ) {
+        if ( matcher.start( groups[ i ] ) != -1 ) {
+          if ( !found[ i ] ) {
+            found[ i ] = true;
+            remaining--;
+          }
+          break;
+        }
+      }
+    }
+    List<String> result = new ArrayList<String>( componentTypes.length - remaining );
+    for ( int i = 0; i < componentTypes.length; i++ ) {
+      if ( found[ i ] ) {
+        result.add( componentTypes[ i ] );
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,224 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.render;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.List;
+
+/**
+ * Replaces <code>CDF.i18n("key")</code> tags with <code>&lt;span id="key"&gt;&lt;/span&gt;</code> placeholders,
+ * collecting the message keys found.<br>
+ * Content is copied from a char buffer in a single pass, tags split across buffer reads are handled.
+ * When processing line by line a tag must be closed in the same line, otherwise it is copied as is.
+ */
+public class I18nTagsProcessor {
+
+  private static final char[] TAG_START = "CDF.i18n(\"".toCharArray();
+  private static final char TAG_END_QUOTE = '"';
+  private static final char TAG_END = ')';
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Appendable out;
+  private final List<String> tags;
+  private final boolean normalizeLines;
+
+  // number of TAG_START chars matched so far
+  private int matched;
+  private boolean inTag;
+  private boolean quotePending;
+  private final StringBuilder key = new StringBuilder();
+  private boolean skipLineFeed;
+  private char lastChar = '\n';
+  private boolean empty = true;
+
+  /**
+   * @param out where to write the processed content
+   * @param tags list where message keys are added
+   * @param normalizeLines if line breaks should be converted to <code>\n</code>, always ending with a line break
+   */
+  public I18nTagsProcessor( Appendable out, List<String> tags, boolean normalizeLines ) {
+    this.out = out;
+    this.tags = tags;
+    this.normalizeLines = normalizeLines;
+  }
+
+  /**
+   * Processes a string, line breaks are kept as they are.
+   */
+  public static String process( String content, List<String> tags ) {
+    StringBuilder result = new StringBuilder( content.length() );
+    I18nTagsProcessor processor = new I18nTagsProcessor( result, tags, false );
+    try {
+      processor.process( content.toCharArray(), 0, content.length() );
+      processor.finish();
+    } catch ( IOException e ) {
+      // StringBuilder does not throw
+      throw new IllegalStateException( e );
+    }
+    return result.toString();
+  }
+
+  /**
+   * Processes all content from the reader. Does not close it.
+   */
+  public void process( Reader reader ) throws IOException {
+    char[] buffer = new char[BUFFER_SIZE];
+    int read;
+    while ( ( read = reader.read( buffer ) ) != -1 ) {
+      process( buffer, 0, read );
+    }
+    finish();
+  }
+
+  /**
+   * Processes a chunk of content. {@link #finish()} must be called after the last chunk.
+   */
+  public void process( char[] buffer, int offset, int length ) throws IOException {
+    // start of the pending plain text run
+    int start = offset;
+    int end = offset + length;
+    for ( int i = offset; i < end; i++ ) {
+      char c = buffer[ i ];
+      if ( inTag ) {
+        if ( normalizeLines && ( c == '\r' || c == '\n' ) ) {
+          abortTag();
+          start = i;
+          i--; // process line break as text
+        } else if ( quotePending && c == TAG_END ) {
+          endTag();
+          start = i + 1;
+        } else {
+          if ( quotePending ) {
+            key.append( TAG_END_QUOTE );
+          }
+          quotePending = c == TAG_END_QUOTE;
+          if ( !quotePending ) {
+            key.append( c );
+          }
+          start = i + 1;
+        }
+      } else if ( c == TAG_START[ matched ] ) {
+        if ( matched == 0 ) {
+          write( buffer, start, i );
+        }
+        skipLineFeed = false;
+        matched++;
+        start = i + 1;
+        if ( matched == TAG_START.length ) {
+          matched = 0;
+          inTag = true;
+        }
+      } else {
+        if ( matched > 0 ) {
+          // false start, tag chars are all different so no need to backtrack
+          write( TAG_START, 0, matched );
+          matched = 0;
+          start = i;
+          if ( c == TAG_START[ 0 ] ) {
+            i--;
+            continue;
+          }
+        }
+        if ( normalizeLines && ( c == '\r' || c == '\n' ) ) {
+          write( buffer, start, i );
+          start = i + 1;
+          if ( c == '\n' && skipLineFeed ) {
+            skipLineFeed = false;
+          } else {
+            skipLineFeed = c == '\r';
+            writeChar( '\n' );
+          }
+        } else {
+          skipLineFeed = false;
+        }
+      }
+    }
+    if ( !inTag && matched == 0 ) {
+      write( buffer, start, end );
+    }
+  }
+
+  /**
+   * Writes out anything pending.
+   */
+  public void finish() throws IOException {
+    if ( inTag ) {
+      abortTag();
+    } else if ( matched > 0 ) {
+      write( TAG_START, 0, matched );
+      matched = 0;
+    }
+    if ( normalizeLines && !empty && lastChar != '\n' ) {
+      writeChar( '\n' );
+    }
+  }
+
+  /**
+   * Message keys may have '.', which isn't allowed in a selector id.
+   */
+  public static String getSelectorName( String key ) {
+    return key.replace( '.', '_' );
+  }
+
+  private void endTag() throws IOException {
+    String tag = key.toString();
+    tags.add( tag );
+    out.append( "<span id=\"" ).append( getSelectorName( tag ) ).append( "\"></span>" );
+    lastChar = '>';
+    empty = false;
+    resetTag();
+  }
+
+  private void abortTag() throws IOException {
+    write( TAG_START, 0, TAG_START.length );
+    out.append( key );
+    if ( quotePending ) {
+      out.append( TAG_END_QUOTE );
+    }
+    if ( key.length() > 0 || quotePending ) {
+      lastChar = quotePending ? TAG_END_QUOTE : key.charAt( key.length() - 1 );
+    }
+    resetTag();
+  }
+
+  private void resetTag() {
+    inTag = false;
+    quotePending = false;
+    key.setLength( 0 );
+    skipLineFeed = false;
+  }
+
+  private void write( char[] chars, int start, int end ) throws IOException {
+    if ( end > start ) {
+      if ( out instanceof StringBuilder ) {
+        ( (StringBuilder) out ).append( chars, start, end - start );
+      } else if ( out instanceof Writer ) {
+        ( (Writer) out ).write( chars, start, end - start );
+      } else {
+        out.append( CharBuffer.wrap( chars, start, end - start ) );
+      }
+      lastChar = chars[ end - 1 ];
+      empty = false;
+    }
+  }
+
+  private void writeChar( char c ) throws IOException {
+    out.append( c );
+    lastChar = c;
+    empty = false;
+  }
+}
@@ -0,0 +1,59 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.render;
+
+/**
+ * Settings read from a .xcdf file, for a given file version.<br>
+ * Values are <code>null</code> when not defined in the file.
+ */
+public class XcdfDescriptor {
+
+  private final long version;
+  private final String template;
+  private final String messagesBaseFilename;
+  private final String style;
+  private final String require;
+
+  public XcdfDescriptor( long version, String template, String messagesBaseFilename, String style,
+                         String require ) {
+    this.version = version;
+    this.template = template;
+    this.messagesBaseFilename = messagesBaseFilename;
+    this.style = style;
+    this.require = require;
+  }
+
+  /**
+   * @return last modified date of the file when it was read
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  public String getTemplate() {
+    return template;
+  }
+
+  public String getMessagesBaseFilename() {
+    return messagesBaseFilename;
+  }
+
+  public String getStyle() {
+    return style;
+  }
+
+  public String getRequire() {
+    return require;
+  }
+}
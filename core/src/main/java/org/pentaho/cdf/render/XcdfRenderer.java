@@ -14,6 +14,9 @@
 package org.pentaho.cdf.render;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.logging.Log;
@@ -39,6 +42,18 @@ public class XcdfRenderer {
   private static final String NODE_STYLES = "/cdf/style";
   private static final String NODE_REQUIRE = "/cdf/require";
 
+  private static final int DESCRIPTOR_CACHE_SIZE = 512;
+
+  // parsed xcdf files by path, least recently used are dropped
+  @SuppressWarnings( "serial" )
+  private static final Map<String, XcdfDescriptor> descriptorCache = Collections.synchronizedMap(
+      new LinkedHashMap<String, XcdfDescriptor>( 16, 0.75f, true ) {
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, XcdfDescriptor> eldest ) {
+          return size() > DESCRIPTOR_CACHE_SIZE;
+        }
+      } );
+
   private String style;
   private String template;
   private String messagesBaseFilename;
@@ -73,39 +88,31 @@ public class XcdfRenderer {
   public boolean determineDashboardTemplating( final String dashboard, String defaultTemplate )
     throws InvalidCdfOperationException {
 
-    boolean success = false;
-    IUserContentAccess access = getUserContentAccess( null );
+    XcdfDescriptor descriptor = getDescriptor( dashboard );
+    if ( descriptor == null ) {
+      return false;
+    }
+    applyTemplating( descriptor, defaultTemplate );
+    return true;
+  }
 
-    if ( access.fileExists( dashboard ) ) {
-      // Check for access permissions
-      if ( !access.hasAccess( dashboard, FileAccess.EXECUTE ) ) {
-        throw new InvalidCdfOperationException( "Access denied" );
-      }
-
-      try {
-        Document doc = getDocument( access.fetchFile( dashboard ) );
-        if ( doc.selectSingleNode( NODE_TEMPLATE ) != null ) {
-          template = getNodeText( NODE_TEMPLATE, doc, "" );
-        } else {
-          template = defaultTemplate;
-        }
-        // Get message file base name if any
-        if ( doc.selectSingleNode( NODE_MESSAGES ) != null ) {
-          messagesBaseFilename = getNodeText( NODE_MESSAGES, doc );
-        }
-        // If a "style" tag exists, use that one
-        if ( doc.selectSingleNode( NODE_STYLES ) != null ) {
-          style = getNodeText( NODE_STYLES, doc );
-        } else {
-          style = CdfConstants.DEFAULT_DASHBOARD_STYLE;
-        }
-        success = true;
-      } catch ( IOException e ) {
-        logger.error( e );
-        throw new InvalidCdfOperationException( e );
-      }
+  /**
+   * Determines template, messages, style and require settings of a dashboard, reading its xcdf file only once
+   *
+   * @param dashboard the dashboard file descriptor path
+   * @param defaultTemplate the default template to use in case the defined is not available no if no template is
+   *                        provided
+   * @return boolean with the success of the operation
+   * @throws InvalidCdfOperationException
+   */
+  public boolean resolve( final String dashboard, String defaultTemplate ) throws InvalidCdfOperationException {
+    XcdfDescriptor descriptor = getDescriptor( dashboard );
+    if ( descriptor == null ) {
+      return false;
     }
-    return success;
+    applyTemplating( descriptor, defaultTemplate );
+    applyRequire( descriptor );
+    return true;
   }
 
   /**
@@ -130,26 +137,71 @@ public class XcdfRenderer {
    * @throws InvalidCdfOperationException
    */
   public boolean determineRequireDashboard( final String dashboard ) throws InvalidCdfOperationException {
-    boolean success = false;
+    XcdfDescriptor descriptor = getDescriptor( dashboard );
+    if ( descriptor == null ) {
+      return false;
+    }
+    applyRequire( descriptor );
+    return true;
+  }
 
+  private void applyTemplating( XcdfDescriptor descriptor, String defaultTemplate ) {
+    template = descriptor.getTemplate() != null ? descriptor.getTemplate() : defaultTemplate;
+    // Get message file base name if any
+    if ( descriptor.getMessagesBaseFilename() != null ) {
+      messagesBaseFilename = descriptor.getMessagesBaseFilename();
+    }
+    // If a "style" tag exists, use that one
+    style = descriptor.getStyle() != null ? descriptor.getStyle() : CdfConstants.DEFAULT_DASHBOARD_STYLE;
+  }
+
+  private void applyRequire( XcdfDescriptor descriptor ) {
+    if ( descriptor.getRequire() != null ) {
+      isRequire = Boolean.valueOf( descriptor.getRequire() );
+    }
+  }
+
+  /**
+   * Checks the user can execute the dashboard and reads its xcdf file, unless it is cached for the same version
+   *
+   * @param dashboard the dashboard file descriptor path
+   * @return the file descriptor, <code>null</code> if the file doesn't exist
+   * @throws InvalidCdfOperationException if access is denied or the file can't be read
+   */
+  protected XcdfDescriptor getDescriptor( final String dashboard ) throws InvalidCdfOperationException {
     IUserContentAccess access = getUserContentAccess( null );
-    if ( access.fileExists( dashboard ) ) {
-      // Check for access permissions
-      if ( !access.hasAccess( dashboard, FileAccess.EXECUTE ) ) {
-        throw new InvalidCdfOperationException( "Access denied" );
-      }
-      try {
-        Document doc = getDocument( access.fetchFile( dashboard ) );
-        if ( doc.selectSingleNode( NODE_REQUIRE ) != null ) {
-          isRequire = new Boolean( getNodeText( NODE_REQUIRE, doc, "false" ) );
-        }
-        success = true;
-      } catch ( IOException e ) {
-        logger.error( e );
-        throw new InvalidCdfOperationException( e );
-      }
+    if ( !access.fileExists( dashboard ) ) {
+      return null;
     }
-    return success;
+    // Check for access permissions, cached descriptors are shared between users
+    if ( !access.hasAccess( dashboard, FileAccess.EXECUTE ) ) {
+      throw new InvalidCdfOperationException( "Access denied" );
+    }
+
+    Map<String, XcdfDescriptor> cache = getDescriptorCache();
+    long version = access.getLastModified( dashboard );
+    XcdfDescriptor descriptor = cache.get( dashboard );
+    if ( descriptor != null && descriptor.getVersion() == version ) {
+      return descriptor;
+    }
+
+    try {
+      Document doc = getDocument( access.fetchFile( dashboard ) );
+      descriptor = new XcdfDescriptor( version,
+          doc.selectSingleNode( NODE_TEMPLATE ) != null ? getNodeText( NODE_TEMPLATE, doc, "" ) : null,
+          doc.selectSingleNode( NODE_MESSAGES ) != null ? getNodeText( NODE_MESSAGES, doc ) : null,
+          doc.selectSingleNode( NODE_STYLES ) != null ? getNodeText( NODE_STYLES, doc ) : null,
+          doc.selectSingleNode( NODE_REQUIRE ) != null ? getNodeText( NODE_REQUIRE, doc, "false" ) : null );
+    } catch ( IOException e ) {
+      logger.error( e );
+      throw new InvalidCdfOperationException( e );
+    }
+    cache.put( dashboard, descriptor );
+    return descriptor;
+  }
+
+  public static void clearCache() {
+    descriptorCache.clear();
   }
 
   /**
@@ -184,6 +236,10 @@ public class XcdfRenderer {
     return isRequire;
   }
 
+  protected Map<String, XcdfDescriptor> getDescriptorCache() {
+    return descriptorCache;
+  }
+
   protected IUserContentAccess getUserContentAccess( String path ) {
     return CdfEngine.getUserContentReader( path );
   }
@@ -0,0 +1,331 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.storage;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.pentaho.cdf.InvalidCdfOperationException;
+import org.pentaho.cdf.PluginHibernateException;
+import org.pentaho.cdf.utils.JsonUtil;
+
+/**
+ * {@link StorageEngine} with reads served from memory and writes done in the background.<br>
+ * Only the latest value of each user is written, changes of several users are written in one transaction.
+ * A change is written at most <code>maxStaleness</code> milliseconds after being stored. When a batch can't be
+ * written its users are written one by one, a change failing {@link #MAX_WRITE_ATTEMPTS} times is dropped.
+ */
+public class CachedStorageEngine implements StorageEngineInterface {
+
+  private static final Log logger = LogFactory.getLog( CachedStorageEngine.class );
+
+  static final int DEFAULT_CACHE_SIZE = 1000;
+  static final int DEFAULT_MAX_STALENESS = 5000;
+  // pending changes that trigger an early write
+  private static final int BATCH_SIZE = 100;
+  static final int MAX_WRITE_ATTEMPTS = 5;
+  private static final String EMPTY_STORAGE = "{}";
+
+  private final StorageEngine engine;
+  // storage value by user, users with pending changes are in pending
+  private final Map<String, String> cache;
+  private Map<String, String> pending = new LinkedHashMap<String, String>();
+  // changes being written, still unknown to the database until the write ends
+  private Map<String, String> inFlight = Collections.emptyMap();
+  // failed writes by user, of the pending change
+  private final Map<String, Integer> failures = new HashMap<String, Integer>();
+  // users with a patch running, their changes wait for it
+  private final Set<String> patching = new HashSet<String>();
+  // writes to the database are done one at a time
+  private final Object writeLock = new Object();
+  private final ScheduledExecutorService writer;
+  private volatile boolean shutdown;
+
+  public CachedStorageEngine( StorageEngine engine, final int cacheSize, long maxStaleness ) {
+    this.engine = engine;
+    this.cache = new LinkedHashMap<String, String>( 16, 0.75f, true ) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry( Map.Entry<String, String> eldest ) {
+        return size() > cacheSize;
+      }
+    };
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor( 1, new ThreadFactory() {
+      @Override
+      public Thread newThread( Runnable r ) {
+        Thread thread = new Thread( r, "cdf-storage-writer" );
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+    executor.scheduleWithFixedDelay( new Runnable() {
+      @Override
+      public void run() {
+        flush();
+      }
+    }, maxStaleness, maxStaleness, TimeUnit.MILLISECONDS );
+    this.writer = executor;
+  }
+
+  @Override
+  public JSONObject store( String value, String user ) throws JSONException, InvalidCdfOperationException,
+    PluginHibernateException {
+
+    if ( StringUtils.isEmpty( value ) ) {
+      logger.error( "Parameter 'storageValue' cannot be empty" );
+      throw new InvalidCdfOperationException( "Parameter 'storageValue' cannot be empty" );
+    }
+
+    int pendingCount;
+    synchronized ( this ) {
+      // queued before the patch is written it would overwrite it
+      while ( patching.contains( user ) ) {
+        try {
+          wait();
+        } catch ( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+          throw new PluginHibernateException( "Interrupted while storing " + user, e );
+        }
+      }
+      pending.put( user, value );
+      failures.remove( user );
+      cache.put( user, value );
+      pendingCount = pending.size();
+    }
+
+    if ( shutdown ) {
+      flush();
+    } else if ( pendingCount == BATCH_SIZE ) {
+      writer.execute( new Runnable() {
+        @Override
+        public void run() {
+          flush();
+        }
+      } );
+    }
+    return JsonUtil.makeJsonSuccessResponse( Boolean.TRUE );
+  }
+
+  @Override
+  public JSONObject read( String user ) throws JSONException, InvalidCdfOperationException, PluginHibernateException {
+    String value;
+    synchronized ( this ) {
+      value = pending.get( user );
+      if ( value == null ) {
+        value = inFlight.get( user );
+      }
+      if ( value == null ) {
+        value = cache.get( user );
+      }
+    }
+
+    if ( value == null ) {
+      value = engine.read( user ).toString();
+      synchronized ( this ) {
+        // a store done meanwhile is more recent
+        if ( !pending.containsKey( user ) && !inFlight.containsKey( user ) && !cache.containsKey( user ) ) {
+          cache.put( user, value );
+        }
+      }
+    }
+    return JsonUtil.makeJsonSuccessResponse( value );
+  }
+
+  @Override
+  public JSONObject delete( String user ) throws JSONException, InvalidCdfOperationException,
+    PluginHibernateException {
+
+    synchronized ( writeLock ) {
+      synchronized ( this ) {
+        pending.remove( user );
+        failures.remove( user );
+        cache.put( user, EMPTY_STORAGE );
+      }
+      return engine.delete( user );
+    }
+  }
+
+  /**
+   * Versions are only known by the database, pending changes are written first.
+   */
+  @Override
+  public JSONObject readVersioned( String user ) throws JSONException, InvalidCdfOperationException,
+    PluginHibernateException {
+    flush();
+    return engine.readVersioned( user );
+  }
+
+  /**
+   * Pending changes are written first, the patch is then applied by the database. Changes stored for the user while
+   * it runs wait for it.
+   */
+  @Override
+  public JSONObject patch( String patch, int version, String user ) throws JSONException,
+    InvalidCdfOperationException, PluginHibernateException {
+
+    synchronized ( writeLock ) {
+      synchronized ( this ) {
+        patching.add( user );
+      }
+      try {
+        flush();
+        synchronized ( this ) {
+          if ( pending.containsKey( user ) ) {
+            // would overwrite the patch once written
+            throw new PluginHibernateException( "Unable to write pending storage of " + user, null );
+          }
+        }
+        JSONObject result = engine.patch( patch, version, user );
+        JSONObject versioned = result.optJSONObject( JsonUtil.JsonField.RESULT.getValue() );
+        synchronized ( this ) {
+          // a value stored since is newer
+          if ( !pending.containsKey( user ) ) {
+            if ( versioned != null ) {
+              cache.put( user, versioned.get( "value" ).toString() );
+            } else {
+              cache.remove( user );
+            }
+          }
+        }
+        return result;
+      } finally {
+        synchronized ( this ) {
+          patching.remove( user );
+          notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Keyed storage isn't cached, runs right away.
+   */
+  @Override
+  public JSONObject batch( StorageBatch batch, String user ) throws JSONException, InvalidCdfOperationException,
+    PluginHibernateException {
+    return engine.batch( batch, user );
+  }
+
+  /**
+   * Writes all pending changes to the database.
+   */
+  public void flush() {
+    synchronized ( writeLock ) {
+      Map<String, String> batch;
+      synchronized ( this ) {
+        if ( pending.isEmpty() ) {
+          return;
+        }
+        batch = pending;
+        pending = new LinkedHashMap<String, String>();
+        inFlight = batch;
+      }
+
+      Map<String, String> failed = Collections.emptyMap();
+      try {
+        engine.storeAll( batch );
+        if ( logger.isDebugEnabled() ) {
+          logger.debug( "Wrote storage of " + batch.size() + " users" );
+        }
+      } catch ( Exception e ) {
+        if ( batch.size() == 1 ) {
+          logger.error( "Unable to write storage of " + batch.keySet().iterator().next() + ", will retry", e );
+          failed = batch;
+        } else {
+          logger.error( "Unable to write storage of " + batch.size() + " users, writing them one by one", e );
+          failed = storeEach( batch );
+        }
+      }
+
+      synchronized ( this ) {
+        for ( String user : batch.keySet() ) {
+          if ( !failed.containsKey( user ) ) {
+            failures.remove( user );
+          }
+        }
+        for ( Map.Entry<String, String> value : failed.entrySet() ) {
+          String user = value.getKey();
+          // a change stored meanwhile replaces it
+          if ( pending.containsKey( user ) ) {
+            continue;
+          }
+          Integer attempts = failures.get( user );
+          attempts = attempts == null ? 1 : attempts + 1;
+          if ( attempts < MAX_WRITE_ATTEMPTS ) {
+            failures.put( user, attempts );
+            pending.put( user, value.getValue() );
+          } else {
+            logger.error( "Dropping storage change of " + user + " after " + attempts + " failed writes" );
+            failures.remove( user );
+            // cached value was never written
+            cache.remove( user );
+          }
+        }
+        inFlight = Collections.emptyMap();
+      }
+    }
+  }
+
+  /**
+   * Writes each change in its own transaction, so one that can't be written doesn't hold the others.
+   *
+   * @return changes not written
+   */
+  private Map<String, String> storeEach( Map<String, String> batch ) {
+    Map<String, String> failed = new LinkedHashMap<String, String>();
+    for ( Map.Entry<String, String> value : batch.entrySet() ) {
+      try {
+        engine.storeAll( Collections.singletonMap( value.getKey(), value.getValue() ) );
+      } catch ( Exception e ) {
+        logger.error( "Unable to write storage of " + value.getKey() + ", will retry", e );
+        failed.put( value.getKey(), value.getValue() );
+      }
+    }
+    return failed;
+  }
+
+  /**
+   * Stops background writes and writes all pending changes. Later changes are written right away.
+   */
+  public void shutdown() {
+    shutdown = true;
+    writer.shutdown();
+    try {
+      writer.awaitTermination( 10, TimeUnit.SECONDS );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+  }
+
+  int getPendingCount() {
+    synchronized ( this ) {
+      return pending.size();
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.pentaho.cdf.InvalidCdfOperationException;
+
+/**
+ * Keyed storage operations of a single user, done in one transaction: deletes, then stores, then reads.<br>
+ * JSON form: <code>{ "delete": [ key, ... ], "store": { key: value, ... }, "read": [ key, ... ] }</code>,
+ * a <code>null</code> value in <code>store</code> deletes the key.
+ */
+public class StorageBatch {
+
+  public static final int MAX_KEYS = 100;
+  public static final int MAX_KEY_LENGTH = 255;
+  public static final int MAX_VALUE_LENGTH = 64 * 1024;
+
+  private final List<String> reads;
+  private final Map<String, String> stores;
+  private final List<String> deletes;
+
+  /**
+   * @param reads keys to read
+   * @param stores JSON values by key
+   * @param deletes keys to delete
+   */
+  public StorageBatch( List<String> reads, Map<String, String> stores, List<String> deletes )
+    throws InvalidCdfOperationException {
+    this.reads = Collections.unmodifiableList( new ArrayList<String>( reads ) );
+    this.stores = Collections.unmodifiableMap( new LinkedHashMap<String, String>( stores ) );
+    this.deletes = Collections.unmodifiableList( new ArrayList<String>( deletes ) );
+    validate();
+  }
+
+  public static StorageBatch fromJson( JSONObject json ) throws JSONException, InvalidCdfOperationException {
+    List<String> reads = getKeys( json.optJSONArray( "read" ) );
+    List<String> deletes = getKeys( json.optJSONArray( "delete" ) );
+    Map<String, String> stores = new LinkedHashMap<String, String>();
+
+    JSONObject store = json.optJSONObject( "store" );
+    if ( store != null ) {
+      @SuppressWarnings( "unchecked" )
+      Iterator<String> keys = store.keys();
+      while ( keys.hasNext() ) {
+        String key = keys.next();
+        Object value = store.get( key );
+        if ( value == JSONObject.NULL ) {
+          deletes.add( key );
+        } else {
+          stores.put( key, JSONObject.valueToString( value ) );
+        }
+      }
+    }
+    return new StorageBatch( reads, stores, deletes );
+  }
+
+  public List<String> getReads() {
+    return reads;
+  }
+
+  public Map<String, String> getStores() {
+    return stores;
+  }
+
+  public List<String> getDeletes() {
+    return deletes;
+  }
+
+  public boolean isEmpty() {
+    return reads.isEmpty() && stores.isEmpty() && deletes.isEmpty();
+  }
+
+  private void validate() throws InvalidCdfOperationException {
+    int count = reads.size() + stores.size() + deletes.size();
+    if ( count > MAX_KEYS ) {
+      throw new InvalidCdfOperationException( "Too many keys in storage batch: " + count + ", max is " + MAX_KEYS );
+    }
+    for ( String key : reads ) {
+      validateKey( key );
+    }
+    for ( String key : deletes ) {
+      validateKey( key );
+    }
+    for ( Map.Entry<String, String> store : stores.entrySet() ) {
+      validateKey( store.getKey() );
+      if ( store.getValue() == null || store.getValue().length() > MAX_VALUE_LENGTH ) {
+        throw new InvalidCdfOperationException( "Invalid value for storage key " + store.getKey()
+            + ", max length is " + MAX_VALUE_LENGTH );
+      }
+    }
+  }
+
+  private static void validateKey( String key ) throws InvalidCdfOperationException {
+    if ( StringUtils.isEmpty( key ) || key.length() > MAX_KEY_LENGTH ) {
+      throw new InvalidCdfOperationException( "Invalid storage key, must have 1 to " + MAX_KEY_LENGTH
+          + " characters" );
+    }
+  }
+
+  private static List<String> getKeys( JSONArray array ) throws JSONException {
+    List<String> keys = new ArrayList<String>();
+    if ( array != null ) {
+      for ( int i = 0; i < array.length(); i++ ) {
+        keys.add( array.getString( i ) );
+      }
+    }
+    return keys;
+  }
+}
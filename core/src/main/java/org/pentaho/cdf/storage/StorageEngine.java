@@ -14,14 +14,22 @@
 package org.pentaho.cdf.storage;
 
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.HibernateException;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.pentaho.cdf.CdfConstants;
 import org.pentaho.cdf.InvalidCdfOperationException;
 import org.pentaho.cdf.PluginHibernateException;
 import org.pentaho.cdf.environment.CdfEngine;
@@ -59,11 +67,39 @@ public class StorageEngine implements StorageEngineInterface {
   public static synchronized StorageEngineInterface getInstance() {
     if ( instance == null ) {
       PluginHibernateUtil.initialize();
-      instance = new StorageEngine();
+      StorageEngine engine = new StorageEngine();
+      int cacheSize = getSetting( CdfConstants.PLUGIN_SETTINGS_STORAGE_CACHE_SIZE,
+          CachedStorageEngine.DEFAULT_CACHE_SIZE );
+      if ( cacheSize > 0 ) {
+        instance = new CachedStorageEngine( engine, cacheSize, getSetting(
+            CdfConstants.PLUGIN_SETTINGS_STORAGE_MAX_STALENESS, CachedStorageEngine.DEFAULT_MAX_STALENESS ) );
+      } else {
+        instance = engine;
+      }
     }
     return instance;
   }
 
+  /**
+   * Writes any pending storage changes, to be called when the plugin is unloaded.
+   */
+  public static synchronized void shutdown() {
+    if ( instance instanceof CachedStorageEngine ) {
+      ( (CachedStorageEngine) instance ).shutdown();
+    }
+    instance = null;
+  }
+
+  private static int getSetting( String key, int defaultValue ) {
+    try {
+      String value = CdfEngine.getEnvironment().getResourceLoader().getPluginSetting( StorageEngine.class, key );
+      return StringUtils.isEmpty( value ) ? defaultValue : Integer.parseInt( value.trim() );
+    } catch ( Exception e ) {
+      logger.error( "Invalid value for " + key + ", using " + defaultValue );
+      return defaultValue;
+    }
+  }
+
   public StorageEngine() {
     try {
       logger.info( "Creating StorageEngine instance" );
@@ -87,44 +123,174 @@ public class StorageEngine implements StorageEngineInterface {
 
     // if we have one, get it. Otherwise, create a new one
     Session session = getSession();
-    session.beginTransaction();
+    try {
+      session.beginTransaction();
 
-    Query query =
-        session.getNamedQuery( "org.pentaho.cdf.storage.StorageEntry.getStorageForUser" ).setString( "user", user );
-    StorageEntry storageEntry = (StorageEntry) query.uniqueResult();
+      Query query =
+          session.getNamedQuery( "org.pentaho.cdf.storage.StorageEntry.getStorageForUser" ).setString( "user", user );
+      StorageEntry storageEntry = (StorageEntry) query.uniqueResult();
 
-    if ( storageEntry == null ) {
-      storageEntry = new StorageEntry();
-      storageEntry.setUser( user );
-    }
+      if ( storageEntry == null ) {
+        storageEntry = new StorageEntry();
+        storageEntry.setUser( user );
+      }
 
-    storageEntry.setStorageValue( value );
-    storageEntry.setLastUpdatedDate( Calendar.getInstance().getTime() );
+      storageEntry.setStorageValue( value );
+      storageEntry.setLastUpdatedDate( Calendar.getInstance().getTime() );
+      storageEntry.setVersion( storageEntry.getVersionNumber() + 1 );
 
-    session.save( storageEntry );
-    session.flush();
-    session.getTransaction().commit();
-    session.close();
+      session.save( storageEntry );
+      session.flush();
+      session.getTransaction().commit();
+    } finally {
+      rollbackAndClose( session );
+    }
 
     return JsonUtil.makeJsonSuccessResponse( Boolean.TRUE );
   }
 
+  /**
+   * Stores the values of several users in a single transaction.
+   *
+   * @param values storage value by user
+   */
+  public void storeAll( Map<String, String> values ) throws PluginHibernateException {
+
+    logger.debug( "Storing " + values.size() + " user entries" );
+
+    Session session = getSession();
+    try {
+      session.beginTransaction();
+      Date now = Calendar.getInstance().getTime();
+      for ( Map.Entry<String, String> value : values.entrySet() ) {
+        Query query = session.getNamedQuery( "org.pentaho.cdf.storage.StorageEntry.getStorageForUser" )
+            .setString( "user", value.getKey() );
+        StorageEntry storageEntry = (StorageEntry) query.uniqueResult();
+
+        if ( storageEntry == null ) {
+          storageEntry = new StorageEntry();
+          storageEntry.setUser( value.getKey() );
+        }
+        storageEntry.setStorageValue( value.getValue() );
+        storageEntry.setLastUpdatedDate( now );
+        storageEntry.setVersion( storageEntry.getVersionNumber() + 1 );
+        session.save( storageEntry );
+      }
+      session.flush();
+      session.getTransaction().commit();
+    } catch ( RuntimeException e ) {
+      throw new PluginHibernateException( "Unable to store user entries", e );
+    } finally {
+      rollbackAndClose( session );
+    }
+  }
+
   @Override
   public JSONObject read( String user ) throws JSONException, InvalidCdfOperationException, PluginHibernateException {
 
     logger.debug( "Reading storage" );
 
+    String result;
+    Session session = getSession();
+    try {
+      Query query =
+          session.getNamedQuery( "org.pentaho.cdf.storage.StorageEntry.getStorageForUser" ).setString( "user", user );
+
+      StorageEntry storageEntry = (StorageEntry) query.uniqueResult();
+
+      // Return it, or an empty value
+      result = storageEntry != null ? storageEntry.getStorageValue() : "{}";
+    } finally {
+      session.close();
+    }
+
+    return JsonUtil.makeJsonSuccessResponse( result );
+  }
+
+  @Override
+  public JSONObject readVersioned( String user ) throws JSONException, InvalidCdfOperationException,
+    PluginHibernateException {
+
+    logger.debug( "Reading versioned storage" );
+
+    StorageEntry storageEntry;
+    Session session = getSession();
+    try {
+      storageEntry = getStorageEntry( session, user );
+    } finally {
+      session.close();
+    }
+
+    return toVersioned( storageEntry != null ? storageEntry.getVersionNumber() : 0,
+        storageEntry != null ? new JSONObject( storageEntry.getStorageValue() ) : new JSONObject() );
+  }
+
+  @Override
+  public JSONObject patch( String patch, int version, String user ) throws JSONException,
+    InvalidCdfOperationException, PluginHibernateException {
+
+    if ( StringUtils.isEmpty( patch ) ) {
+      logger.error( "Parameter 'patch' cannot be empty" );
+      throw new InvalidCdfOperationException( "Parameter 'patch' cannot be empty" );
+    }
+    JSONObject patchJson = new JSONObject( patch );
+
+    logger.debug( "Patching user entry" );
+
+    Object merged;
+    int newVersion;
     Session session = getSession();
+    try {
+      session.beginTransaction();
 
-    Query query =
-        session.getNamedQuery( "org.pentaho.cdf.storage.StorageEntry.getStorageForUser" ).setString( "user", user );
+      StorageEntry storageEntry = getStorageEntry( session, user );
+      int currentVersion = storageEntry != null ? storageEntry.getVersionNumber() : 0;
+      if ( version >= 0 && version != currentVersion ) {
+        throw new StorageVersionConflictException( version, currentVersion );
+      }
 
-    StorageEntry storageEntry = (StorageEntry) query.uniqueResult();
+      merged = JsonUtil.mergePatch( storageEntry != null ? new JSONObject( storageEntry.getStorageValue() )
+          : new JSONObject(), patchJson );
+      newVersion = currentVersion + 1;
+      Date now = Calendar.getInstance().getTime();
+
+      if ( storageEntry == null ) {
+        storageEntry = new StorageEntry( user, merged.toString() );
+        storageEntry.setLastUpdatedDate( now );
+        storageEntry.setVersion( newVersion );
+        session.save( storageEntry );
+      } else {
+        // only written if no other change was committed since it was read
+        int updated = session.getNamedQuery( "org.pentaho.cdf.storage.StorageEntry.updateStorageIfVersion" )
+            .setString( "value", merged.toString() ).setTimestamp( "date", now )
+            .setInteger( "newVersion", newVersion ).setInteger( "id", storageEntry.getStorageId() )
+            .setInteger( "version", currentVersion ).executeUpdate();
+        if ( updated == 0 ) {
+          Number latest = (Number) session.getNamedQuery( "org.pentaho.cdf.storage.StorageEntry.getStorageVersion" )
+              .setInteger( "id", storageEntry.getStorageId() ).uniqueResult();
+          throw new StorageVersionConflictException( currentVersion, latest != null ? latest.intValue() : 0 );
+        }
+      }
+      session.flush();
+      session.getTransaction().commit();
+    } catch ( HibernateException e ) {
+      throw new PluginHibernateException( "Unable to patch user entry", e );
+    } finally {
+      rollbackAndClose( session );
+    }
 
-    // Return it, or an empty value
-    String result = storageEntry != null ? storageEntry.getStorageValue() : "{}";
-    session.close();
+    return toVersioned( newVersion, merged );
+  }
+
+  private StorageEntry getStorageEntry( Session session, String user ) {
+    return (StorageEntry) session.getNamedQuery( "org.pentaho.cdf.storage.StorageEntry.getStorageForUser" )
+        .setString( "user", user ).uniqueResult();
+  }
 
+  private JSONObject toVersioned( int version, Object value ) throws JSONException {
+    JSONObject result = new JSONObject();
+    result.put( "version", version );
+    result.put( "value", value );
     return JsonUtil.makeJsonSuccessResponse( result );
   }
 
@@ -134,25 +300,102 @@ public class StorageEngine implements StorageEngineInterface {
     logger.debug( "Deleting storage for user " + user );
 
     Session session = getSession();
-    session.beginTransaction();
+    try {
+      session.beginTransaction();
 
-    Query query =
-        session.getNamedQuery( "org.pentaho.cdf.storage.StorageEntry.getStorageForUser" ).setString( "user", user );
-    StorageEntry storageEntry = (StorageEntry) query.uniqueResult();
+      Query query =
+          session.getNamedQuery( "org.pentaho.cdf.storage.StorageEntry.getStorageForUser" ).setString( "user", user );
+      StorageEntry storageEntry = (StorageEntry) query.uniqueResult();
 
-    if ( storageEntry != null ) {
-      session.delete( storageEntry );
+      if ( storageEntry != null ) {
+        session.delete( storageEntry );
 
+      }
+      session.flush();
+      session.getTransaction().commit();
+    } finally {
+      rollbackAndClose( session );
     }
-    session.flush();
-    session.getTransaction().commit();
-    session.close();
 
     return JsonUtil.makeJsonSuccessResponse( Boolean.TRUE );
   }
 
-  private synchronized Session getSession() throws PluginHibernateException {
-    return PluginHibernateUtil.getSession();
+  @Override
+  public JSONObject batch( StorageBatch batch, String user ) throws JSONException, InvalidCdfOperationException,
+    PluginHibernateException {
+
+    logger.debug( "Running storage batch" );
+
+    JSONObject result = new JSONObject();
+    if ( batch.isEmpty() ) {
+      return JsonUtil.makeJsonSuccessResponse( result );
+    }
+
+    Session session = getSession();
+    try {
+      session.beginTransaction();
+
+      if ( !batch.getDeletes().isEmpty() ) {
+        session.getNamedQuery( "org.pentaho.cdf.storage.StorageKeyEntry.deleteKeysForUser" )
+            .setString( "user", user ).setParameterList( "keys", batch.getDeletes() ).executeUpdate();
+      }
+
+      if ( !batch.getStores().isEmpty() ) {
+        Map<String, StorageKeyEntry> entries = getKeyEntries( session, user, batch.getStores().keySet() );
+        Date now = Calendar.getInstance().getTime();
+        for ( Map.Entry<String, String> store : batch.getStores().entrySet() ) {
+          StorageKeyEntry entry = entries.get( store.getKey() );
+          if ( entry == null ) {
+            entry = new StorageKeyEntry( user, store.getKey(), store.getValue() );
+          } else {
+            entry.setStorageValue( store.getValue() );
+          }
+          entry.setLastUpdatedDate( now );
+          session.saveOrUpdate( entry );
+        }
+        session.flush();
+      }
+
+      if ( !batch.getReads().isEmpty() ) {
+        for ( StorageKeyEntry entry : getKeyEntries( session, user, batch.getReads() ).values() ) {
+          String value = entry.getStorageValue();
+          result.put( entry.getStorageKey(), value != null ? new JSONTokener( value ).nextValue() : JSONObject.NULL );
+        }
+      }
+
+      session.getTransaction().commit();
+    } catch ( HibernateException e ) {
+      throw new PluginHibernateException( "Unable to run storage batch", e );
+    } finally {
+      rollbackAndClose( session );
+    }
+
+    return JsonUtil.makeJsonSuccessResponse( result );
+  }
+
+  private Map<String, StorageKeyEntry> getKeyEntries( Session session, String user, Collection<String> keys ) {
+    @SuppressWarnings( "unchecked" )
+    List<StorageKeyEntry> entries = session.getNamedQuery( "org.pentaho.cdf.storage.StorageKeyEntry.getKeysForUser" )
+        .setString( "user", user ).setParameterList( "keys", keys ).list();
+    Map<String, StorageKeyEntry> byKey = new HashMap<String, StorageKeyEntry>();
+    for ( StorageKeyEntry entry : entries ) {
+      byKey.put( entry.getStorageKey(), entry );
+    }
+    return byKey;
+  }
+
+  private Session getSession() throws PluginHibernateException {
+    return PluginHibernateUtil.openSession();
+  }
+
+  private void rollbackAndClose( Session session ) {
+    try {
+      if ( session.getTransaction().isActive() ) {
+        session.getTransaction().rollback();
+      }
+    } finally {
+      session.close();
+    }
   }
 
   private void initialize() throws PluginHibernateException {
@@ -37,4 +37,32 @@ public interface StorageEngineInterface {
   JSONObject delete( String user ) throws JSONException,
                                           InvalidCdfOperationException,
                                           PluginHibernateException;
+
+  /**
+   * @return success response with <code>{ "version": n, "value": storage }</code> as result,
+   * version 0 if there is no storage
+   */
+  JSONObject readVersioned( String user ) throws JSONException,
+                                                 InvalidCdfOperationException,
+                                                 PluginHibernateException;
+
+  /**
+   * Applies a JSON merge patch to the user storage.
+   *
+   * @param version version the patch is based on, negative to apply to any version
+   * @return success response with <code>{ "version": n, "value": storage }</code> as result, after the patch
+   * @throws StorageVersionConflictException if storage isn't at the given version
+   */
+  JSONObject patch( String patch, int version, String user ) throws JSONException,
+                                                                    InvalidCdfOperationException,
+                                                                    PluginHibernateException;
+
+  /**
+   * Runs keyed storage operations in one transaction.
+   *
+   * @return read values by key, keys not found are left out
+   */
+  JSONObject batch( StorageBatch batch, String user ) throws JSONException,
+                                                             InvalidCdfOperationException,
+                                                             PluginHibernateException;
 }
@@ -24,6 +24,7 @@ public class StorageEntry implements Serializable {
   private String user;
   private String storageValue;
   private Date lastUpdatedDate;
+  private Integer version;
 
   public StorageEntry() {
     this.lastUpdatedDate = new Date();
@@ -90,4 +91,25 @@ public class StorageEntry implements Serializable {
   public void setLastUpdatedDate( Date lastUpdatedDate ) {
     this.lastUpdatedDate = lastUpdatedDate;
   }
+
+  /**
+   * @return the version, incremented on every change; <code>null</code> for entries never versioned
+   */
+  public Integer getVersion() {
+    return version;
+  }
+
+  /**
+   * @param version the version to set
+   */
+  public void setVersion( Integer version ) {
+    this.version = version;
+  }
+
+  /**
+   * @return the version, 0 for entries never versioned
+   */
+  public int getVersionNumber() {
+    return version != null ? version : 0;
+  }
 }
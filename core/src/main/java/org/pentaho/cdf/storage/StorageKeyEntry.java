@@ -0,0 +1,112 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.storage;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * A single keyed value of a user's storage.
+ */
+public class StorageKeyEntry implements Serializable {
+
+  private static final long serialVersionUID = -3915318540307125853L;
+
+  private int storageKeyId;
+  private String user;
+  private String storageKey;
+  private String storageValue;
+  private Date lastUpdatedDate;
+
+  public StorageKeyEntry() {
+    this.lastUpdatedDate = new Date();
+  }
+
+  public StorageKeyEntry( String user, String storageKey, String storageValue ) {
+    this();
+    this.user = user;
+    this.storageKey = storageKey;
+    this.storageValue = storageValue;
+  }
+
+  /**
+   * @return the storageKeyId
+   */
+  public int getStorageKeyId() {
+    return storageKeyId;
+  }
+
+  /**
+   * @param storageKeyId the storageKeyId to set
+   */
+  public void setStorageKeyId( int storageKeyId ) {
+    this.storageKeyId = storageKeyId;
+  }
+
+  /**
+   * @return the user
+   */
+  public String getUser() {
+    return user;
+  }
+
+  /**
+   * @param user the user to set
+   */
+  public void setUser( String user ) {
+    this.user = user;
+  }
+
+  /**
+   * @return the key
+   */
+  public String getStorageKey() {
+    return storageKey;
+  }
+
+  /**
+   * @param storageKey the key to set
+   */
+  public void setStorageKey( String storageKey ) {
+    this.storageKey = storageKey;
+  }
+
+  /**
+   * @return the value, as JSON
+   */
+  public String getStorageValue() {
+    return storageValue;
+  }
+
+  /**
+   * @param storageValue the value to set, as JSON
+   */
+  public void setStorageValue( String storageValue ) {
+    this.storageValue = storageValue;
+  }
+
+  /**
+   * @return the lastUpdateDate
+   */
+  public Date getLastUpdatedDate() {
+    return lastUpdatedDate;
+  }
+
+  /**
+   * @param lastUpdatedDate the lastUpdatedDate to set
+   */
+  public void setLastUpdatedDate( Date lastUpdatedDate ) {
+    this.lastUpdatedDate = lastUpdatedDate;
+  }
+}
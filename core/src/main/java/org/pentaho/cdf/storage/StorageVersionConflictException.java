@@ -0,0 +1,34 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.storage;
+
+import org.pentaho.cdf.InvalidCdfOperationException;
+
+/**
+ * User storage changed since the version a patch was based on.
+ */
+public class StorageVersionConflictException extends InvalidCdfOperationException {
+  private static final long serialVersionUID = 1L;
+
+  private final int currentVersion;
+
+  public StorageVersionConflictException( int expectedVersion, int currentVersion ) {
+    super( "Storage version is " + currentVersion + ", expected " + expectedVersion );
+    this.currentVersion = currentVersion;
+  }
+
+  public int getCurrentVersion() {
+    return currentVersion;
+  }
+}
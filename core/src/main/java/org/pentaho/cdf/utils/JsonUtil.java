@@ -13,6 +13,8 @@
 
 package org.pentaho.cdf.utils;
 
+import java.util.Iterator;
+
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -87,6 +89,31 @@ public class JsonUtil {
     }
   }
 
+  /**
+   * Applies a JSON merge patch (RFC 7386) to the target, which may be changed.
+   *
+   * @return patched value
+   */
+  public static Object mergePatch( Object target, Object patch ) throws JSONException {
+    if ( !( patch instanceof JSONObject ) ) {
+      return patch;
+    }
+    JSONObject result = target instanceof JSONObject ? (JSONObject) target : new JSONObject();
+    JSONObject patchObj = (JSONObject) patch;
+    @SuppressWarnings( "unchecked" )
+    Iterator<String> keys = patchObj.keys();
+    while ( keys.hasNext() ) {
+      String key = keys.next();
+      Object value = patchObj.get( key );
+      if ( value == JSONObject.NULL ) {
+        result.remove( key );
+      } else {
+        result.put( key, mergePatch( result.opt( key ), value ) );
+      }
+    }
+    return result;
+  }
+
   public static boolean isSuccessResponse( JSONObject json ) {
     try {
       return json != null && JsonStatus.SUCCESS.getValue().equals( json.get( JsonField.STATUS.getValue() ) );
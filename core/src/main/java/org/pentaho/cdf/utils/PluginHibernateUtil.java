@@ -13,6 +13,9 @@
 
 package org.pentaho.cdf.utils;
 
+import java.util.Properties;
+
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.HibernateException;
@@ -26,17 +29,29 @@ import org.pentaho.cdf.environment.CdfEngine;
 import org.pentaho.cdf.environment.ICdfEnvironment;
 
 import pt.webdetails.cpf.Util;
+import pt.webdetails.cpf.resources.IResourceLoader;
 
 public class PluginHibernateUtil {
 
   private static final Log logger = LogFactory.getLog( PluginHibernateUtil.class );
   private static Configuration configuration;
-  private static SessionFactory sessionFactory;
+  private static volatile SessionFactory sessionFactory;
   private static final byte[] lock = new byte[0];
   private static final ThreadLocal<Session> threadSession = new ThreadLocal<Session>();
   private static final ThreadLocal<Transaction> threadTransaction = new ThreadLocal<Transaction>();
   private static boolean initialized;
 
+  private static final String C3P0_PROVIDER = "org.hibernate.connection.C3P0ConnectionProvider";
+  private static final String C3P0_DATASOURCE = "com.mchange.v2.c3p0.ComboPooledDataSource";
+  // plugin setting, hibernate c3p0 property
+  private static final String[][] POOL_SETTINGS = {
+    { CdfConstants.PLUGIN_SETTINGS_HIBERNATE_POOL_MIN_SIZE, "hibernate.c3p0.min_size" },
+    { CdfConstants.PLUGIN_SETTINGS_HIBERNATE_POOL_MAX_SIZE, "hibernate.c3p0.max_size" },
+    { CdfConstants.PLUGIN_SETTINGS_HIBERNATE_POOL_TIMEOUT, "hibernate.c3p0.timeout" },
+    { CdfConstants.PLUGIN_SETTINGS_HIBERNATE_POOL_MAX_STATEMENTS, "hibernate.c3p0.max_statements" },
+    { CdfConstants.PLUGIN_SETTINGS_HIBERNATE_POOL_IDLE_TEST_PERIOD, "hibernate.c3p0.idle_test_period" }
+  };
+
   public PluginHibernateUtil() {
   }
 
@@ -55,7 +70,11 @@ public class PluginHibernateUtil {
               CdfConstants.PLUGIN_SETTINGS_HIBERNATE_AVAILABLE );
 
       if ( "true".equalsIgnoreCase( hibernateAvailable ) ) {
-        configuration.setProperties( cdfEnvironment.getHibernateConfigurations().getConfiguration().getProperties() );
+        // copied, pool settings are only for the plugin's session factory
+        Properties properties = new Properties();
+        properties.putAll( cdfEnvironment.getHibernateConfigurations().getConfiguration().getProperties() );
+        configurePool( properties, cdfEnvironment.getResourceLoader() );
+        configuration.setProperties( properties );
         sessionFactory = configuration.buildSessionFactory();
       }
       initialized = true;
@@ -66,6 +85,44 @@ public class PluginHibernateUtil {
 
   }
 
+  /**
+   * Sets the connection pool properties found in the plugin settings. Nothing is changed when connections come from
+   * a datasource, which is already pooled by the container, or when c3p0 isn't available.
+   *
+   * @return if the pool was configured
+   */
+  static boolean configurePool( Properties properties, IResourceLoader resourceLoader ) {
+    if ( properties.getProperty( "hibernate.connection.datasource" ) != null ) {
+      logger.debug( "Using datasource connections, pool settings ignored" );
+      return false;
+    }
+
+    Properties pool = new Properties();
+    for ( String[] setting : POOL_SETTINGS ) {
+      String value = resourceLoader.getPluginSetting( PluginHibernateUtil.class, setting[ 0 ] );
+      if ( !StringUtils.isBlank( value ) ) {
+        pool.setProperty( setting[ 1 ], value.trim() );
+      }
+    }
+    if ( pool.isEmpty() ) {
+      return false;
+    }
+
+    try {
+      Class.forName( C3P0_DATASOURCE, false, PluginHibernateUtil.class.getClassLoader() );
+    } catch ( ClassNotFoundException e ) {
+      logger.warn( "c3p0 not available, pool settings ignored" );
+      return false;
+    } catch ( LinkageError e ) {
+      logger.warn( "c3p0 not available, pool settings ignored" );
+      return false;
+    }
+
+    properties.putAll( pool );
+    properties.setProperty( "hibernate.connection.provider_class", C3P0_PROVIDER );
+    return true;
+  }
+
   /**
    * Returns the SessionFactory used for this static class.
    *
@@ -108,6 +165,20 @@ public class PluginHibernateUtil {
     }
   }
 
+  /**
+   * Opens a new Session, not bound to the thread. Must be closed by the caller.
+   *
+   * @return Session
+   */
+  public static Session openSession() throws PluginHibernateException {
+    try {
+      return PluginHibernateUtil.getSessionFactory().openSession();
+    } catch ( HibernateException ex ) {
+      logger.warn( "Error creating session " + Util.getExceptionDescription( ex ) ); //$NON-NLS-1$
+      throw new PluginHibernateException( "Error creating session", ex ); //$NON-NLS-1$
+    }
+  }
+
   /**
    * Retrieves the current Session local to the thread.
    * <p/>
@@ -115,7 +186,7 @@ public class PluginHibernateUtil {
    *
    * @return Session
    */
-  public static synchronized Session getSession() throws PluginHibernateException {
+  public static Session getSession() throws PluginHibernateException {
     Session s = (Session) PluginHibernateUtil.threadSession.get();
     try {
       if ( s == null || !s.isOpen() ) {
@@ -144,7 +215,7 @@ public class PluginHibernateUtil {
   /**
    * Closes the Session local to the thread.
    */
-  public static synchronized void closeSession() throws PluginHibernateException {
+  public static void closeSession() throws PluginHibernateException {
     try {
       Session s = (Session) PluginHibernateUtil.threadSession.get();
       PluginHibernateUtil.threadSession.set( null );
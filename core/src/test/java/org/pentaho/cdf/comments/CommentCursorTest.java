@@ -0,0 +1,56 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.comments;
+
+import java.sql.Timestamp;
+import java.util.Date;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.pentaho.cdf.InvalidCdfOperationException;
+
+public class CommentCursorTest extends TestCase {
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    Timestamp createdDate = Timestamp.valueOf( "2017-03-01 10:20:30.123456789" );
+    CommentCursor cursor = CommentCursor.parse( new CommentCursor( createdDate, 42 ).toString() );
+    assertEquals( createdDate, cursor.getCreatedDate() );
+    assertEquals( 123456789, cursor.getCreatedDate().getNanos() );
+    assertEquals( 42, cursor.getCommentId() );
+  }
+
+  @Test
+  public void testFromComment() throws Exception {
+    CommentEntry comment = new CommentEntry( "page", "user", "comment" );
+    comment.setCommentId( 7 );
+    comment.setCreatedDate( new Date( 1488363630123L ) );
+    CommentCursor cursor = CommentCursor.parse( new CommentCursor( comment ).toString() );
+    assertEquals( 1488363630123L, cursor.getCreatedDate().getTime() );
+    assertEquals( 7, cursor.getCommentId() );
+  }
+
+  @Test
+  public void testParseInvalid() {
+    String[] invalid = { null, "", "abc", "a.b", "a.b.c.d", "a.b.!", "a.zzzzzzzzzzzz.1" };
+    for ( String cursor : invalid ) {
+      try {
+        CommentCursor.parse( cursor );
+        fail( "parsed " + cursor );
+      } catch ( InvalidCdfOperationException e ) {
+        // expected
+      }
+    }
+  }
+}
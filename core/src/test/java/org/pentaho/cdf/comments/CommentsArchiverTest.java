@@ -0,0 +1,201 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.comments;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.pentaho.cdf.PluginHibernateException;
+
+public class CommentsArchiverTest extends TestCase {
+
+  private File directory;
+  private Session session;
+  private Query query;
+  private Query delete;
+  private CommentsCache cache;
+  private CommentsArchiver archiver;
+
+  @Override
+  protected void setUp() throws Exception {
+    directory = new File( System.getProperty( "java.io.tmpdir" ), "cdf-comments-archive-" + System.nanoTime() );
+    session = mock( Session.class );
+    doReturn( mock( Transaction.class ) ).when( session ).getTransaction();
+    query = mock( Query.class );
+    doReturn( query ).when( session ).getNamedQuery( "org.pentaho.cdf.comments.CommentEntry.getCommentsToArchive" );
+    delete = mock( Query.class );
+    doReturn( delete ).when( session ).getNamedQuery( "org.pentaho.cdf.comments.CommentEntry.deleteArchivedComments" );
+    cache = new CommentsCache();
+    archiver = new CommentsArchiver( directory, 1000L, cache ) {
+      @Override
+      protected Session getSession() throws PluginHibernateException {
+        return session;
+      }
+    };
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory( directory );
+  }
+
+  @Test
+  public void testArchive() throws Exception {
+    when( query.scroll( ScrollMode.FORWARD_ONLY ) ).thenReturn( mockRows( rows( 1, 2 ) ) );
+    long version = cache.getVersion( "page" );
+
+    assertEquals( 2, archiver.archive() );
+
+    verify( query ).setInteger( "afterId", Integer.MIN_VALUE );
+    verify( delete ).setParameterList( "commentIds", Arrays.asList( 1, 2 ) );
+    verify( delete ).executeUpdate();
+    verify( session.getTransaction() ).commit();
+    assertTrue( cache.getVersion( "page" ) != version );
+
+    List<String> lines = readArchive();
+    assertEquals( 2, lines.size() );
+    JSONObject first = new JSONObject( lines.get( 0 ) );
+    assertEquals( 1, first.getInt( "id" ) );
+    assertEquals( "page", first.getString( "page" ) );
+    assertEquals( "user", first.getString( "user" ) );
+    assertEquals( "comment 1", first.getString( "comment" ) );
+    assertTrue( first.getBoolean( "deleted" ) );
+    assertFalse( first.getBoolean( "archived" ) );
+    assertEquals( 1000L, first.getLong( "created" ) );
+  }
+
+  @Test
+  public void testArchiveBatches() throws Exception {
+    Integer[] ids = new Integer[ CommentsArchiver.BATCH_SIZE ];
+    for ( int i = 0; i < ids.length; i++ ) {
+      ids[ i ] = i + 1;
+    }
+    ScrollableResults firstBatch = mockRows( rows( ids ) );
+    ScrollableResults secondBatch = mockRows( rows( ids.length + 1 ) );
+    when( query.scroll( ScrollMode.FORWARD_ONLY ) ).thenReturn( firstBatch, secondBatch );
+
+    assertEquals( ids.length + 1, archiver.archive() );
+
+    verify( query ).setInteger( "afterId", ids.length );
+    verify( delete, times( 2 ) ).executeUpdate();
+    verify( session, times( 2 ) ).close();
+    assertEquals( ids.length + 1, readArchive().size() );
+  }
+
+  @Test
+  public void testArchiveFailedBatch() throws Exception {
+    Integer[] ids = new Integer[ CommentsArchiver.BATCH_SIZE ];
+    for ( int i = 0; i < ids.length; i++ ) {
+      ids[ i ] = i + 1;
+    }
+    when( query.scroll( ScrollMode.FORWARD_ONLY ) ).thenReturn( mockRows( rows( ids ) ) )
+        .thenThrow( new RuntimeException( "broken" ) );
+
+    try {
+      archiver.archive();
+      fail( "RuntimeException expected" );
+    } catch ( RuntimeException e ) {
+      assertEquals( "broken", e.getMessage() );
+    }
+
+    // the first batch was deleted, its comments must be in a complete file
+    verify( delete, times( 1 ) ).executeUpdate();
+    assertEquals( ids.length, readArchive().size() );
+  }
+
+  @Test
+  public void testArchiveNothing() throws Exception {
+    when( query.scroll( ScrollMode.FORWARD_ONLY ) ).thenReturn( mockRows( rows() ) );
+
+    assertEquals( 0, archiver.archive() );
+
+    verify( delete, never() ).executeUpdate();
+    verify( query, times( 1 ) ).setInteger( anyString(), anyInt() );
+    assertEquals( 0, directory.listFiles().length );
+  }
+
+  private List<Object[]> rows( Integer... ids ) {
+    List<Object[]> rows = new ArrayList<Object[]>();
+    for ( Integer id : ids ) {
+      rows.add( new Object[] { id, "page", "user", "comment " + id, true, false, new Date( id * 1000L ) } );
+    }
+    return rows;
+  }
+
+  private ScrollableResults mockRows( List<Object[]> rows ) {
+    final Iterator<Object[]> iterator = rows.iterator();
+    final Object[][] current = new Object[ 1 ][];
+    ScrollableResults results = mock( ScrollableResults.class );
+    when( results.next() ).thenAnswer( new Answer<Boolean>() {
+      @Override
+      public Boolean answer( InvocationOnMock invocation ) {
+        current[ 0 ] = iterator.hasNext() ? iterator.next() : null;
+        return current[ 0 ] != null;
+      }
+    } );
+    when( results.get() ).thenAnswer( new Answer<Object[]>() {
+      @Override
+      public Object[] answer( InvocationOnMock invocation ) {
+        return current[ 0 ];
+      }
+    } );
+    return results;
+  }
+
+  private List<String> readArchive() throws Exception {
+    File[] files = directory.listFiles();
+    assertEquals( 1, files.length );
+    assertTrue( files[ 0 ].getName().endsWith( ".jsonl.gz" ) );
+    List<String> lines = new ArrayList<String>();
+    BufferedReader reader = new BufferedReader( new InputStreamReader(
+        new GZIPInputStream( new FileInputStream( files[ 0 ] ) ), "UTF-8" ) );
+    try {
+      String line;
+      while ( ( line = reader.readLine() ) != null ) {
+        lines.add( line );
+      }
+    } finally {
+      reader.close();
+    }
+    return lines;
+  }
+}
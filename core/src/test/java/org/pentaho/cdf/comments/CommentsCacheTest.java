@@ -0,0 +1,76 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.comments;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class CommentsCacheTest extends TestCase {
+
+  private static final List<CommentEntry> COMMENTS = Arrays.asList( new CommentEntry( "page", "admin", "comment" ) );
+
+  @Test
+  public void testGetPut() {
+    CommentsCache cache = new CommentsCache();
+    long version = cache.getVersion( "page" );
+    assertNull( cache.get( "page", "window", version ) );
+
+    cache.put( "page", "window", version, COMMENTS );
+    assertEquals( COMMENTS, cache.get( "page", "window", version ) );
+    assertNull( cache.get( "page", "other window", version ) );
+    assertNull( cache.get( "other page", "window", version ) );
+  }
+
+  @Test
+  public void testInvalidate() {
+    CommentsCache cache = new CommentsCache();
+    long version = cache.getVersion( "page" );
+    cache.put( "page", "window", version, COMMENTS );
+    cache.put( "other page", "window", cache.getVersion( "other page" ), COMMENTS );
+
+    cache.invalidate( "page" );
+    long newVersion = cache.getVersion( "page" );
+    assertTrue( newVersion != version );
+    assertNull( cache.get( "page", "window", newVersion ) );
+    assertEquals( COMMENTS, cache.get( "other page", "window", cache.getVersion( "other page" ) ) );
+
+    cache.invalidate( "page" );
+    assertTrue( cache.getVersion( "page" ) != newVersion );
+  }
+
+  @Test
+  public void testPutOutdated() {
+    CommentsCache cache = new CommentsCache();
+    long version = cache.getVersion( "page" );
+    // a comment was added while listing
+    cache.invalidate( "page" );
+    cache.put( "page", "window", version, COMMENTS );
+    assertNull( cache.get( "page", "window", version ) );
+    assertNull( cache.get( "page", "window", cache.getVersion( "page" ) ) );
+  }
+
+  @Test
+  public void testCacheSize() {
+    CommentsCache cache = new CommentsCache( 2 );
+    long version = cache.getVersion( "page" );
+    cache.put( "page", "a", version, COMMENTS );
+    cache.put( "page", "b", version, COMMENTS );
+    cache.put( "page", "c", version, COMMENTS );
+    assertNull( cache.get( "page", "a", version ) );
+    assertNotNull( cache.get( "page", "c", version ) );
+  }
+}
@@ -13,17 +13,36 @@
 
 package org.pentaho.cdf.comments;
 
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.Test;
+import org.pentaho.cdf.InvalidCdfOperationException;
 
 import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 public class CommentsEngineTest {
 
@@ -47,4 +66,190 @@ public class CommentsEngineTest {
     assertEquals( "page.wcdf&#34;&gt;", json.getString( "page" ) );
     assertEquals( "&lt;script&gt;alert(\\'Hacked!\\');&lt;/script&gt;", json.getString( "comment" ) );
   }
+
+  @Test
+  public void testEncodedCommentReuse() throws JSONException {
+    CommentsEngine engine = mock( CommentsEngine.class );
+    doCallRealMethod().when( engine ).commentToJson( any( CommentEntry.class ), anyString() );
+    CommentEntry comment = new CommentEntry( "page", "admin", "<first>" );
+    comment.setCommentId( 1000 );
+
+    assertEquals( "&lt;first&gt;", engine.commentToJson( comment, "admin" ).getString( "comment" ) );
+    assertEquals( "&lt;first&gt;", engine.commentToJson( comment, "other" ).getString( "comment" ) );
+
+    CommentEntry sameId = new CommentEntry( "page", "admin", "<second>" );
+    sameId.setCommentId( 1000 );
+    assertEquals( "&lt;second&gt;", engine.commentToJson( sameId, "admin" ).getString( "comment" ) );
+  }
+
+  @Test
+  public void testListFirstPage() throws Exception {
+    Session session = mock( Session.class );
+    Query query = mockQuery( session, "getCommentsByPage", 3 );
+    CommentsEngine engine = mockEngine( session );
+
+    JSONObject json = engine.list( "page", 0, 2, false, false, "admin" );
+
+    verify( query ).setFirstResult( 0 );
+    verify( query ).setMaxResults( 3 );
+    verify( session ).close();
+    JSONArray result = json.getJSONArray( "result" );
+    assertEquals( 2, result.length() );
+    assertEquals( 2, result.getJSONObject( 1 ).getInt( "id" ) );
+    CommentCursor cursor = CommentCursor.parse( json.getString( CommentsEngine.NEXT_CURSOR ) );
+    assertEquals( 2, cursor.getCommentId() );
+    assertEquals( 2000L, cursor.getCreatedDate().getTime() );
+  }
+
+  @Test
+  public void testListAfterCursor() throws Exception {
+    Session session = mock( Session.class );
+    Query query = mockQuery( session, "getCommentsByPageAfter", 2 );
+    CommentsEngine engine = mockEngine( session );
+    Timestamp createdDate = new Timestamp( 3000L );
+
+    JSONObject json = engine.list( "page", new CommentCursor( createdDate, 3 ).toString(), 2, false, true, "admin" );
+
+    verify( query ).setBoolean( "deleted", false );
+    verify( query ).setBoolean( "archived", true );
+    verify( query ).setTimestamp( "createdDate", createdDate );
+    verify( query ).setInteger( "commentId", 3 );
+    verify( query, never() ).setFirstResult( anyInt() );
+    assertEquals( 2, json.getJSONArray( "result" ).length() );
+    assertFalse( json.has( CommentsEngine.NEXT_CURSOR ) );
+  }
+
+  @Test
+  public void testListInvalidCursor() throws Exception {
+    Session session = mock( Session.class );
+    CommentsEngine engine = mockEngine( session );
+    try {
+      engine.list( "page", "not a cursor", 2, false, false, "admin" );
+      fail( "invalid cursor accepted" );
+    } catch ( InvalidCdfOperationException e ) {
+      verify( session, never() ).getNamedQuery( anyString() );
+    }
+  }
+
+  @Test
+  public void testListCache() throws Exception {
+    Session session = mock( Session.class );
+    mockQuery( session, "getCommentsByPage", 2 );
+    CommentsEngine engine = mockEngine( session );
+
+    JSONObject first = engine.list( "page", 0, 2, false, false, "admin" );
+    JSONObject second = engine.list( "page", 0, 2, false, false, "other" );
+    verify( session, times( 1 ) ).getNamedQuery( anyString() );
+    assertEquals( first.getJSONArray( "result" ).length(), second.getJSONArray( "result" ).length() );
+    assertFalse( second.getJSONArray( "result" ).getJSONObject( 0 ).getBoolean( "isMe" ) );
+
+    // other windows and pages aren't cached
+    engine.list( "page", 1, 2, false, false, "admin" );
+    engine.list( "other page", 0, 2, false, false, "admin" );
+    verify( session, times( 3 ) ).getNamedQuery( anyString() );
+
+    long version = engine.getPageVersion( "page" );
+    engine.add( "page", "new comment", "admin" );
+    assertTrue( engine.getPageVersion( "page" ) != version );
+    engine.list( "page", 0, 2, false, false, "admin" );
+    verify( session, times( 4 ) ).getNamedQuery( anyString() );
+  }
+
+  @Test
+  public void testBulkArchive() throws Exception {
+    Session session = mock( Session.class );
+    CommentsEngine engine = mockEngine( session );
+    doCallRealMethod().when( engine ).archive( anyList(), anyBoolean(), anyString(), anyBoolean() );
+    Query owners = mock( Query.class );
+    doReturn( Arrays.asList( new Object[] { 1, "admin", "page" }, new Object[] { 2, "other", "page" },
+        new Object[] { 3, "admin", "other page" } ) ).when( owners ).list();
+    doReturn( owners ).when( session ).getNamedQuery( "org.pentaho.cdf.comments.CommentEntry.getCommentOwnersByIds" );
+    Query update = mock( Query.class );
+    doReturn( update ).when( session ).getNamedQuery( "org.pentaho.cdf.comments.CommentEntry.updateArchivedByIds" );
+    long version = engine.getPageVersion( "page" );
+
+    JSONObject json = engine.archive( Arrays.asList( 1, 2, 3, 4 ), true, "admin", false ).getJSONObject( "result" );
+
+    assertEquals( "[1,3]", json.getJSONArray( "updated" ).toString() );
+    assertEquals( "[2]", json.getJSONArray( "unauthorized" ).toString() );
+    verify( owners ).setParameterList( "commentIds", Arrays.asList( 1, 2, 3, 4 ) );
+    verify( update ).setBoolean( "status", true );
+    verify( update ).setParameterList( "commentIds", Arrays.asList( 1, 3 ) );
+    verify( update, times( 1 ) ).executeUpdate();
+    verify( session.getTransaction() ).commit();
+    assertTrue( engine.getPageVersion( "page" ) != version );
+  }
+
+  @Test
+  public void testBulkDeleteBefore() throws Exception {
+    Session session = mock( Session.class );
+    CommentsEngine engine = mockEngine( session );
+    doCallRealMethod().when( engine )
+      .delete( anyString(), any( java.util.Date.class ), anyBoolean(), anyString(), anyBoolean() );
+    Query owners = mock( Query.class );
+    doReturn( Arrays.asList( new Object[] { 1, "admin", "page" }, new Object[] { 2, "other", "page" } ) )
+      .when( owners ).list();
+    doReturn( owners ).when( session )
+      .getNamedQuery( "org.pentaho.cdf.comments.CommentEntry.getCommentOwnersByPageBefore" );
+    Query update = mock( Query.class );
+    doReturn( update ).when( session ).getNamedQuery( "org.pentaho.cdf.comments.CommentEntry.updateDeletedByIds" );
+    Date before = Date.valueOf( "2017-01-01" );
+
+    JSONObject json = engine.delete( "page", before, true, "admin", true ).getJSONObject( "result" );
+
+    assertEquals( "[1,2]", json.getJSONArray( "updated" ).toString() );
+    assertEquals( 0, json.getJSONArray( "unauthorized" ).length() );
+    verify( owners ).setString( "page", "page" );
+    verify( owners ).setTimestamp( "before", before );
+    verify( update ).setParameterList( "commentIds", Arrays.asList( 1, 2 ) );
+
+    try {
+      engine.delete( "page", null, true, "admin", true );
+      fail( "missing date accepted" );
+    } catch ( InvalidCdfOperationException e ) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testPartition() {
+    List<Integer> ids = new ArrayList<Integer>();
+    for ( int i = 0; i < 1201; i++ ) {
+      ids.add( i );
+    }
+    List<List<Integer>> parts = CommentsEngine.partition( ids );
+    assertEquals( 3, parts.size() );
+    assertEquals( 500, parts.get( 0 ).size() );
+    assertEquals( Integer.valueOf( 500 ), parts.get( 1 ).get( 0 ) );
+    assertEquals( 201, parts.get( 2 ).size() );
+    assertTrue( CommentsEngine.partition( new ArrayList<Integer>() ).isEmpty() );
+  }
+
+  private CommentsEngine mockEngine( Session session ) throws Exception {
+    CommentsEngine engine = mock( CommentsEngine.class );
+    doCallRealMethod().when( engine ).list( anyString(), anyInt(), anyInt(), anyBoolean(), anyBoolean(), anyString() );
+    doCallRealMethod().when( engine )
+      .list( anyString(), anyString(), anyInt(), anyBoolean(), anyBoolean(), anyString() );
+    doCallRealMethod().when( engine ).commentToJson( any( CommentEntry.class ), anyString() );
+    doCallRealMethod().when( engine ).add( anyString(), anyString(), anyString() );
+    doCallRealMethod().when( engine ).getPageVersion( anyString() );
+    doReturn( session ).when( engine ).getSession();
+    doReturn( new CommentsCache() ).when( engine ).getCache();
+    doReturn( mock( Transaction.class ) ).when( session ).getTransaction();
+    return engine;
+  }
+
+  private Query mockQuery( Session session, String queryName, int rows ) {
+    List<CommentEntry> comments = new ArrayList<CommentEntry>();
+    for ( int i = 1; i <= rows; i++ ) {
+      CommentEntry comment = new CommentEntry( "page", "admin", "comment " + i );
+      comment.setCommentId( i );
+      comment.setCreatedDate( new Timestamp( i * 1000L ) );
+      comments.add( comment );
+    }
+    Query query = mock( Query.class );
+    doReturn( comments ).when( query ).list();
+    doReturn( query ).when( session ).getNamedQuery( "org.pentaho.cdf.comments.CommentEntry." + queryName );
+    return query;
+  }
 }
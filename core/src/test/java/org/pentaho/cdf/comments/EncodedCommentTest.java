@@ -0,0 +1,75 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.comments;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class EncodedCommentTest extends TestCase {
+
+  @Test
+  public void testEncode() {
+    CommentEntry entry = new CommentEntry( "page.wcdf\">", "admin", "<b>it's</b>" );
+    entry.setCreatedDate( new Date( 0 ) );
+    EncodedComment encoded = new EncodedComment( entry );
+    assertEquals( "page.wcdf&#34;&gt;", encoded.getPage() );
+    assertEquals( "&lt;b&gt;it\\'s&lt;/b&gt;", encoded.getComment() );
+    assertEquals( new SimpleDateFormat( "yyyy-MM-dd HH:mm:ss" ).format( new Date( 0 ) ), encoded.getCreatedOn() );
+  }
+
+  @Test
+  public void testIsFor() {
+    CommentEntry entry = new CommentEntry( "page", "admin", "comment" );
+    EncodedComment encoded = new EncodedComment( entry );
+    assertTrue( encoded.isFor( entry ) );
+    assertTrue( encoded.isFor( new CommentEntry( "page", "other", "comment" ) ) );
+    assertFalse( encoded.isFor( new CommentEntry( "page", "admin", "other comment" ) ) );
+    assertFalse( encoded.isFor( new CommentEntry( "other", "admin", "comment" ) ) );
+  }
+
+  @Test
+  public void testConcurrentDates() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool( 4 );
+    try {
+      List<Future<String>> results = new ArrayList<Future<String>>();
+      List<String> expected = new ArrayList<String>();
+      for ( int i = 0; i < 200; i++ ) {
+        final Date date = new Date( i * 86400000L + i * 1000L );
+        expected.add( new SimpleDateFormat( "yyyy-MM-dd HH:mm:ss" ).format( date ) );
+        results.add( executor.submit( new Callable<String>() {
+          @Override
+          public String call() {
+            CommentEntry entry = new CommentEntry( "page", "admin", "comment" );
+            entry.setCreatedDate( date );
+            return new EncodedComment( entry ).getCreatedOn();
+          }
+        } ) );
+      }
+      for ( int i = 0; i < expected.size(); i++ ) {
+        assertEquals( expected.get( i ), results.get( i ).get() );
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
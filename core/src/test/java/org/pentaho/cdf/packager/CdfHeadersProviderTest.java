@@ -16,10 +16,13 @@ package org.pentaho.cdf.packager;
 import junit.framework.TestCase;
 import org.junit.Before;
 import org.junit.Test;
+import pt.webdetails.cpf.packager.DependenciesPackage;
 
 import java.util.ArrayList;
 import java.util.List;
 
+import static org.mockito.Mockito.*;
+
 public class CdfHeadersProviderTest extends TestCase {
 
   private static CdfHeadersProvider cdfHeadersProvider;
@@ -89,6 +92,26 @@ public class CdfHeadersProviderTest extends TestCase {
     assertEquals( blueprintExpectedHeaders, blueprintHeaders );
   }
 
+  @Test
+  public void testGetHeadersCached() throws Exception {
+    CdfHeadersProvider provider = spy( new CdfHeadersProviderForTests() );
+
+    String headers = provider.getHeaders( "blueprint", false, null );
+    assertEquals( headers, provider.getHeaders( "blueprint", false, null ) );
+    // script, style and ie8style packages, built only once
+    verify( provider, times( 3 ) ).appendDependencies( any( StringBuilder.class ), any( DependenciesPackage.class ),
+        anyBoolean(), anyString() );
+
+    // different arguments are cached separately
+    provider.getHeaders( "blueprint", true, null );
+    verify( provider, times( 6 ) ).appendDependencies( any( StringBuilder.class ), any( DependenciesPackage.class ),
+        anyBoolean(), anyString() );
+
+    provider.clearCache();
+    assertEquals( headers, provider.getHeaders( "blueprint", false, null ) );
+    verify( provider, times( 9 ) ).appendDependencies( any( StringBuilder.class ), any( DependenciesPackage.class ),
+        anyBoolean(), anyString() );
+  }
 
   private String getHeadersByType( String type ) {
     List<String> componentTypes = new ArrayList<String>();
@@ -0,0 +1,64 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.render;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.pentaho.cdf.CdfConstants;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+public class ComponentTypesDetectorTest extends TestCase {
+
+  @Test
+  public void testDetect() {
+    ComponentTypesDetector detector = ComponentTypesDetector.getInstance();
+
+    assertEquals( Arrays.asList( CdfConstants.COMPONENT_TYPE_TABLE, CdfConstants.COMPONENT_TYPE_AUTOCOMPLETEBOX,
+        CdfConstants.COMPONENT_TYPE_MAP ),
+        detector.detect( "{ type: \"NewMapComponent\" }, { type :'table' }, { type: 'simpleAutocompleteComponent' },"
+          + "{ type: 'tableComponent' }" ) );
+    assertTrue( detector.detect( "" ).isEmpty() );
+    assertTrue( detector.detect( "Type: 'tableComponent', type: 'table1'" ).isEmpty() );
+  }
+
+  @Test
+  public void testDetectMatchesRegexSearch() {
+    String[] contents = {
+      "type: 'tableComponent'",
+      "type:\"dateRangeInputComponent\", type: \"timePlot\", type:'mapX', type: 'TABLE'",
+      "type:   'autocompleteBox' type: \"newmap\"",
+      "type: 'map\", type: 'timeplot\"",
+      "<script>var c = { type: 'unknownComponent' };</script>"
+    };
+    for ( String content : contents ) {
+      assertEquals( content, regexSearch( content ), ComponentTypesDetector.getInstance().detect( content ) );
+    }
+  }
+
+  // previous implementation, one regex search per component type
+  private List<String> regexSearch( String content ) {
+    List<String> componentTypes = new ArrayList<String>();
+    for ( String[] componentType : CdfConstants.DASHBOARD_COMPONENT_TYPES ) {
+      if ( Pattern.compile( String.format( "type:\\s*[\"'](?i)%s[a-z]*[\"']", componentType[ 0 ] ) )
+          .matcher( content ).find() ) {
+        componentTypes.add( componentType[ 1 ] );
+      }
+    }
+    return componentTypes;
+  }
+}
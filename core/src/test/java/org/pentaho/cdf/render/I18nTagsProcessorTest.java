@@ -0,0 +1,74 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.render;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class I18nTagsProcessorTest extends TestCase {
+
+  @Test
+  public void testProcess() {
+    List<String> tags = new ArrayList<String>();
+    assertEquals( "<h1><span id=\"title\"></span></h1><p><span id=\"my_msg_key\"></span>!</p>",
+        I18nTagsProcessor.process( "<h1>CDF.i18n(\"title\")</h1><p>CDF.i18n(\"my.msg.key\")!</p>", tags ) );
+    assertEquals( Arrays.asList( "title", "my.msg.key" ), tags );
+
+    tags.clear();
+    assertEquals( "no tags CDF.i18n here\r\n", I18nTagsProcessor.process( "no tags CDF.i18n here\r\n", tags ) );
+    assertEquals( "", I18nTagsProcessor.process( "", tags ) );
+    assertTrue( tags.isEmpty() );
+  }
+
+  @Test
+  public void testProcessUnclosedTag() {
+    List<String> tags = new ArrayList<String>();
+    assertEquals( "a CDF.i18n(\"key\" b", I18nTagsProcessor.process( "a CDF.i18n(\"key\" b", tags ) );
+    assertEquals( "CDF.i18n(\"", I18nTagsProcessor.process( "CDF.i18n(\"", tags ) );
+    assertTrue( tags.isEmpty() );
+  }
+
+  @Test
+  public void testProcessLines() throws Exception {
+    List<String> tags = new ArrayList<String>();
+    StringBuilder out = new StringBuilder();
+    new I18nTagsProcessor( out, tags, true )
+        .process( new StringReader( "a\r\nCDF.i18n(\"k1\")\rb CDF.i18n(\"open\nCDF.i18n(\"k2\")" ) );
+    assertEquals( "a\n<span id=\"k1\"></span>\nb CDF.i18n(\"open\n<span id=\"k2\"></span>\n", out.toString() );
+    assertEquals( Arrays.asList( "k1", "k2" ), tags );
+  }
+
+  @Test
+  public void testProcessChunks() throws Exception {
+    String content = "x\r\nCDF.i18n(\"a.b\") CDF.i18n(\"c\")y\r\n";
+    String expected = "x\n<span id=\"a_b\"></span> <span id=\"c\"></span>y\n";
+    char[] chars = content.toCharArray();
+    // every split point, so that tags and line breaks span chunks
+    for ( int split = 0; split <= chars.length; split++ ) {
+      List<String> tags = new ArrayList<String>();
+      StringBuilder out = new StringBuilder();
+      I18nTagsProcessor processor = new I18nTagsProcessor( out, tags, true );
+      processor.process( chars, 0, split );
+      processor.process( chars, split, chars.length - split );
+      processor.finish();
+      assertEquals( expected, out.toString() );
+      assertEquals( Arrays.asList( "a.b", "c" ), tags );
+    }
+  }
+}
@@ -13,6 +13,8 @@
 
 package org.pentaho.cdf.render;
 
+import java.util.HashMap;
+
 import junit.framework.TestCase;
 import org.dom4j.Document;
 import org.dom4j.Node;
@@ -37,6 +39,7 @@ public class XcdfRendererTest extends TestCase {
   @Before
   public void setUp() {
     xcdfRenderer = spy( new XcdfRenderer() );
+    doReturn( new HashMap<String, XcdfDescriptor>() ).when( xcdfRenderer ).getDescriptorCache();
   }
 
   @Test
@@ -157,4 +160,54 @@ public class XcdfRendererTest extends TestCase {
     verify( userContentAccess, times( 2 ) ).fileExists( dashboardPath );
     verify( userContentAccess, times( 1 ) ).hasAccess( dashboardPath, FileAccess.EXECUTE );
   }
+
+  @Test
+  public void testResolve() throws Exception {
+    String dashboardPath = "/public/admin/myDash.xcdf";
+
+    IBasicFile file = mock( IBasicFile.class );
+    Node simpleNode = mock( Node.class );
+
+    IUserContentAccess userContentAccess = mock( IUserContentAccess.class );
+    doReturn( true ).when( userContentAccess ).fileExists( dashboardPath );
+    doReturn( true ).when( userContentAccess ).hasAccess( dashboardPath, FileAccess.EXECUTE );
+    doReturn( 1L ).when( userContentAccess ).getLastModified( dashboardPath );
+    doReturn( file ).when( userContentAccess ).fetchFile( dashboardPath );
+    doReturn( userContentAccess ).when( xcdfRenderer ).getUserContentAccess( null );
+
+    Document doc = mock( Document.class );
+    doReturn( simpleNode ).when( doc ).selectSingleNode( NODE_MESSAGES );
+    doReturn( simpleNode ).when( doc ).selectSingleNode( NODE_REQUIRE );
+    doReturn( doc ).when( xcdfRenderer ).getDocument( file );
+
+    doReturn( "myMessage" ).when( xcdfRenderer ).getNodeText( NODE_MESSAGES, doc );
+    doReturn( "true" ).when( xcdfRenderer ).getNodeText( NODE_REQUIRE, doc, "false" );
+
+    assertTrue( xcdfRenderer.resolve( dashboardPath, "myTemplate" ) );
+    assertEquals( "myTemplate", xcdfRenderer.getTemplate() );
+    assertEquals( "myMessage", xcdfRenderer.getMessagesBaseFilename() );
+    assertEquals( "mantle", xcdfRenderer.getStyle() );
+    assertTrue( xcdfRenderer.getIsRequire() );
+    verify( xcdfRenderer, times( 1 ) ).getDocument( file );
+
+    // same version, permissions are checked again but file isn't read
+    assertTrue( xcdfRenderer.determineDashboardTemplating( dashboardPath, "myTemplate" ) );
+    assertTrue( xcdfRenderer.determineRequireDashboard( dashboardPath ) );
+    verify( xcdfRenderer, times( 1 ) ).getDocument( file );
+    verify( userContentAccess, times( 3 ) ).hasAccess( dashboardPath, FileAccess.EXECUTE );
+
+    doReturn( 2L ).when( userContentAccess ).getLastModified( dashboardPath );
+    doReturn( "false" ).when( xcdfRenderer ).getNodeText( NODE_REQUIRE, doc, "false" );
+    assertTrue( xcdfRenderer.resolve( dashboardPath, "myTemplate" ) );
+    assertFalse( xcdfRenderer.getIsRequire() );
+    verify( xcdfRenderer, times( 2 ) ).getDocument( file );
+
+    doReturn( false ).when( userContentAccess ).hasAccess( dashboardPath, FileAccess.EXECUTE );
+    try {
+      xcdfRenderer.resolve( dashboardPath, "myTemplate" );
+      fail();
+    } catch ( InvalidCdfOperationException e ) {
+      // Expected
+    }
+  }
 }
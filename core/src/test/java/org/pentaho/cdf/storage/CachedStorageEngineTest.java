@@ -0,0 +1,222 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.pentaho.cdf.PluginHibernateException;
+import org.pentaho.cdf.utils.JsonUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class CachedStorageEngineTest {
+
+  private StorageEngine engine;
+  private CachedStorageEngine cachedEngine;
+
+  @Before
+  public void setUp() throws Exception {
+    engine = mock( StorageEngine.class );
+    doReturn( new JSONObject( "{\"a\":1}" ) ).when( engine ).read( "admin" );
+    doReturn( new JSONObject() ).when( engine ).delete( "admin" );
+    // no background writes during tests
+    cachedEngine = new CachedStorageEngine( engine, 2, 3600000L );
+  }
+
+  @After
+  public void tearDown() {
+    cachedEngine.shutdown();
+  }
+
+  @Test
+  public void testReadCached() throws Exception {
+    assertEquals( 1, cachedEngine.read( "admin" ).getInt( "a" ) );
+    assertEquals( 1, cachedEngine.read( "admin" ).getInt( "a" ) );
+    verify( engine, times( 1 ) ).read( "admin" );
+  }
+
+  @Test
+  public void testStoreCoalesced() throws Exception {
+    cachedEngine.store( "{\"a\":2}", "admin" );
+    cachedEngine.store( "{\"a\":3}", "admin" );
+    cachedEngine.store( "{\"b\":1}", "suzy" );
+    assertEquals( 3, cachedEngine.read( "admin" ).getInt( "a" ) );
+    verify( engine, never() ).read( "admin" );
+    verify( engine, never() ).storeAll( anyMap() );
+    assertEquals( 2, cachedEngine.getPendingCount() );
+
+    Map<String, String> expected = new HashMap<String, String>();
+    expected.put( "admin", "{\"a\":3}" );
+    expected.put( "suzy", "{\"b\":1}" );
+    cachedEngine.flush();
+    verify( engine, times( 1 ) ).storeAll( expected );
+    assertEquals( 0, cachedEngine.getPendingCount() );
+
+    cachedEngine.flush();
+    verify( engine, times( 1 ) ).storeAll( anyMap() );
+  }
+
+  @Test
+  public void testFlushRetried() throws Exception {
+    doThrow( new PluginHibernateException( "unavailable", null ) ).when( engine ).storeAll( anyMap() );
+    cachedEngine.store( "{\"a\":2}", "admin" );
+    cachedEngine.flush();
+    assertEquals( 1, cachedEngine.getPendingCount() );
+    assertEquals( 2, cachedEngine.read( "admin" ).getInt( "a" ) );
+  }
+
+  @Test
+  public void testFailingEntryDropped() throws Exception {
+    doAnswer( new Answer<Object>() {
+      @Override
+      public Object answer( InvocationOnMock invocation ) throws Throwable {
+        if ( ( (Map<?, ?>) invocation.getArguments()[ 0 ] ).containsKey( "bad" ) ) {
+          throw new PluginHibernateException( "duplicate rows", null );
+        }
+        return null;
+      }
+    } ).when( engine ).storeAll( anyMap() );
+    cachedEngine.store( "{\"a\":2}", "admin" );
+    cachedEngine.store( "{\"b\":1}", "bad" );
+
+    cachedEngine.flush();
+    verify( engine, times( 1 ) ).storeAll( Collections.singletonMap( "admin", "{\"a\":2}" ) );
+    assertEquals( 1, cachedEngine.getPendingCount() );
+
+    for ( int i = 1; i < CachedStorageEngine.MAX_WRITE_ATTEMPTS; i++ ) {
+      cachedEngine.flush();
+    }
+    assertEquals( 0, cachedEngine.getPendingCount() );
+    verify( engine, times( CachedStorageEngine.MAX_WRITE_ATTEMPTS ) )
+        .storeAll( Collections.singletonMap( "bad", "{\"b\":1}" ) );
+
+    // the change was never written, the database value is read again
+    doReturn( new JSONObject( "{\"b\":0}" ) ).when( engine ).read( "bad" );
+    assertEquals( 0, cachedEngine.read( "bad" ).getInt( "b" ) );
+  }
+
+  @Test
+  public void testReadDuringFlush() throws Exception {
+    doReturn( new JSONObject( "{}" ) ).when( engine ).read( "suzy" );
+    doReturn( new JSONObject( "{}" ) ).when( engine ).read( "pat" );
+    cachedEngine.store( "{\"a\":2}", "admin" );
+    // admin is no longer cached, only pending
+    cachedEngine.read( "suzy" );
+    cachedEngine.read( "pat" );
+
+    final List<Integer> readDuringWrite = new ArrayList<Integer>();
+    doAnswer( new Answer<Object>() {
+      @Override
+      public Object answer( InvocationOnMock invocation ) throws Throwable {
+        readDuringWrite.add( cachedEngine.read( "admin" ).getInt( "a" ) );
+        return null;
+      }
+    } ).when( engine ).storeAll( anyMap() );
+    cachedEngine.flush();
+
+    assertEquals( Collections.singletonList( 2 ), readDuringWrite );
+    verify( engine, never() ).read( "admin" );
+  }
+
+  @Test
+  public void testDelete() throws Exception {
+    cachedEngine.store( "{\"a\":2}", "admin" );
+    cachedEngine.delete( "admin" );
+    verify( engine, times( 1 ) ).delete( "admin" );
+    assertEquals( 0, cachedEngine.getPendingCount() );
+    assertEquals( 0, cachedEngine.read( "admin" ).length() );
+  }
+
+  @Test
+  public void testShutdownFlushes() throws Exception {
+    cachedEngine.store( "{\"a\":2}", "admin" );
+    cachedEngine.shutdown();
+    assertEquals( 0, cachedEngine.getPendingCount() );
+
+    // written right away once shut down
+    cachedEngine.store( "{\"a\":3}", "admin" );
+    assertEquals( 0, cachedEngine.getPendingCount() );
+    verify( engine, times( 2 ) ).storeAll( anyMap() );
+  }
+
+  @Test
+  public void testPatchWritesPendingFirst() throws Exception {
+    JSONObject patched = new JSONObject( "{\"version\": 2, \"value\": {\"a\": 4}}" );
+    doReturn( JsonUtil.makeJsonSuccessResponse( patched ) ).when( engine ).patch( "{\"a\":4}", 1, "admin" );
+
+    cachedEngine.store( "{\"a\":2}", "admin" );
+    cachedEngine.patch( "{\"a\":4}", 1, "admin" );
+
+    InOrder inOrder = inOrder( engine );
+    inOrder.verify( engine ).storeAll( anyMap() );
+    inOrder.verify( engine ).patch( "{\"a\":4}", 1, "admin" );
+    assertEquals( 0, cachedEngine.getPendingCount() );
+    assertEquals( 4, cachedEngine.read( "admin" ).getInt( "a" ) );
+    verify( engine, never() ).read( "admin" );
+  }
+
+  @Test
+  public void testStoreWaitsForPatch() throws Exception {
+    final JSONObject patched = new JSONObject( "{\"version\": 2, \"value\": {\"a\": 4}}" );
+    final Thread[] store = new Thread[ 1 ];
+    doAnswer( new Answer<Object>() {
+      @Override
+      public Object answer( InvocationOnMock invocation ) throws Throwable {
+        store[ 0 ] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              cachedEngine.store( "{\"a\":5}", "admin" );
+            } catch ( Exception e ) {
+              throw new RuntimeException( e );
+            }
+          }
+        };
+        store[ 0 ].start();
+        store[ 0 ].join( 200 );
+        // not queued while the patch is written
+        assertTrue( store[ 0 ].isAlive() );
+        assertEquals( 0, cachedEngine.getPendingCount() );
+        return JsonUtil.makeJsonSuccessResponse( patched );
+      }
+    } ).when( engine ).patch( "{\"a\":4}", 1, "admin" );
+
+    cachedEngine.patch( "{\"a\":4}", 1, "admin" );
+    store[ 0 ].join( 5000 );
+
+    assertEquals( 1, cachedEngine.getPendingCount() );
+    assertEquals( 5, cachedEngine.read( "admin" ).getInt( "a" ) );
+  }
+}
@@ -0,0 +1,65 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.storage;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import org.apache.commons.lang.StringUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.pentaho.cdf.InvalidCdfOperationException;
+
+public class StorageBatchTest extends TestCase {
+
+  @Test
+  public void testFromJson() throws Exception {
+    StorageBatch batch = StorageBatch.fromJson( new JSONObject(
+        "{ \"read\": [ \"a\", \"b\" ], \"store\": { \"c\": { \"x\": 1 }, \"d\": null, \"e\": \"text\" },"
+        + " \"delete\": [ \"f\" ] }" ) );
+
+    assertEquals( Arrays.asList( "a", "b" ), batch.getReads() );
+    assertEquals( Arrays.asList( "f", "d" ), batch.getDeletes() );
+    assertEquals( 2, batch.getStores().size() );
+    assertEquals( 1, new JSONObject( batch.getStores().get( "c" ) ).getInt( "x" ) );
+    assertEquals( "\"text\"", batch.getStores().get( "e" ) );
+    assertFalse( batch.isEmpty() );
+
+    assertTrue( StorageBatch.fromJson( new JSONObject() ).isEmpty() );
+  }
+
+  @Test
+  public void testLimits() throws Exception {
+    JSONArray keys = new JSONArray();
+    for ( int i = 0; i <= StorageBatch.MAX_KEYS; i++ ) {
+      keys.put( "key" + i );
+    }
+    assertInvalid( new JSONObject().put( "read", keys ) );
+    assertInvalid( new JSONObject().put( "delete", new JSONArray().put( "" ) ) );
+    assertInvalid( new JSONObject().put( "read",
+        new JSONArray().put( StringUtils.repeat( "k", StorageBatch.MAX_KEY_LENGTH + 1 ) ) ) );
+    assertInvalid( new JSONObject().put( "store",
+        new JSONObject().put( "a", StringUtils.repeat( "v", StorageBatch.MAX_VALUE_LENGTH ) ) ) );
+  }
+
+  private void assertInvalid( JSONObject json ) throws Exception {
+    try {
+      StorageBatch.fromJson( json );
+      fail( "expected invalid batch: " + StringUtils.abbreviate( json.toString(), 40 ) );
+    } catch ( InvalidCdfOperationException e ) {
+      // expected
+    }
+  }
+}
@@ -55,6 +55,15 @@ public class StorageEntryTest extends TestCase {
     assertEquals( "storageValue", storageEntry.getStorageValue() );
   }
 
+  @Test
+  public void testSetVersion() throws Exception {
+    assertNull( storageEntry.getVersion() );
+    assertEquals( 0, storageEntry.getVersionNumber() );
+    storageEntry.setVersion( 3 );
+    assertEquals( Integer.valueOf( 3 ), storageEntry.getVersion() );
+    assertEquals( 3, storageEntry.getVersionNumber() );
+  }
+
   @Test
   public void testSetLastUpdatedDate() throws Exception {
     Date date = new Date();
@@ -0,0 +1,48 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.storage;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.Date;
+
+public class StorageKeyEntryTest extends TestCase {
+
+  @Test
+  public void testConstructorWithParams() throws Exception {
+    StorageKeyEntry entry = new StorageKeyEntry( "user", "key", "{}" );
+    assertEquals( 0, entry.getStorageKeyId() );
+    assertEquals( "user", entry.getUser() );
+    assertEquals( "key", entry.getStorageKey() );
+    assertEquals( "{}", entry.getStorageValue() );
+    assertNotNull( entry.getLastUpdatedDate() );
+  }
+
+  @Test
+  public void testSetters() throws Exception {
+    StorageKeyEntry entry = new StorageKeyEntry();
+    Date date = new Date( 0L );
+    entry.setStorageKeyId( 1 );
+    entry.setUser( "user" );
+    entry.setStorageKey( "key" );
+    entry.setStorageValue( "[]" );
+    entry.setLastUpdatedDate( date );
+    assertEquals( 1, entry.getStorageKeyId() );
+    assertEquals( "user", entry.getUser() );
+    assertEquals( "key", entry.getStorageKey() );
+    assertEquals( "[]", entry.getStorageValue() );
+    assertEquals( date, entry.getLastUpdatedDate() );
+  }
+}
@@ -86,4 +86,20 @@ public class JsonUtilTest extends TestCase {
   public void testIsSuccessResponseNull() throws Exception {
     assertFalse( JsonUtil.isSuccessResponse( null ) );
   }
+
+  @Test
+  public void testMergePatch() throws Exception {
+    JSONObject target = new JSONObject( "{\"a\": \"b\", \"c\": {\"d\": \"e\", \"f\": \"g\"}, \"h\": [1]}" );
+    JSONObject patch = new JSONObject( "{\"a\": \"z\", \"c\": {\"f\": null}, \"h\": {\"i\": 2}, \"j\": null}" );
+    JSONObject result = (JSONObject) JsonUtil.mergePatch( target, patch );
+
+    assertEquals( "z", result.getString( "a" ) );
+    assertEquals( 1, result.getJSONObject( "c" ).length() );
+    assertEquals( "e", result.getJSONObject( "c" ).getString( "d" ) );
+    assertEquals( 2, result.getJSONObject( "h" ).getInt( "i" ) );
+    assertFalse( result.has( "j" ) );
+
+    assertEquals( "x", JsonUtil.mergePatch( target, "x" ) );
+    assertEquals( 1, ( (JSONObject) JsonUtil.mergePatch( "x", new JSONObject( "{\"a\": 1}" ) ) ).getInt( "a" ) );
+  }
 }
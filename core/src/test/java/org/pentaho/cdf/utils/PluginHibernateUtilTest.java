@@ -0,0 +1,56 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.utils;
+
+import java.util.Properties;
+
+import org.junit.Test;
+import org.pentaho.cdf.CdfConstants;
+
+import pt.webdetails.cpf.resources.IResourceLoader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+public class PluginHibernateUtilTest {
+
+  @Test
+  public void testConfigurePoolDatasource() {
+    IResourceLoader resourceLoader = mock( IResourceLoader.class );
+    doReturn( "20" ).when( resourceLoader ).getPluginSetting( any( Class.class ), anyString() );
+
+    Properties properties = new Properties();
+    properties.setProperty( "hibernate.connection.datasource", "java:comp/env/jdbc/Hibernate" );
+    assertFalse( PluginHibernateUtil.configurePool( properties, resourceLoader ) );
+    assertEquals( 1, properties.size() );
+  }
+
+  @Test
+  public void testConfigurePoolNoSettings() {
+    IResourceLoader resourceLoader = mock( IResourceLoader.class );
+    doReturn( " " ).when( resourceLoader ).getPluginSetting( PluginHibernateUtil.class,
+        CdfConstants.PLUGIN_SETTINGS_HIBERNATE_POOL_MAX_SIZE );
+
+    Properties properties = new Properties();
+    properties.setProperty( "hibernate.connection.url", "jdbc:hsqldb:hsql://localhost/hibernate" );
+    assertFalse( PluginHibernateUtil.configurePool( properties, resourceLoader ) );
+    assertNull( properties.getProperty( "hibernate.c3p0.max_size" ) );
+    assertNull( properties.getProperty( "hibernate.connection.provider_class" ) );
+  }
+}
@@ -18,15 +18,24 @@ import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 import static javax.ws.rs.core.MediaType.APPLICATION_XML;
 import static javax.ws.rs.core.MediaType.TEXT_PLAIN;
 import static javax.ws.rs.core.MediaType.TEXT_HTML;
-import static pt.webdetails.cpf.utils.MimeTypes.CSV;
 import static pt.webdetails.cpf.utils.MimeTypes.JAVASCRIPT;
-import static pt.webdetails.cpf.utils.MimeTypes.XLS;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.Consumes;
@@ -39,26 +48,36 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.json.JSONException;
-import org.json.JSONObject;
 import org.owasp.encoder.Encode;
 import org.pentaho.cdf.context.ContextEngine;
 import org.pentaho.cdf.embed.EmbeddedHeadersGenerator;
 import org.pentaho.cdf.environment.CdfEngine;
 import org.pentaho.cdf.export.Export;
 import org.pentaho.cdf.export.ExportCSV;
+import org.pentaho.cdf.export.ExportColumnar;
 import org.pentaho.cdf.export.ExportExcel;
+import org.pentaho.cdf.export.ExportJob;
+import org.pentaho.cdf.export.ExportJobs;
+import org.pentaho.cdf.export.ExportXlsx;
 import org.pentaho.cdf.export.IExport;
+import org.pentaho.cdf.util.CdfHttpServletResponseWrapper;
 import org.pentaho.cdf.util.Parameter;
 import org.pentaho.cdf.xactions.ActionEngine;
+import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.api.engine.IPluginResourceLoader;
 import org.pentaho.platform.engine.core.system.PentahoRequestContextHolder;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.util.messages.LocaleHelper;
 import org.pentaho.platform.util.web.MimeHelper;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 import pt.webdetails.cpf.Util;
 import pt.webdetails.cpf.repository.api.IReadAccess;
 import pt.webdetails.cpf.utils.CharsetHelper;
@@ -72,6 +91,7 @@ public class CdfApi {
   private static final String HTTPS = "https";
   private static final int DEFAULT_HTTP_PORT = 80;
   private static final int DEFAULT_HTTPS_PORT = 443;
+  private static final int EXPORT_MEMORY_THRESHOLD = 1024 * 1024;
 
   @GET
   @Path( "/ping" )
@@ -173,10 +193,12 @@ public class CdfApi {
       @FormParam( Parameter.ACTION ) String action,
       @FormParam( Parameter.CONTENT_TYPE ) @DefaultValue( TEXT_HTML ) String contentType,
       @FormParam( Parameter.EXPORT_TYPE ) @DefaultValue( IExport.DEFAULT_EXPORT_TYPE ) String exportType,
+      @FormParam( Parameter.ASYNC ) @DefaultValue( "false" ) boolean async,
+      @FormParam( Parameter.GZIP ) @DefaultValue( "false" ) boolean gzip,
       @Context HttpServletRequest request,
       @Context HttpServletResponse response ) throws Exception {
 
-    export( solution, path, action, contentType, exportType, request, response );
+    export( solution, path, action, contentType, exportType, async, gzip, request, response );
   }
   @GET
   @Path( "/export" )
@@ -187,34 +209,208 @@ public class CdfApi {
       @QueryParam( Parameter.ACTION ) String action,
       @QueryParam( Parameter.CONTENT_TYPE ) @DefaultValue( TEXT_HTML ) String contentType,
       @QueryParam( Parameter.EXPORT_TYPE ) @DefaultValue( IExport.DEFAULT_EXPORT_TYPE ) String exportType,
+      @QueryParam( Parameter.ASYNC ) @DefaultValue( "false" ) boolean async,
+      @QueryParam( Parameter.GZIP ) @DefaultValue( "false" ) boolean gzip,
       @Context HttpServletRequest request,
       @Context HttpServletResponse response ) throws Exception {
 
     String value = determineCorrectPath( solution, action, path );
 
-    if ( ActionEngine.getInstance().executeAction(
-        value,
-        contentType,
-        request,
-        response,
-        PentahoSessionHolder.getSession(),
-        Parameter.asHashMap( request ) ) ) {
-      Export export;
-
-      if ( IExport.EXPORT_TYPE_CSV.equalsIgnoreCase( exportType ) ) {
-        export = new ExportCSV( response.getOutputStream() );
-        response.setHeader( "Content-Type", CSV );
-
-      } else {
-        export = new ExportExcel( response.getOutputStream() );
-        response.setHeader( "Content-Type", XLS );
+    if ( async ) {
+      submitExport( value, exportType, gzip, Parameter.asHashMap( request ), response );
+      return;
+    }
+
+    // action result is kept in memory up to a size, then in a temporary file
+    File spool = File.createTempFile( "cdf-export", ".json" );
+    try {
+      DeferredFileOutputStream result = new DeferredFileOutputStream( EXPORT_MEMORY_THRESHOLD, spool );
+      String encoding = LocaleHelper.getSystemEncoding();
+      CdfHttpServletResponseWrapper actionResponse = new CdfHttpServletResponseWrapper( response, result, encoding );
+      boolean success = ActionEngine.getInstance().executeAction(
+          value,
+          contentType,
+          request,
+          actionResponse,
+          PentahoSessionHolder.getSession(),
+          Parameter.asHashMap( request ) );
+      actionResponse.flushBuffer();
+      result.close();
+
+      if ( success ) {
+        InputStream in = openSpool( result );
+        try {
+          exportResult( exportType, new BufferedReader( new InputStreamReader( in, encoding ) ), response );
+        } finally {
+          IOUtils.closeQuietly( in );
+        }
       }
+    } finally {
+      spool.delete();
+    }
+  }
+
+  /**
+   * Rows are written to the response as they are read.
+   */
+  private void exportResult( String exportType, Reader resultSet, HttpServletResponse response ) throws IOException {
+    Export export = createExport( exportType, response.getOutputStream() );
+
+    response.setHeader( "Content-Type", export.getMimeType() );
+    response.setHeader( "Cache-Control", "max-age=0, no-store" );
+    response.setHeader( "content-disposition", "attachment; filename=" + "export" + export.getExtension() );
+
+    export.exportFile( resultSet );
+  }
+
+  /**
+   * Queues the export and responds with its job, the result is then read from <code>/export/download</code>.
+   */
+  private void submitExport( final String path, final String exportType, boolean gzip,
+                             final HashMap<String, String> params, HttpServletResponse response )
+    throws IOException, JSONException {
+
+    final IPentahoSession session = PentahoSessionHolder.getSession();
+    final SecurityContext securityContext = SecurityContextHolder.getContext();
+    ExportJob job;
+    try {
+      job = getExportJobs().submit( session.getName(), gzip, new ExportJobs.Task() {
+        @Override
+        public IExport run( OutputStream out ) throws Exception {
+          PentahoSessionHolder.setSession( session );
+          SecurityContextHolder.setContext( securityContext );
+          try {
+            return exportAction( path, exportType, params, session, out );
+          } finally {
+            PentahoSessionHolder.removeSessionHolder();
+            SecurityContextHolder.clearContext();
+          }
+        }
+      } );
+    } catch ( RejectedExecutionException e ) {
+      response.sendError( HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many exports waiting" );
+      return;
+    }
+
+    response.setStatus( HttpServletResponse.SC_ACCEPTED );
+    writeJob( job, response );
+  }
+
+  /**
+   * Runs in an export worker, the request that started it may be gone so the action is run without it.
+   */
+  @SuppressWarnings( "deprecation" )
+  private IExport exportAction( String path, String exportType, HashMap<String, String> params,
+                                IPentahoSession session, OutputStream out ) throws IOException {
+    File spool = File.createTempFile( "cdf-export", ".json" );
+    try {
+      DeferredFileOutputStream result = new DeferredFileOutputStream( EXPORT_MEMORY_THRESHOLD, spool );
+      boolean success = ActionEngine.getInstance().executeAction( path, session, result, params );
+      result.close();
+      if ( !success ) {
+        throw new IOException( "Unable to execute " + path );
+      }
+
+      Export export = createExport( exportType, out );
+      InputStream in = openSpool( result );
+      try {
+        export.exportFile( new BufferedReader( new InputStreamReader( in, LocaleHelper.getSystemEncoding() ) ) );
+      } finally {
+        IOUtils.closeQuietly( in );
+      }
+      return export;
+    } finally {
+      spool.delete();
+    }
+  }
+
+  @GET
+  @Path( "/export/status" )
+  @Produces( APPLICATION_JSON )
+  public void exportStatus(
+      @QueryParam( Parameter.JOB_ID ) String jobId,
+      @Context HttpServletResponse response ) throws IOException, JSONException {
+
+    ExportJob job = getExportJob( jobId );
+    if ( job == null ) {
+      response.sendError( HttpServletResponse.SC_NOT_FOUND );
+      return;
+    }
+    writeJob( job, response );
+  }
+
+  @GET
+  @Path( "/export/download" )
+  public void exportDownload(
+      @QueryParam( Parameter.JOB_ID ) String jobId,
+      @Context HttpServletRequest request,
+      @Context HttpServletResponse response ) throws IOException {
 
+    ExportJob job = getExportJob( jobId );
+    if ( job == null ) {
+      response.sendError( HttpServletResponse.SC_NOT_FOUND );
+      return;
+    }
+    if ( job.getStatus() != ExportJob.Status.DONE ) {
+      response.sendError( HttpServletResponse.SC_CONFLICT, job.getStatus().name() );
+      return;
+    }
+
+    InputStream in;
+    try {
+      in = new FileInputStream( job.getFile() );
+    } catch ( FileNotFoundException e ) {
+      // expired meanwhile
+      response.sendError( HttpServletResponse.SC_NOT_FOUND );
+      return;
+    }
+    try {
+      response.setHeader( "Content-Type", job.getMimeType() );
       response.setHeader( "Cache-Control", "max-age=0, no-store" );
-      response.setHeader( "content-disposition", "attachment; filename=" + "export" + export.getExtension() );
+      response.setHeader( "content-disposition", "attachment; filename=" + "export" + job.getExtension() );
+      if ( job.isGzip() ) {
+        String acceptEncoding = request.getHeader( "Accept-Encoding" );
+        if ( acceptEncoding != null && acceptEncoding.contains( "gzip" ) ) {
+          response.setHeader( "Content-Encoding", "gzip" );
+        } else {
+          in = new GZIPInputStream( in );
+        }
+      }
+      IOUtils.copy( in, response.getOutputStream() );
+      response.getOutputStream().flush();
+    } finally {
+      IOUtils.closeQuietly( in );
+    }
+  }
+
+  protected ExportJobs getExportJobs() {
+    return ExportJobs.getInstance();
+  }
 
-      export.exportFile( new JSONObject( response.getOutputStream() ) );
+  private ExportJob getExportJob( String jobId ) {
+    return getExportJobs().get( jobId, PentahoSessionHolder.getSession().getName() );
+  }
+
+  private void writeJob( ExportJob job, HttpServletResponse response ) throws IOException, JSONException {
+    response.setContentType( APPLICATION_JSON );
+    response.setCharacterEncoding( CharsetHelper.getEncoding() );
+    response.setHeader( "Cache-Control", "no-cache" );
+    PluginIOUtils.writeOutAndFlush( response.getOutputStream(), job.toJson().toString() );
+  }
+
+  private static Export createExport( String exportType, OutputStream out ) throws IOException {
+    if ( IExport.EXPORT_TYPE_CSV.equalsIgnoreCase( exportType ) ) {
+      return new ExportCSV( out );
+    } else if ( IExport.EXPORT_TYPE_XLSX.equalsIgnoreCase( exportType ) ) {
+      return new ExportXlsx( out );
+    } else if ( IExport.EXPORT_TYPE_COLUMNAR.equalsIgnoreCase( exportType ) ) {
+      return new ExportColumnar( out );
     }
+    return new ExportExcel( out );
+  }
+
+  private static InputStream openSpool( DeferredFileOutputStream spool ) throws IOException {
+    return spool.isInMemory() ? new ByteArrayInputStream( spool.getData() ) : new FileInputStream( spool.getFile() );
   }
 
   @GET
@@ -153,8 +153,7 @@ public class CdfContentGenerator extends SimpleContentGenerator {
 
       XcdfRenderer renderer = new XcdfRenderer();
 
-      boolean success = renderer.determineDashboardTemplating( xcdfFilePath, defaultTemplate )
-          && renderer.determineRequireDashboard( xcdfFilePath );
+      boolean success = renderer.resolve( xcdfFilePath, defaultTemplate );
 
       if ( success ) {
 
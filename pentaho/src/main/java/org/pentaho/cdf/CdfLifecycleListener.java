@@ -15,7 +15,12 @@ package org.pentaho.cdf;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.pentaho.cdf.comments.CommentsEngine;
+import org.pentaho.cdf.context.ContextEngine;
 import org.pentaho.cdf.environment.CdfEngine;
+import org.pentaho.cdf.environment.broker.PentahoCdfInterPluginBroker;
+import org.pentaho.cdf.export.ExportJobs;
+import org.pentaho.cdf.storage.StorageEngine;
 import org.pentaho.platform.api.engine.PluginLifecycleException;
 
 import pt.webdetails.cpf.PluginEnvironment;
@@ -42,7 +47,13 @@ public class CdfLifecycleListener extends SimpleLifeCycleListener {
   }
   
   @Override
-  public void unLoaded() throws PluginLifecycleException {  
+  public void unLoaded() throws PluginLifecycleException {
+    // pending user storage changes
+    StorageEngine.shutdown();
+    CommentsEngine.shutdown();
+    ExportJobs.shutdown();
+    ContextEngine.shutdown();
+    PentahoCdfInterPluginBroker.shutdown();
   }
   
   
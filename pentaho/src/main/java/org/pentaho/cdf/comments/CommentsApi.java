@@ -21,14 +21,18 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DefaultValue;
+import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.json.JSONException;
+import org.json.JSONObject;
 import org.pentaho.cdf.InvalidCdfOperationException;
 import org.pentaho.cdf.PluginHibernateException;
 import org.pentaho.cdf.util.Parameter;
@@ -39,6 +43,11 @@ import pt.webdetails.cpf.utils.CharsetHelper;
 import pt.webdetails.cpf.utils.PluginIOUtils;
 
 import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
 
 @Path( "/pentaho-cdf/api/comments" )
 public class CommentsApi {
@@ -74,6 +83,7 @@ public class CommentsApi {
                     @DefaultValue( "20" ) @QueryParam( Parameter.MAX_RESULTS ) int maxResults,
                     @DefaultValue( "false" ) @QueryParam( Parameter.DELETED ) boolean deleted,
                     @DefaultValue( "false" ) @QueryParam( Parameter.ARCHIVED ) boolean archived,
+                    @DefaultValue( "" ) @QueryParam( Parameter.CURSOR ) String cursor,
                     @Context HttpServletResponse servletResponse,
                     @Context HttpServletRequest servletRequest ) {
 
@@ -94,7 +104,17 @@ public class CommentsApi {
     }
 
     try {
-      listComments( page, firstResult, maxResults, deleted, archived, servletResponse );
+      String tag = getListTag( page, firstResult, maxResults, deleted, archived, cursor );
+      if ( tag != null ) {
+        // clients must check with us before using a previous response
+        servletResponse.setHeader( "Cache-Control", "private, no-cache" );
+        servletResponse.setHeader( "ETag", tag );
+        if ( matchesTag( servletRequest.getHeader( "If-None-Match" ), tag ) ) {
+          servletResponse.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+          return;
+        }
+      }
+      listComments( page, firstResult, maxResults, deleted, archived, cursor, servletResponse );
     } catch ( Exception e ) {
       logger.error( "Error listing comments", e );
     }
@@ -150,6 +170,60 @@ public class CommentsApi {
     }
   }
 
+  @POST
+  @Path( "/bulkArchive" )
+  @Consumes( APPLICATION_FORM_URLENCODED )
+  @Produces( APPLICATION_JSON )
+  public void bulkArchive( @FormParam( Parameter.COMMENT_ID ) List<Integer> commentIds,
+                           @DefaultValue( "" ) @FormParam( Parameter.PAGE ) String page,
+                           @DefaultValue( "" ) @FormParam( Parameter.BEFORE ) String before,
+                           @DefaultValue( "true" ) @FormParam( Parameter.VALUE ) boolean value,
+                           @Context HttpServletResponse servletResponse,
+                           @Context HttpServletRequest servletRequest ) {
+
+    servletResponse.setContentType( APPLICATION_JSON );
+    servletResponse.setCharacterEncoding( CharsetHelper.getEncoding() );
+    setCorsHeaders( servletRequest, servletResponse );
+
+    if ( !isAuthenticated() ) {
+      logger.error( "Operation not authorized: requires authentication" );
+      return;
+    }
+
+    try {
+      changeComments( CommentsEngine.Operation.ARCHIVE, commentIds, page, before, value, servletResponse );
+    } catch ( Exception e ) {
+      logger.error( "Error archiving comments", e );
+    }
+  }
+
+  @POST
+  @Path( "/bulkDelete" )
+  @Consumes( APPLICATION_FORM_URLENCODED )
+  @Produces( APPLICATION_JSON )
+  public void bulkDelete( @FormParam( Parameter.COMMENT_ID ) List<Integer> commentIds,
+                          @DefaultValue( "" ) @FormParam( Parameter.PAGE ) String page,
+                          @DefaultValue( "" ) @FormParam( Parameter.BEFORE ) String before,
+                          @DefaultValue( "true" ) @FormParam( Parameter.VALUE ) boolean value,
+                          @Context HttpServletResponse servletResponse,
+                          @Context HttpServletRequest servletRequest ) {
+
+    servletResponse.setContentType( APPLICATION_JSON );
+    servletResponse.setCharacterEncoding( CharsetHelper.getEncoding() );
+    setCorsHeaders( servletRequest, servletResponse );
+
+    if ( !isAuthenticated() ) {
+      logger.error( "Operation not authorized: requires authentication" );
+      return;
+    }
+
+    try {
+      changeComments( CommentsEngine.Operation.DELETE, commentIds, page, before, value, servletResponse );
+    } catch ( Exception e ) {
+      logger.error( "Error deleting comments", e );
+    }
+  }
+
   private String getUserName() {
     return PentahoSessionHolder.getSession().getName();
   }
@@ -180,19 +254,89 @@ public class CommentsApi {
                                int maxResults,
                                boolean deleted,
                                boolean archived,
+                               String cursor,
                                HttpServletResponse servletResponse )
     throws PluginHibernateException, JSONException, InvalidCdfOperationException, IOException {
 
-    PluginIOUtils.writeOutAndFlush(
-        servletResponse.getOutputStream(),
-        CommentsEngine.getInstance().list(
-          page,
-          firstResult,
-          maxResults,
-          deleted,
-          archived,
-          getUserName() ).toString( 2 )
-    );
+    // a cursor skips previous pages, firstResult is only used without it
+    JSONObject result = StringUtils.isEmpty( cursor )
+        ? CommentsEngine.getInstance().list( page, firstResult, maxResults, deleted, archived, getUserName() )
+        : CommentsEngine.getInstance().list( page, cursor, maxResults, deleted, archived, getUserName() );
+
+    PluginIOUtils.writeOutAndFlush( servletResponse.getOutputStream(), result.toString( 2 ) );
+  }
+
+  /**
+   * Listing ETag, known without reading the comments. Besides the page version it depends on the listing parameters,
+   * the user (comments tell if they are theirs) and the current minute (comments tell how old they are).
+   *
+   * @return <code>null</code> if the listing can't be tagged
+   */
+  protected String getListTag( String page, int firstResult, int maxResults, boolean deleted, boolean archived,
+                               String cursor ) {
+    if ( StringUtils.isEmpty( page ) ) {
+      return null;
+    }
+    long version = CommentsEngine.getInstance().getPageVersion( page );
+    long minute = System.currentTimeMillis() / 60000;
+    int parameters = Arrays.asList( getUserName(), firstResult, maxResults, deleted, archived, cursor ).hashCode();
+    return "\"" + Long.toString( version, 36 ) + "-" + Long.toString( minute, 36 ) + "-"
+        + Integer.toHexString( parameters ) + "\"";
+  }
+
+  /**
+   * @param ifNoneMatch If-None-Match header value, may hold several tags
+   */
+  static boolean matchesTag( String ifNoneMatch, String tag ) {
+    if ( StringUtils.isEmpty( ifNoneMatch ) ) {
+      return false;
+    }
+    for ( String candidate : ifNoneMatch.split( "," ) ) {
+      candidate = candidate.trim();
+      if ( candidate.startsWith( "W/" ) ) {
+        // weak comparison is used for If-None-Match
+        candidate = candidate.substring( 2 );
+      }
+      if ( candidate.equals( "*" ) || candidate.equals( tag ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Changes the given comments or, if none given, the page comments created before a date.
+   *
+   * @param before date in the format of the comments <code>createdOn</code>
+   */
+  protected void changeComments( CommentsEngine.Operation operation, List<Integer> commentIds, String page,
+                                 String before, boolean value, HttpServletResponse servletResponse )
+    throws IOException, JSONException, InvalidCdfOperationException, PluginHibernateException {
+
+    CommentsEngine engine = CommentsEngine.getInstance();
+    JSONObject result;
+    if ( commentIds != null && !commentIds.isEmpty() ) {
+      result = operation == CommentsEngine.Operation.DELETE
+          ? engine.delete( commentIds, value, getUserName(), isAdministrator() )
+          : engine.archive( commentIds, value, getUserName(), isAdministrator() );
+    } else {
+      Date beforeDate = parseDate( before );
+      result = operation == CommentsEngine.Operation.DELETE
+          ? engine.delete( page, beforeDate, value, getUserName(), isAdministrator() )
+          : engine.archive( page, beforeDate, value, getUserName(), isAdministrator() );
+    }
+    PluginIOUtils.writeOutAndFlush( servletResponse.getOutputStream(), result.toString( 2 ) );
+  }
+
+  static Date parseDate( String date ) throws InvalidCdfOperationException {
+    if ( StringUtils.isEmpty( date ) ) {
+      return null;
+    }
+    try {
+      return new SimpleDateFormat( EncodedComment.DATE_PATTERN ).parse( date );
+    } catch ( ParseException e ) {
+      throw new InvalidCdfOperationException( "Invalid date: " + date );
+    }
   }
 
   protected void archiveComment( int commentId, boolean value, HttpServletResponse servletResponse )
@@ -0,0 +1,73 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.context;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dom4j.Document;
+import org.dom4j.Node;
+
+import pt.webdetails.cpf.utils.XmlDom4JUtils;
+
+/**
+ * Parsed dashboardContext.xml, for a given file version.
+ */
+public class ContextConfig {
+
+  private final long version;
+  private final Document document;
+  private final Map<String, String> sessionAttributes;
+
+  /**
+   * @param document dashboardContext.xml contents, <code>null</code> for an empty configuration
+   * @param version file version
+   */
+  public ContextConfig( Document document, long version ) {
+    this.document = document;
+    this.version = version;
+
+    Map<String, String> attributes = new LinkedHashMap<String, String>();
+    if ( document != null ) {
+      @SuppressWarnings( "unchecked" )
+      List<Node> nodes = document.selectNodes( "//sessionattributes/attribute" );
+      for ( Node attribute : nodes ) {
+        String name = attribute.getText();
+        String key = XmlDom4JUtils.getNodeText( "@name", attribute );
+        attributes.put( key == null ? name : key, name );
+      }
+    }
+    this.sessionAttributes = Collections.unmodifiableMap( attributes );
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * @return source document for auto-include rules, <code>null</code> if there is no configuration file
+   */
+  public Document getDocument() {
+    return document;
+  }
+
+  /**
+   * @return session attribute names by context key
+   */
+  public Map<String, String> getSessionAttributes() {
+    return sessionAttributes;
+  }
+}
@@ -21,6 +21,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
@@ -32,12 +37,18 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.pentaho.cdf.CdfConstants;
 import org.pentaho.cdf.context.autoinclude.AutoInclude;
+import org.pentaho.cdf.context.autoinclude.AutoIncludeIndex;
+import org.pentaho.cdf.context.autoinclude.AutoIncludeMatcher;
 import org.pentaho.cdf.environment.CdfEngine;
+import org.pentaho.cdf.render.DashboardTemplateCache;
+import org.pentaho.cdf.render.XcdfRenderer;
 import org.pentaho.cdf.storage.StorageEngine;
 import org.pentaho.cdf.util.Parameter;
 import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.security.SecurityParameterProvider;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 import pt.webdetails.cpf.InterPluginCall;
 import pt.webdetails.cpf.localization.MessageBundlesHelper;
@@ -61,8 +72,19 @@ public class ContextEngine {
   private static ContextEngine instance;
   private static String CONFIG_FILE = "dashboardContext.xml";
 
-  private static List<AutoInclude> autoIncludes;
+  private static AutoIncludeIndex autoIncludeIndex;
+  private static AutoIncludeMatcher autoIncludeMatcher;
   private static Object autoIncludesLock = new Object();
+  // cda files are rescanned in the background once every AUTO_INCLUDES_REFRESH_INTERVAL ms
+  private static final long AUTO_INCLUDES_REFRESH_INTERVAL = 60000L;
+  private static volatile boolean autoIncludesRefreshRequested;
+  private static ExecutorService autoIncludesExecutor;
+
+  // dashboardContext.xml version is only checked once every CONFIG_CHECK_INTERVAL ms
+  private static final long CONFIG_CHECK_INTERVAL = 10000L;
+  private final Object configLock = new Object();
+  private volatile ContextConfig contextConfig;
+  private volatile long lastConfigCheck;
 
   public ContextEngine() {
     legacyDashboardContext = Boolean.valueOf(
@@ -83,11 +105,18 @@ public class ContextEngine {
 
   public static void clearCache() {
     // TODO figure out what to clear
-    synchronized ( autoIncludesLock ) {
-      autoIncludes = null;
-      logger.debug( "auto-includes cleared." );
+    synchronized ( ContextEngine.class ) {
+      if ( instance != null ) {
+        instance.clearConfig();
+      } else {
+        autoIncludesRefreshRequested = true;
+      }
     }
 
+    CdfEngine.getEnvironment().getCdfHeadersProvider().clearCache();
+    DashboardTemplateCache.getInstance().clear();
+    XcdfRenderer.clearCache();
+
     if ( CdfEngine.getPluginSystemReader( null ).fileExists( MessageBundlesHelper.BASE_CACHE_DIR ) ) {
 
       List<IBasicFile> cacheFiles =
@@ -108,8 +137,31 @@ public class ContextEngine {
     }
   }
 
+  /**
+   * Rereads dashboardContext.xml and rescans the cda files on the next request. The current auto-includes are kept
+   * until the rescan is done, unless the auto-include entries changed.
+   */
+  protected void clearConfig() {
+    autoIncludesRefreshRequested = true;
+    logger.debug( "auto-includes refresh requested." );
+    contextConfig = null;
+  }
+
+  /**
+   * @param user user name, <code>null</code> for the user of the current session
+   * @return context for a single render
+   */
+  public RenderContext createRenderContext( String user ) {
+    return new RenderContext( this, user );
+  }
+
   public void generateContext( final OutputStream out, HashMap<String, String> paramMap, int inactiveInterval )
     throws Exception {
+    generateContext( out, createRenderContext( null ), paramMap, inactiveInterval );
+  }
+
+  public void generateContext( final OutputStream out, RenderContext renderContext,
+                               HashMap<String, String> paramMap, int inactiveInterval ) throws Exception {
 
     String solution = StringUtils.defaultIfEmpty( paramMap.get( Parameter.SOLUTION ), StringUtils.EMPTY );
     String path = StringUtils.defaultIfEmpty( paramMap.get( Parameter.PATH ), StringUtils.EMPTY );
@@ -122,7 +174,7 @@ public class ContextEngine {
       fullPath = RepositoryHelper.joinPaths( fullPath, action );
     }
 
-    String dashboardContext = getContext( fullPath, paramMap, inactiveInterval );
+    String dashboardContext = getContext( renderContext, fullPath, paramMap, inactiveInterval );
 
     if ( StringUtils.isEmpty( dashboardContext ) ) {
       logger.error( "empty dashboardContext" );
@@ -136,31 +188,39 @@ public class ContextEngine {
   }
 
   public String getContext( String path,  Map<String, String> parameters, int inactiveInterval ) {
-    String username = getUserSession().getName();
+    return getContext( createRenderContext( null ), path, parameters, inactiveInterval );
+  }
 
+  public String getContext( RenderContext renderContext, String path, Map<String, String> parameters,
+                            int inactiveInterval ) {
     try {
-      return buildContextScript( buildContext( path, username, parameters, inactiveInterval ) );
+      return buildContextScript( buildContext( renderContext, path, parameters, inactiveInterval ), renderContext );
     } catch ( JSONException e ) {
       return "";
     }
   }
 
   public JSONObject buildContext( String path, String username, Map<String, String> parameters, int inactiveInterval ) {
+    return buildContext( createRenderContext( username ), path, parameters, inactiveInterval );
+  }
+
+  public JSONObject buildContext( RenderContext renderContext, String path, Map<String, String> parameters,
+                                  int inactiveInterval ) {
     JSONObject contextObj = new JSONObject();
 
-    Document config = getConfigFile();
+    ContextConfig config = renderContext.getConfig();
 
     try {
       buildContextConfig( contextObj, path, config );
       buildContextSessionTimeout( contextObj, inactiveInterval );
       buildContextDates( contextObj );
 
-      contextObj.put( "user", username );
-      contextObj.put( "locale", getLocale() );
+      contextObj.put( "user", renderContext.getUser() );
+      contextObj.put( "locale", renderContext.getLocale() );
 
       buildContextPaths( contextObj, path, parameters );
 
-      SecurityParameterProvider securityParams = getSecurityParams();
+      SecurityParameterProvider securityParams = renderContext.getSecurityParams();
       contextObj.put( "roles", securityParams.getParameter( "principalRoles" ) );
 
       if ( getLegacyStructure() ) {
@@ -268,9 +328,9 @@ public class ContextEngine {
     return contextObj;
   }
 
-  protected JSONObject buildContextConfig( final JSONObject contextObj, String fullPath, Document config )
+  protected JSONObject buildContextConfig( final JSONObject contextObj, String fullPath, ContextConfig config )
     throws JSONException {
-    contextObj.put( "queryData", processAutoIncludes( fullPath, config ) );
+    contextObj.put( "queryData", processAutoIncludes( fullPath, config.getDocument() ) );
     contextObj.put( "sessionAttributes", processSessionAttributes( config ) );
 
     return contextObj;
@@ -279,11 +339,11 @@ public class ContextEngine {
 
   public String getConfig( String path,  Map<String, String> parameters,
                            int inactiveInterval ) throws JSONException {
-    final String username = getUserSession().getName();
+    final RenderContext renderContext = createRenderContext( null );
     final StringBuilder s = new StringBuilder();
     s.append( "{\n" );
-    s.append( "context: " ).append( buildContext( path, username, parameters, inactiveInterval ) );
-    final String storage = getStorage();
+    s.append( "context: " ).append( buildContext( renderContext, path, parameters, inactiveInterval ) );
+    final String storage = getStorage( renderContext );
     if ( !StringUtils.isEmpty( storage ) ) {
       s.append( ",\nstorage: " ).append( storage );
     }
@@ -291,7 +351,7 @@ public class ContextEngine {
     return s.toString();
   }
 
-  protected String buildContextScript( JSONObject contextObj )
+  protected String buildContextScript( JSONObject contextObj, RenderContext renderContext )
     throws JSONException {
     final StringBuilder s = new StringBuilder();
     s.append( "\n<script language=\"javascript\" type=\"text/javascript\">\n" );
@@ -300,7 +360,7 @@ public class ContextEngine {
     s.append( "Dashboards.context = " ).append( contextObj.toString( 2 ) ).append( "\n" );
 
     // append storage
-    String storage = getStorage();
+    String storage = getStorage( renderContext );
     if ( !StringUtils.isEmpty( storage ) ) {
       s.append( "Dashboards.initialStorage = " ).append( storage ).append( "\n" );
     }
@@ -320,6 +380,21 @@ public class ContextEngine {
     return contextObj;
   }
 
+  public JSONObject processSessionAttributes( ContextConfig config ) {
+
+    JSONObject result = new JSONObject();
+
+    for ( Map.Entry<String, String> attribute : config.getSessionAttributes().entrySet() ) {
+      try {
+        result.put( attribute.getKey(), getUserSession().getAttribute( attribute.getValue() ) );
+      } catch ( JSONException e ) {
+        logger.error( e );
+      }
+    }
+
+    return result;
+  }
+
   public JSONObject processSessionAttributes( Document config ) {
 
     JSONObject result = new JSONObject();
@@ -345,15 +420,19 @@ public class ContextEngine {
   }
 
 
-  protected String getStorage() {
+  protected String getStorage( RenderContext renderContext ) {
     try {
-      return StorageEngine.getInstance().read( getUserSession().getName() ).toString( 2 );
+      return renderContext.getStorage();
     } catch ( Exception e ) {
       logger.error( e );
       return "";
     }
   }
 
+  protected JSONObject readStorage( String user ) throws Exception {
+    return StorageEngine.getInstance().read( user );
+  }
+
   /**
    * will add a json entry for each data access id in the cda queries applicable to currents dashboard.
    */
@@ -365,44 +444,175 @@ public class ContextEngine {
       return queries;
     }
 
+    /* Bail out if there's no configuration */
+    if ( config == null ) {
+      return queries;
+    }
+
     /* Bail out if cdf/includes folder does not exists */
     IReadAccess autoIncludesFolder = getUserContentAccess( null );
     if ( !autoIncludesFolder.fileExists( getPluginRepositoryDir() + CdfConstants.INCLUDES_DIR ) ) {
       return queries;
     }
 
-    List<AutoInclude> autoIncludes = getAutoIncludes( config );
-    for ( AutoInclude autoInclude : autoIncludes ) {
-      if ( autoInclude.canInclude( dashboardPath ) ) {
-        String cdaPath = autoInclude.getCdaPath();
-        addCdaQuery( queries, cdaPath );
-      }
+    List<String> cdaPaths = getAutoIncludeMatcher( config ).getCdaPaths( dashboardPath );
+    if ( !cdaPaths.isEmpty() ) {
+      addCdaQueries( queries, cdaPaths );
     }
     return queries;
   }
 
+  /**
+   * Current auto-includes. The cda files are never scanned in the calling thread, until the first scan is done
+   * no auto-includes are returned.
+   */
   protected List<AutoInclude> getAutoIncludes( Document config ) {
+    final AutoIncludeIndex index;
     synchronized ( autoIncludesLock ) {
-      if ( autoIncludes == null ) {
-        IReadAccess cdaRoot = getUserContentAccess( getPluginRepositoryDir() + CdfConstants.INCLUDES_DIR );
-        autoIncludes = buildAutoIncludeList( config, cdaRoot );
+      if ( autoIncludeIndex == null || !autoIncludeIndex.isFor( config ) ) {
+        autoIncludeIndex = createAutoIncludeIndex( config );
       }
-      return autoIncludes;
+      index = autoIncludeIndex;
     }
+    boolean refreshDue = !index.isReady() || autoIncludesRefreshRequested
+        || System.currentTimeMillis() - index.getLastRefresh() >= AUTO_INCLUDES_REFRESH_INTERVAL;
+    if ( refreshDue && index.startRefresh() ) {
+      autoIncludesRefreshRequested = false;
+      final IPentahoSession session = PentahoSessionHolder.getSession();
+      final SecurityContext securityContext = SecurityContextHolder.getContext();
+      final Thread requestThread = Thread.currentThread();
+      try {
+        getAutoIncludesExecutor().execute( new Runnable() {
+          @Override
+          public void run() {
+            // the scan uses the repository as the user that triggered it
+            boolean worker = Thread.currentThread() != requestThread;
+            if ( worker ) {
+              PentahoSessionHolder.setSession( session );
+              SecurityContextHolder.setContext( securityContext );
+            }
+            try {
+              refreshAutoIncludeIndex( index );
+            } catch ( Exception e ) {
+              logger.error( "Error scanning auto-includes", e );
+            } finally {
+              if ( worker ) {
+                PentahoSessionHolder.removeSessionHolder();
+                SecurityContextHolder.clearContext();
+              }
+            }
+          }
+        } );
+      } catch ( RejectedExecutionException e ) {
+        logger.error( "Unable to scan auto-includes", e );
+        index.abortRefresh();
+      }
+    }
+    if ( !index.isReady() ) {
+      logger.info( "auto-includes not available yet" );
+    }
+    return index.getAutoIncludes();
   }
 
-  protected Document getConfigFile() {
+  protected AutoIncludeIndex createAutoIncludeIndex( Document config ) {
+    return new AutoIncludeIndex( config );
+  }
 
-    try {
-      IContentAccessFactory factory = CdfEngine.getEnvironment().getContentAccessFactory();
-      IReadAccess access = factory.getPluginRepositoryReader( null );
+  protected void refreshAutoIncludeIndex( AutoIncludeIndex index ) {
+    index.refresh( getUserContentAccess( getPluginRepositoryDir() + CdfConstants.INCLUDES_DIR ) );
+  }
 
-      if ( !access.fileExists( CONFIG_FILE ) ) {
-        access = factory.getPluginSystemReader( null );
-        if ( !access.fileExists( CONFIG_FILE ) ) {
-          logger.error( CONFIG_FILE + " not found!" );
-          return null;
+  protected Executor getAutoIncludesExecutor() {
+    synchronized ( autoIncludesLock ) {
+      if ( autoIncludesExecutor == null ) {
+        autoIncludesExecutor = Executors.newSingleThreadExecutor( new ThreadFactory() {
+          @Override
+          public Thread newThread( Runnable r ) {
+            Thread thread = new Thread( r, "cdf-autoinclude-index" );
+            thread.setDaemon( true );
+            return thread;
+          }
+        } );
+      }
+      return autoIncludesExecutor;
+    }
+  }
+
+  /**
+   * Stops the auto-include scans and drops the index, called when the plugin is unloaded.
+   */
+  public static void shutdown() {
+    synchronized ( autoIncludesLock ) {
+      if ( autoIncludesExecutor != null ) {
+        autoIncludesExecutor.shutdownNow();
+        autoIncludesExecutor = null;
+      }
+      autoIncludeIndex = null;
+      autoIncludeMatcher = null;
+    }
+  }
+
+  /**
+   * Parsed context configuration, reloaded only when dashboardContext.xml changes.
+   */
+  protected ContextConfig getContextConfig() {
+    ContextConfig config = contextConfig;
+    if ( config != null && System.currentTimeMillis() - lastConfigCheck < CONFIG_CHECK_INTERVAL ) {
+      return config;
+    }
+    synchronized ( configLock ) {
+      config = contextConfig;
+      if ( config != null && System.currentTimeMillis() - lastConfigCheck < CONFIG_CHECK_INTERVAL ) {
+        return config;
+      }
+      IReadAccess access = getConfigFileAccess();
+      long version = access != null ? access.getLastModified( CONFIG_FILE ) : -1L;
+      if ( config == null || config.getVersion() != version ) {
+        if ( config != null ) {
+          // auto-includes are only rebuilt if their entries changed
+          logger.info( CONFIG_FILE + " changed, reloading." );
         }
+        config = new ContextConfig( access != null ? getConfigFile() : null, version );
+        contextConfig = config;
+      }
+      lastConfigCheck = System.currentTimeMillis();
+      return config;
+    }
+  }
+
+  /**
+   * @return reader where dashboardContext.xml is found, or <code>null</code>
+   */
+  protected IReadAccess getConfigFileAccess() {
+    IContentAccessFactory factory = CdfEngine.getEnvironment().getContentAccessFactory();
+    IReadAccess access = factory.getPluginRepositoryReader( null );
+
+    if ( !access.fileExists( CONFIG_FILE ) ) {
+      access = factory.getPluginSystemReader( null );
+      if ( !access.fileExists( CONFIG_FILE ) ) {
+        logger.error( CONFIG_FILE + " not found!" );
+        return null;
+      }
+    }
+    return access;
+  }
+
+  protected AutoIncludeMatcher getAutoIncludeMatcher( Document config ) {
+    List<AutoInclude> autoIncludes = getAutoIncludes( config );
+    synchronized ( autoIncludesLock ) {
+      if ( autoIncludeMatcher == null || !autoIncludeMatcher.isFor( autoIncludes ) ) {
+        autoIncludeMatcher = new AutoIncludeMatcher( autoIncludes );
+      }
+      return autoIncludeMatcher;
+    }
+  }
+
+  protected Document getConfigFile() {
+
+    try {
+      IReadAccess access = getConfigFileAccess();
+      if ( access == null ) {
+        return null;
       }
       if ( logger.isDebugEnabled() ) {
         logger.debug( String.format( "Reading %s from %s", CONFIG_FILE, access ) );
@@ -427,12 +637,11 @@ public class ContextEngine {
     return CdfEngine.getEnvironment().getCdfPluginRepositoryDir();
   }
 
-  protected void addCdaQuery( final JSONObject queries, String cdaPath ) {
-    CdfEngine.getEnvironment().getCdfInterPluginBroker().addCdaQueries( queries, cdaPath );
-  }
-
-  protected List<AutoInclude> buildAutoIncludeList( Document config, IReadAccess cdaRoot ) {
-    return AutoInclude.buildAutoIncludeList( config, cdaRoot );
+  /**
+   * Queries of all cda files are executed concurrently, results are added in the order of the given files.
+   */
+  protected void addCdaQueries( final JSONObject queries, List<String> cdaPaths ) {
+    CdfEngine.getEnvironment().getCdfInterPluginBroker().addCdaQueries( queries, cdaPaths );
   }
 
   protected Locale getLocale() {
@@ -0,0 +1,98 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.context;
+
+import java.util.Locale;
+
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.engine.security.SecurityParameterProvider;
+
+/**
+ * Lookups done while rendering a single dashboard, each one done at most once.<br>
+ * Not thread safe, meant to be used by the request thread only.
+ */
+public class RenderContext {
+
+  private final ContextEngine engine;
+  private String user;
+  private IPentahoSession session;
+  private Locale locale;
+  private SecurityParameterProvider securityParams;
+  private ContextConfig config;
+  private String storage;
+  private Exception storageError;
+
+  /**
+   * @param engine engine used for the lookups
+   * @param user user name, <code>null</code> for the user of the current session
+   */
+  RenderContext( ContextEngine engine, String user ) {
+    this.engine = engine;
+    this.user = user;
+  }
+
+  public IPentahoSession getSession() {
+    if ( session == null ) {
+      session = engine.getUserSession();
+    }
+    return session;
+  }
+
+  public String getUser() {
+    if ( user == null ) {
+      user = getSession().getName();
+    }
+    return user;
+  }
+
+  public Locale getLocale() {
+    if ( locale == null ) {
+      locale = engine.getLocale();
+    }
+    return locale;
+  }
+
+  public SecurityParameterProvider getSecurityParams() {
+    if ( securityParams == null ) {
+      securityParams = engine.getSecurityParams();
+    }
+    return securityParams;
+  }
+
+  public ContextConfig getConfig() {
+    if ( config == null ) {
+      config = engine.getContextConfig();
+    }
+    return config;
+  }
+
+  /**
+   * @return user storage as formatted JSON
+   * @throws Exception if storage couldn't be read, without trying again
+   */
+  public String getStorage() throws Exception {
+    if ( storageError != null ) {
+      throw storageError;
+    }
+    if ( storage == null ) {
+      try {
+        storage = engine.readStorage( getUser() ).toString( 2 );
+      } catch ( Exception e ) {
+        storageError = e;
+        throw e;
+      }
+    }
+    return storage;
+  }
+}
@@ -50,7 +50,7 @@ public class AutoInclude {
   public AutoInclude() {
   }
 
-  private static String getPluginIncludesDir() {
+  static String getPluginIncludesDir() {
     if ( pluginIncludesDir == null ) {
       pluginIncludesDir = CdfEngine.getEnvironment().getCdfPluginRepositoryDir() + CdfConstants.INCLUDES_DIR;
     }
@@ -95,6 +95,10 @@ public class AutoInclude {
     return cdaFile;
   }
 
+  List<DashboardMatchRule> getDashboardRules() {
+    return dashboardRules;
+  }
+
   @Override
   public String toString() {
     return cdaFile
@@ -0,0 +1,223 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.context.autoinclude;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dom4j.Document;
+import org.dom4j.Node;
+
+import pt.webdetails.cpf.Util;
+import pt.webdetails.cpf.repository.api.IBasicFile;
+import pt.webdetails.cpf.repository.api.IBasicFileFilter;
+import pt.webdetails.cpf.repository.api.IReadAccess;
+import pt.webdetails.cpf.repository.util.RepositoryHelper;
+
+/**
+ * Auto-include list for a given configuration, kept up to date by periodic scans of the cda files.<br>
+ * Readers always get an immutable snapshot, changes are applied to a copy that is then swapped in.
+ * Auto-includes are ordered by configuration entry and then by cda path.
+ */
+public class AutoIncludeIndex {
+
+  private static final Log log = LogFactory.getLog( AutoIncludeIndex.class );
+
+  private volatile Document config;
+  // auto-include entries as text, to recognize reloads of the same configuration
+  private final String configKey;
+  private final List<AutoIncludeConfig> autoIncludeConfigs;
+  // auto-includes for each cda file, by configuration entry (null if not matched)
+  private final TreeMap<String, AutoInclude[]> byCda = new TreeMap<String, AutoInclude[]>();
+  private final Map<String, Long> versions = new HashMap<String, Long>();
+
+  private volatile List<AutoInclude> autoIncludes = Collections.emptyList();
+  private volatile long lastRefresh;
+  private volatile boolean ready;
+  private final AtomicBoolean refreshing = new AtomicBoolean();
+
+  public AutoIncludeIndex( Document config ) {
+    this.config = config;
+    this.configKey = getConfigKey( config );
+    this.autoIncludeConfigs = AutoIncludeConfig.getAutoIncludeConfigs( config );
+  }
+
+  /**
+   * @return if this index was built from the given configuration, or from one with the same auto-include entries.
+   *         The index then keeps the given one, so a reloaded configuration is only compared once.
+   */
+  public boolean isFor( Document config ) {
+    if ( this.config == config ) {
+      return true;
+    }
+    if ( config != null && configKey.equals( getConfigKey( config ) ) ) {
+      this.config = config;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return current auto-includes, never modified
+   */
+  public List<AutoInclude> getAutoIncludes() {
+    return autoIncludes;
+  }
+
+  /**
+   * @return if a full scan was already applied
+   */
+  public boolean isReady() {
+    return ready;
+  }
+
+  public long getLastRefresh() {
+    return lastRefresh;
+  }
+
+  /**
+   * @return <code>false</code> if a refresh is already running
+   */
+  public boolean startRefresh() {
+    return refreshing.compareAndSet( false, true );
+  }
+
+  /**
+   * Releases a refresh started with {@link #startRefresh()} that won't run.
+   */
+  public void abortRefresh() {
+    refreshing.set( false );
+  }
+
+  /**
+   * Scans cda files under the given root, applying changes found since the last scan.
+   * Must follow a successful {@link #startRefresh()}.
+   */
+  public void refresh( IReadAccess cdaRoot ) {
+    try {
+      long start = System.currentTimeMillis();
+      Map<String, Long> found = scan( cdaRoot );
+      int changes = 0;
+      synchronized ( this ) {
+        for ( String cdaPath : new HashSet<String>( versions.keySet() ) ) {
+          if ( !found.containsKey( cdaPath ) ) {
+            remove( cdaPath );
+            changes++;
+          }
+        }
+        for ( Map.Entry<String, Long> file : found.entrySet() ) {
+          if ( !file.getValue().equals( versions.get( file.getKey() ) ) ) {
+            update( file.getKey(), file.getValue() );
+            changes++;
+          }
+        }
+        if ( changes > 0 ) {
+          publish();
+        }
+      }
+      ready = true;
+      if ( log.isDebugEnabled() ) {
+        log.debug( String.format( "AutoInclude index refreshed, %d changes, %d auto-includes (%s)", changes,
+            autoIncludes.size(), Util.getElapsedSeconds( start ) ) );
+      }
+    } finally {
+      lastRefresh = System.currentTimeMillis();
+      refreshing.set( false );
+    }
+  }
+
+  private void update( String cdaPath, long version ) {
+    AutoInclude[] entries = new AutoInclude[ autoIncludeConfigs.size() ];
+    boolean matched = false;
+    for ( int i = 0; i < entries.length; i++ ) {
+      Matcher matcher = autoIncludeConfigs.get( i ).getCdaRegex().matcher( cdaPath );
+      if ( matcher.matches() ) {
+        entries[ i ] = new AutoInclude( cdaPath, matcher, autoIncludeConfigs.get( i ).getDashboardRules() );
+        matched = true;
+      }
+    }
+    versions.put( cdaPath, version );
+    if ( matched ) {
+      byCda.put( cdaPath, entries );
+    } else {
+      byCda.remove( cdaPath );
+    }
+  }
+
+  private boolean remove( String cdaPath ) {
+    versions.remove( cdaPath );
+    return byCda.remove( cdaPath ) != null;
+  }
+
+  private void publish() {
+    List<AutoInclude> result = new ArrayList<AutoInclude>();
+    for ( int i = 0; i < autoIncludeConfigs.size(); i++ ) {
+      for ( AutoInclude[] entries : byCda.values() ) {
+        if ( entries[ i ] != null ) {
+          result.add( entries[ i ] );
+        }
+      }
+    }
+    autoIncludes = Collections.unmodifiableList( result );
+  }
+
+  private Map<String, Long> scan( final IReadAccess cdaRoot ) {
+    final String includesDir = getIncludesDir();
+    IBasicFileFilter cdaFilter = new IBasicFileFilter() {
+      @Override
+      public boolean accept( IBasicFile file ) {
+        String path = RepositoryHelper.joinPaths( includesDir, file.getPath() );
+        for ( AutoIncludeConfig autoIncludeConfig : autoIncludeConfigs ) {
+          Pattern regex = autoIncludeConfig.getCdaRegex();
+          if ( regex.matcher( path ).matches() ) {
+            return true;
+          }
+        }
+        return false;
+      }
+    };
+    Map<String, Long> found = new HashMap<String, Long>();
+    List<IBasicFile> cdaFiles = cdaRoot.listFiles( null, cdaFilter, IReadAccess.DEPTH_ALL, false );
+    if ( cdaFiles != null ) {
+      for ( IBasicFile cda : cdaFiles ) {
+        found.put( RepositoryHelper.joinPaths( includesDir, cda.getPath() ), cdaRoot.getLastModified( cda.getPath() ) );
+      }
+    }
+    return found;
+  }
+
+  private static String getConfigKey( Document config ) {
+    StringBuilder key = new StringBuilder();
+    @SuppressWarnings( "unchecked" )
+    List<Node> includes = config.selectNodes( "//autoincludes/autoinclude" );
+    for ( Node include : includes ) {
+      key.append( include.asXML() );
+    }
+    return key.toString();
+  }
+
+  protected String getIncludesDir() {
+    return AutoInclude.getPluginIncludesDir();
+  }
+}
@@ -0,0 +1,185 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.context.autoinclude;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Finds the cda files to include in a dashboard from a list of {@link AutoInclude}s.<br>
+ * A dashboard can only be included by a rule set if one of its include rules matches, so auto-includes are indexed
+ * by the literal prefix of their include rules and only those whose prefix matches the dashboard path are evaluated.
+ * Results are kept by dashboard path.
+ */
+public class AutoIncludeMatcher {
+
+  private static final Log log = LogFactory.getLog( AutoIncludeMatcher.class );
+
+  private static final int DEFAULT_CACHE_SIZE = 1024;
+  private static final String REGEX_META = "\\[](){}.*+?^$|";
+
+  private final List<AutoInclude> autoIncludes;
+  // auto-include positions by include rule prefix
+  private final Map<String, BitSet> byPrefix = new HashMap<String, BitSet>();
+  private final int maxPrefixLength;
+  private final Map<String, List<String>> matches;
+
+  public AutoIncludeMatcher( List<AutoInclude> autoIncludes ) {
+    this( autoIncludes, DEFAULT_CACHE_SIZE );
+  }
+
+  @SuppressWarnings( "serial" )
+  public AutoIncludeMatcher( List<AutoInclude> autoIncludes, final int cacheSize ) {
+    this.autoIncludes = autoIncludes;
+    this.matches = Collections.synchronizedMap( new LinkedHashMap<String, List<String>>( 16, 0.75f, true ) {
+      @Override
+      protected boolean removeEldestEntry( Map.Entry<String, List<String>> eldest ) {
+        return size() > cacheSize;
+      }
+    } );
+
+    int maxLength = 0;
+    for ( int i = 0; i < autoIncludes.size(); i++ ) {
+      for ( String prefix : getIncludePrefixes( autoIncludes.get( i ) ) ) {
+        BitSet positions = byPrefix.get( prefix );
+        if ( positions == null ) {
+          positions = new BitSet();
+          byPrefix.put( prefix, positions );
+        }
+        positions.set( i );
+        maxLength = Math.max( maxLength, prefix.length() );
+      }
+    }
+    this.maxPrefixLength = maxLength;
+    if ( log.isDebugEnabled() ) {
+      log.debug( String.format( "%d auto-includes indexed by %d prefixes", autoIncludes.size(), byPrefix.size() ) );
+    }
+  }
+
+  /**
+   * @return if this matcher was built from the given list
+   */
+  public boolean isFor( List<AutoInclude> autoIncludes ) {
+    return this.autoIncludes == autoIncludes;
+  }
+
+  /**
+   * @param dashboardPath full dashboard path
+   * @return cda files to include, in auto-include order
+   */
+  public List<String> getCdaPaths( String dashboardPath ) {
+    List<String> cdaPaths = matches.get( dashboardPath );
+    if ( cdaPaths == null ) {
+      cdaPaths = Collections.unmodifiableList( match( dashboardPath ) );
+      matches.put( dashboardPath, cdaPaths );
+    }
+    return cdaPaths;
+  }
+
+  private List<String> match( String dashboardPath ) {
+    BitSet candidates = new BitSet();
+    int maxLength = Math.min( maxPrefixLength, dashboardPath.length() );
+    for ( int length = 0; length <= maxLength; length++ ) {
+      BitSet positions = byPrefix.get( dashboardPath.substring( 0, length ) );
+      if ( positions != null ) {
+        candidates.or( positions );
+      }
+    }
+    List<String> cdaPaths = new ArrayList<String>();
+    for ( int i = candidates.nextSetBit( 0 ); i >= 0; i = candidates.nextSetBit( i + 1 ) ) {
+      AutoInclude autoInclude = autoIncludes.get( i );
+      if ( autoInclude.canInclude( dashboardPath ) ) {
+        cdaPaths.add( autoInclude.getCdaPath() );
+      }
+    }
+    return cdaPaths;
+  }
+
+  private static List<String> getIncludePrefixes( AutoInclude autoInclude ) {
+    List<DashboardMatchRule> rules = autoInclude.getDashboardRules();
+    if ( rules == null ) {
+      // nothing known about it, always evaluate
+      return Collections.singletonList( "" );
+    }
+    List<String> prefixes = new ArrayList<String>();
+    for ( DashboardMatchRule rule : rules ) {
+      if ( rule.getMode() == DashboardMatchRule.Mode.INCLUDE ) {
+        prefixes.add( getLiteralPrefix( rule.getRegex().pattern() ) );
+      }
+    }
+    return prefixes;
+  }
+
+  /**
+   * @return text every match of the regex starts with, may be empty
+   */
+  static String getLiteralPrefix( String regex ) {
+    if ( regex.indexOf( '|' ) >= 0 ) {
+      // alternatives may not share a prefix
+      return "";
+    }
+    StringBuilder prefix = new StringBuilder();
+    int i = 0;
+    while ( i < regex.length() ) {
+      char c = regex.charAt( i );
+      if ( regex.startsWith( "\\Q", i ) ) {
+        int end = regex.indexOf( "\\E", i + 2 );
+        if ( end < 0 ) {
+          prefix.append( regex.substring( i + 2 ) );
+          break;
+        }
+        String quoted = regex.substring( i + 2, end );
+        i = end + 2;
+        if ( isQuantifier( regex, i ) ) {
+          // quantifier only applies to the last quoted char
+          prefix.append( quoted, 0, Math.max( 0, quoted.length() - 1 ) );
+          break;
+        }
+        prefix.append( quoted );
+      } else if ( c == '\\' && i + 1 < regex.length() && !Character.isLetterOrDigit( regex.charAt( i + 1 ) ) ) {
+        // escaped meta char
+        if ( isQuantifier( regex, i + 2 ) ) {
+          break;
+        }
+        prefix.append( regex.charAt( i + 1 ) );
+        i += 2;
+      } else if ( REGEX_META.indexOf( c ) >= 0 || c == '\\' ) {
+        break;
+      } else {
+        if ( isQuantifier( regex, i + 1 ) ) {
+          break;
+        }
+        prefix.append( c );
+        i++;
+      }
+    }
+    return prefix.toString();
+  }
+
+  private static boolean isQuantifier( String regex, int index ) {
+    if ( index >= regex.length() ) {
+      return false;
+    }
+    char c = regex.charAt( index );
+    return c == '?' || c == '*' || c == '+' || c == '{';
+  }
+}
@@ -70,6 +70,14 @@ class DashboardMatchRule {
     }
   }
 
+  Mode getMode() {
+    return mode;
+  }
+
+  Pattern getRegex() {
+    return regex;
+  }
+
   private static Mode parseMode( String nodeName ) {
     if ( nodeName.equals( "include" ) ) {
       return Mode.INCLUDE;
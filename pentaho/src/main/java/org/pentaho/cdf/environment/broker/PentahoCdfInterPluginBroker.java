@@ -16,10 +16,22 @@ package org.pentaho.cdf.environment.broker;
 import java.io.StringReader;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -30,6 +42,12 @@ import org.dom4j.Node;
 import org.dom4j.io.SAXReader;
 import org.json.JSONObject;
 import org.json.JSONException;
+import org.pentaho.cdf.CdfConstants;
+import org.pentaho.cdf.environment.CdfEngine;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 import pt.webdetails.cpf.InterPluginCall;
 import pt.webdetails.cpf.utils.XmlParserFactoryProducer;
@@ -39,6 +57,14 @@ public class PentahoCdfInterPluginBroker implements ICdfInterPluginBroker {
   private static final Log logger = LogFactory.getLog( PentahoCdfInterPluginBroker.class );
   private static PentahoCdfInterPluginBroker instance;
 
+  private static final int DEFAULT_QUERY_THREADS = 4;
+  private static final long DEFAULT_QUERY_TIMEOUT = 30000L;
+  // queued queries beyond this run in the calling thread
+  private static final int QUERY_QUEUE_SIZE = 256;
+
+  private ExecutorService queryExecutor;
+  private final Map<String, CdaQueryList> cdaQueries = new ConcurrentHashMap<String, CdaQueryList>();
+
   public static PentahoCdfInterPluginBroker getInstance() {
     if ( instance == null ) {
       instance = new PentahoCdfInterPluginBroker();
@@ -46,20 +72,88 @@ public class PentahoCdfInterPluginBroker implements ICdfInterPluginBroker {
     return instance;
   }
 
+  /**
+   * Stops the query threads, called when the plugin is unloaded.
+   */
+  public static void shutdown() {
+    PentahoCdfInterPluginBroker broker = instance;
+    if ( broker != null ) {
+      broker.stopQueryExecutor();
+    }
+  }
+
   @Override
   public void addCdaQueries( JSONObject queries, String cdaPath ) {
-    List<String> dataAccessIds = listCdaQueries( cdaPath );
-    // String idPattern = (String) cda.selectObject("string(ids)");
-    if ( logger.isDebugEnabled() ) {
-      logger.debug( String.format( "data access ids for %s:( %s )", cdaPath, StringUtils.join(
-          dataAccessIds.iterator(), ", " ) ) );
+    addCdaQueries( queries, Collections.singletonList( cdaPath ) );
+  }
+
+  @Override
+  public void addCdaQueries( JSONObject queries, List<String> cdaPaths ) {
+    final IPentahoSession session = PentahoSessionHolder.getSession();
+    final SecurityContext securityContext = SecurityContextHolder.getContext();
+    final Thread requestThread = Thread.currentThread();
+
+    // queries all start right away, results are then added in the same order as if executed one by one
+    List<String> ids = new ArrayList<String>();
+    List<Future<String>> replies = new ArrayList<Future<String>>();
+    for ( final String cdaPath : cdaPaths ) {
+      List<String> dataAccessIds = getCdaQueries( cdaPath );
+      if ( dataAccessIds == null ) {
+        logger.error( "Unable to list queries in " + cdaPath );
+        continue;
+      }
+      if ( logger.isDebugEnabled() ) {
+        logger.debug( String.format( "data access ids for %s:( %s )", cdaPath, StringUtils.join(
+            dataAccessIds.iterator(), ", " ) ) );
+      }
+      for ( final String id : dataAccessIds ) {
+        ids.add( id );
+        replies.add( getQueryExecutor().submit( new Callable<String>() {
+          @Override
+          public String call() throws Exception {
+            // also runs in the request thread when the executor is full
+            boolean worker = Thread.currentThread() != requestThread;
+            if ( worker ) {
+              PentahoSessionHolder.setSession( session );
+              SecurityContextHolder.setContext( securityContext );
+            }
+            try {
+              return executeCdaQuery( cdaPath, id );
+            } finally {
+              if ( worker ) {
+                PentahoSessionHolder.removeSessionHolder();
+                SecurityContextHolder.clearContext();
+              }
+            }
+          }
+        } ) );
+      }
     }
-    for ( String id : dataAccessIds ) {
-      String reply = executeCdaQuery( cdaPath, id );
+
+    long deadline = System.currentTimeMillis() + getQueryTimeout();
+    for ( int i = 0; i < ids.size(); i++ ) {
+      String id = ids.get( i );
+      Future<String> reply = replies.get( i );
       try {
-        queries.put( id, new JSONObject( reply ) );
+        String result = reply.get( Math.max( 0L, deadline - System.currentTimeMillis() ), TimeUnit.MILLISECONDS );
+        if ( result == null ) {
+          logger.error( "Failed to add query " + id + " to contex object, no result" );
+          continue;
+        }
+        queries.put( id, new JSONObject( result ) );
       } catch ( JSONException e ) {
         logger.error( "Failed to add query " + id + " to contex object" );
+      } catch ( ExecutionException e ) {
+        logger.error( "Failed to execute query " + id, e.getCause() );
+      } catch ( TimeoutException e ) {
+        reply.cancel( true );
+        logger.error( "Query " + id + " didn't finish in " + getQueryTimeout() + "ms, not added to context object" );
+      } catch ( InterruptedException e ) {
+        for ( int j = i; j < replies.size(); j++ ) {
+          replies.get( j ).cancel( true );
+        }
+        Thread.currentThread().interrupt();
+        return;
       }
     }
   }
@@ -100,4 +194,75 @@ public class PentahoCdfInterPluginBroker implements ICdfInterPluginBroker {
     }
     return queryOutput;
   }
+
+  /**
+   * Same as {@link #listCdaQueries(String)}, only asking CDA again when the cda file changes.
+   */
+  protected List<String> getCdaQueries( String cda ) {
+    long version = getCdaVersion( cda );
+    CdaQueryList cached = cdaQueries.get( cda );
+    if ( cached != null && cached.version == version ) {
+      return cached.ids;
+    }
+    List<String> ids = listCdaQueries( cda );
+    if ( ids != null ) {
+      cdaQueries.put( cda, new CdaQueryList( version, Collections.unmodifiableList( ids ) ) );
+    }
+    return ids;
+  }
+
+  protected long getCdaVersion( String cda ) {
+    return CdfEngine.getUserContentReader( null ).getLastModified( cda );
+  }
+
+  protected long getQueryTimeout() {
+    return getSetting( CdfConstants.PLUGIN_SETTINGS_AUTOINCLUDE_TIMEOUT, DEFAULT_QUERY_TIMEOUT );
+  }
+
+  protected synchronized ExecutorService getQueryExecutor() {
+    if ( queryExecutor == null ) {
+      int threads = (int) getSetting( CdfConstants.PLUGIN_SETTINGS_AUTOINCLUDE_THREADS, DEFAULT_QUERY_THREADS );
+      ThreadPoolExecutor executor = new ThreadPoolExecutor( threads, threads, 60L, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<Runnable>( QUERY_QUEUE_SIZE ), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread( Runnable r ) {
+              Thread thread = new Thread( r, "cdf-autoinclude-" + count.incrementAndGet() );
+              thread.setDaemon( true );
+              return thread;
+            }
+          }, new ThreadPoolExecutor.CallerRunsPolicy() );
+      executor.allowCoreThreadTimeOut( true );
+      queryExecutor = executor;
+    }
+    return queryExecutor;
+  }
+
+  protected synchronized void stopQueryExecutor() {
+    if ( queryExecutor != null ) {
+      queryExecutor.shutdownNow();
+      queryExecutor = null;
+    }
+  }
+
+  private long getSetting( String key, long defaultValue ) {
+    try {
+      String value = CdfEngine.getEnvironment().getResourceLoader().getPluginSetting( getClass(), key );
+      return StringUtils.isEmpty( value ) ? defaultValue : Long.parseLong( value.trim() );
+    } catch ( Exception e ) {
+      logger.error( "Invalid value for " + key + ", using " + defaultValue );
+      return defaultValue;
+    }
+  }
+
+  private static class CdaQueryList {
+    private final long version;
+    private final List<String> ids;
+
+    CdaQueryList( long version, List<String> ids ) {
+      this.version = version;
+      this.ids = ids;
+    }
+  }
 }
@@ -0,0 +1,160 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+package org.pentaho.cdf.export;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes CSV rows through a reusable buffer.<br>
+ * Numbers are written as they are, other values are quoted with inner quotes doubled, as in RFC 4180.
+ * A <code>null</code> value ends its row.
+ */
+public class CsvWriter {
+
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final char QUOTE = '"';
+  private static final char SEPARATOR = ',';
+  private static final char NEW_LINE = '\n';
+
+  private final Writer out;
+  private final char[] buffer;
+  private int position;
+
+  public CsvWriter( Writer out ) {
+    this( out, BUFFER_SIZE );
+  }
+
+  public CsvWriter( Writer out, int bufferSize ) {
+    this.out = out;
+    this.buffer = new char[ bufferSize ];
+  }
+
+  public void writeRow( String[] row ) throws IOException {
+    for ( int i = 0; i < row.length; i++ ) {
+      String value = row[ i ];
+      if ( value == null ) {
+        break;
+      }
+      if ( isNumber( value ) ) {
+        write( value );
+      } else {
+        writeQuoted( value );
+      }
+      if ( i + 1 < row.length ) {
+        write( SEPARATOR );
+      }
+    }
+    write( NEW_LINE );
+  }
+
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  public void close() throws IOException {
+    try {
+      flushBuffer();
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Decimal numbers with optional sign, fraction and exponent, like <code>-1</code>, <code>.5</code> or
+   * <code>1.2E-3</code>. Unlike {@link Double#parseDouble(String)} no exception is thrown for other values.
+   */
+  public static boolean isNumber( String value ) {
+    int length = value.length();
+    int i = 0;
+    if ( i < length && ( value.charAt( i ) == '-' || value.charAt( i ) == '+' ) ) {
+      i++;
+    }
+    int digits = 0;
+    while ( i < length && isDigit( value.charAt( i ) ) ) {
+      i++;
+      digits++;
+    }
+    if ( i < length && value.charAt( i ) == '.' ) {
+      i++;
+      while ( i < length && isDigit( value.charAt( i ) ) ) {
+        i++;
+        digits++;
+      }
+    }
+    if ( digits == 0 ) {
+      return false;
+    }
+    if ( i < length && ( value.charAt( i ) == 'e' || value.charAt( i ) == 'E' ) ) {
+      i++;
+      if ( i < length && ( value.charAt( i ) == '-' || value.charAt( i ) == '+' ) ) {
+        i++;
+      }
+      int exponentDigits = 0;
+      while ( i < length && isDigit( value.charAt( i ) ) ) {
+        i++;
+        exponentDigits++;
+      }
+      if ( exponentDigits == 0 ) {
+        return false;
+      }
+    }
+    return i == length;
+  }
+
+  private static boolean isDigit( char c ) {
+    return c >= '0' && c <= '9';
+  }
+
+  private void writeQuoted( String value ) throws IOException {
+    write( QUOTE );
+    int length = value.length();
+    for ( int i = 0; i < length; i++ ) {
+      char c = value.charAt( i );
+      if ( c == QUOTE ) {
+        write( QUOTE );
+      }
+      write( c );
+    }
+    write( QUOTE );
+  }
+
+  private void write( String value ) throws IOException {
+    int length = value.length();
+    if ( length > buffer.length - position ) {
+      flushBuffer();
+      if ( length > buffer.length ) {
+        out.write( value );
+        return;
+      }
+    }
+    value.getChars( 0, length, buffer, position );
+    position += length;
+  }
+
+  private void write( char c ) throws IOException {
+    if ( position == buffer.length ) {
+      flushBuffer();
+    }
+    buffer[ position++ ] = c;
+  }
+
+  private void flushBuffer() throws IOException {
+    if ( position > 0 ) {
+      out.write( buffer, 0, position );
+      position = 0;
+    }
+  }
+}
@@ -15,6 +15,7 @@ package org.pentaho.cdf.export;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.Reader;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -74,6 +75,56 @@ public abstract class Export extends PentahoBase implements IExport {
     }
   }
 
+  /**
+   * Exports a JSON result set read from a stream, without keeping its rows in memory.
+   *
+   * @throws IOException if the result set can't be read or written, the output is then incomplete
+   * @see JsonExportRows
+   */
+  public void exportFile( Reader resultSet ) throws IOException {
+    exportRows( new JsonExportRows( resultSet ) );
+  }
+
+  /**
+   * Writes each row as soon as it is read, {@link #export(IExportRows)} logs the failures instead.
+   */
+  protected abstract void exportRows( IExportRows rows ) throws IOException;
+
+  /**
+   * Rows are exported as given, a <code>null</code> cell ends its row. Column names are unknown, exports that keep
+   * the header apart take the first row as values.
+   */
+  public void export( final String[][] resultSet ) {
+    export( new IExportRows() {
+      private int next = 0;
+
+      @Override
+      public String[] nextRow() {
+        return next < resultSet.length ? resultSet[ next++ ] : null;
+      }
+
+      @Override
+      public boolean isNull( int column ) {
+        return false;
+      }
+
+      @Override
+      public String[] getColumnNames() {
+        return null;
+      }
+
+      @Override
+      public String[] getColumnTypes() {
+        return null;
+      }
+
+      @Override
+      public boolean isEmpty() {
+        return false;
+      }
+    } );
+  }
+
   public boolean isDouble( String obj ) {
     try {
       Double.parseDouble( obj );
@@ -13,9 +13,11 @@
 
 package org.pentaho.cdf.export;
 
+import static pt.webdetails.cpf.utils.MimeTypes.CSV;
+
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
 
 import org.pentaho.cdf.Messages;
 
@@ -28,43 +30,37 @@ public class ExportCSV extends Export implements IExport {
     super( out );
   }
 
-  public void export( String[][] resultSet ) {
+  public void export( IExportRows rows ) {
+    try {
+      exportRows( rows );
+    } catch ( Exception e ) {
+      logger.error( Messages.getErrorString( "CdfExportCSV.ERROR_0001_BUILDING_CSV" ) );
+    }
+  }
 
-    PrintWriter pw = new PrintWriter( outputStream );
+  protected void exportRows( IExportRows rows ) throws IOException {
+
+    CsvWriter csv = new CsvWriter( new OutputStreamWriter( outputStream ) );
 
     try {
 
-      for ( int i = 0; i < resultSet.length; i++ ) {
-        String[] vs = resultSet[ i ];
-        for ( int j = 0; j < vs.length; j++ ) {
-          String value = vs[ j ];
-          if ( value == null ) {
-            break;
-          }
-          //pw.append(isDouble(value) ? new Double(value).toString(): vs[j]);
-          if ( isDouble( value ) ) {
-            pw.append( new Double( value ).toString() );
-          } else {
-            String aux = value.replaceAll( "\"", "\\\\\"" );
-            pw.append( '\"' + aux + '\"' );
-          }
-          if ( j + 1 < vs.length ) {
-            pw.append( ',' );
-          }
-        }
-        pw.append( '\n' );
+      String[] vs;
+      while ( ( vs = rows.nextRow() ) != null ) {
+        csv.writeRow( vs );
       }
 
-      pw.flush();
+      csv.flush();
 
-    } catch ( Exception e ) {
-      logger.error( Messages.getErrorString( "CdfExportCSV.ERROR_0001_BUILDING_CSV" ) );
     } finally {
-      pw.close();
+      csv.close();
     }
   }
 
   public String getExtension() {
     return extensionFile;
   }
+
+  public String getMimeType() {
+    return CSV;
+  }
 }
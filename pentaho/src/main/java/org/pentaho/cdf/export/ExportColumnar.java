@@ -0,0 +1,379 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+package org.pentaho.cdf.export;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pentaho.cdf.Messages;
+
+/**
+ * Typed columnar binary export, for tools loading results programmatically rather than parsing text.<br>
+ * Rows are written in batches, each holding the values of one column after the other. Strings are dictionary
+ * encoded, numbers are written as primitive arrays. Column names and types come from the result set metadata,
+ * columns without a type are strings. Without metadata the columns are those of the first row, unnamed strings.
+ * An empty result set has no batches. Values a typed column can't hold fail the export. Multi byte values are big
+ * endian.
+ *
+ * <pre>
+ * file:    "CDFC" version:u8 columns:i32 column* batch* 0:i32
+ * column:  name:string type:u8               0 string, 1 integer, 2 numeric, 3 boolean
+ * batch:   rows:i32 values*                  one per column, in order
+ * values:  present:u8[(rows + 7) / 8]        bit set for non null values, lowest bit first
+ *          string:  reset:u8 entries:i32 string* index:i32[rows]
+ *          integer: i64[rows]
+ *          numeric: f64[rows]
+ *          boolean: u8[(rows + 7) / 8]
+ * string:  length:i32 utf-8 bytes
+ * </pre>
+ * A string column dictionary grows with the entries of each batch, indexes refer to it. When reset is set it is
+ * emptied before the batch entries are added. Null values are written as 0.
+ */
+@SuppressWarnings( "serial" )
+public class ExportColumnar extends Export implements IExport {
+
+  public static final String extensionFile = ".cdfc";
+  public static final String MIME_TYPE = "application/octet-stream";
+
+  static final byte[] MAGIC = { 'C', 'D', 'F', 'C' };
+  static final int VERSION = 1;
+  static final int BATCH_SIZE = 4096;
+  // dictionaries are emptied past this size, so memory use stays bounded
+  static final int MAX_DICTIONARY_SIZE = 65536;
+
+  static final byte TYPE_STRING = 0;
+  static final byte TYPE_INTEGER = 1;
+  static final byte TYPE_NUMERIC = 2;
+  static final byte TYPE_BOOLEAN = 3;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final String ENCODING = "UTF-8";
+  // longer integers may not fit a long
+  private static final int MAX_INTEGER_DIGITS = 18;
+
+  public ExportColumnar( final OutputStream out ) throws IOException {
+    super( out );
+  }
+
+  public void export( IExportRows rows ) {
+    try {
+      exportRows( rows );
+    } catch ( Exception e ) {
+      logger.error( Messages.getErrorString( "CdfExportColumnar.ERROR_0001_BUILDING_COLUMNAR" ) );
+    }
+  }
+
+  protected void exportRows( IExportRows rows ) throws IOException {
+
+    DataOutputStream out = new DataOutputStream( new BufferedOutputStream( outputStream, BUFFER_SIZE ) );
+
+    try {
+
+      String[] row = rows.nextRow();
+      String[] names = rows.getColumnNames();
+      if ( rows.isEmpty() ) {
+        // a no results message, not values
+        row = null;
+      } else if ( names != null ) {
+        // header, values start after it
+        row = rows.nextRow();
+      } else if ( row != null ) {
+        names = new String[ row.length ];
+      }
+      if ( names == null ) {
+        names = new String[ 0 ];
+      }
+      Column[] columns = getColumns( names, rows.getColumnTypes() );
+
+      out.write( MAGIC );
+      out.writeByte( VERSION );
+      out.writeInt( columns.length );
+      for ( int j = 0; j < columns.length; j++ ) {
+        writeString( out, names[ j ] == null ? "" : names[ j ] );
+        out.writeByte( columns[ j ].type );
+      }
+
+      String[][] batch = new String[ BATCH_SIZE ][];
+      int[] lengths = new int[ BATCH_SIZE ];
+      int size = 0;
+      while ( row != null ) {
+        lengths[ size ] = getLength( row );
+        batch[ size ] = getValues( row, lengths[ size ], rows );
+        size++;
+        if ( size == BATCH_SIZE ) {
+          writeBatch( out, columns, batch, lengths, size );
+          size = 0;
+        }
+        row = rows.nextRow();
+      }
+      if ( size > 0 ) {
+        writeBatch( out, columns, batch, lengths, size );
+      }
+      out.writeInt( 0 );
+
+      out.flush();
+
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * @param typeName result set column type, as in CDA metadata
+   * @return column encoding, string if unknown
+   */
+  static byte getType( String typeName ) {
+    if ( typeName == null ) {
+      return TYPE_STRING;
+    }
+    String name = typeName.trim().toLowerCase();
+    if ( "integer".equals( name ) || "long".equals( name ) || "int".equals( name ) || "short".equals( name ) ) {
+      return TYPE_INTEGER;
+    } else if ( "numeric".equals( name ) || "double".equals( name ) || "float".equals( name )
+        || "bigdecimal".equals( name ) || "number".equals( name ) ) {
+      return TYPE_NUMERIC;
+    } else if ( "boolean".equals( name ) ) {
+      return TYPE_BOOLEAN;
+    }
+    return TYPE_STRING;
+  }
+
+  private static Column[] getColumns( String[] names, String[] typeNames ) {
+    Column[] columns = new Column[ names.length ];
+    for ( int j = 0; j < columns.length; j++ ) {
+      byte type = getType( typeNames != null && j < typeNames.length ? typeNames[ j ] : null );
+      columns[ j ] = new Column( names[ j ] == null ? String.valueOf( j ) : names[ j ], type );
+    }
+    return columns;
+  }
+
+  /**
+   * @return cells before the first <code>null</code> one, which ends its row
+   */
+  private static int getLength( String[] row ) {
+    int length = 0;
+    while ( length < row.length && row[ length ] != null ) {
+      length++;
+    }
+    return length;
+  }
+
+  /**
+   * @return row cells, <code>null</code> for those without a value
+   */
+  private static String[] getValues( String[] row, int length, IExportRows rows ) {
+    String[] values = row;
+    for ( int j = 0; j < length; j++ ) {
+      if ( rows.isNull( j ) ) {
+        if ( values == row ) {
+          values = row.clone();
+        }
+        values[ j ] = null;
+      }
+    }
+    return values;
+  }
+
+  private static void writeBatch( DataOutputStream out, Column[] columns, String[][] batch, int[] lengths, int size )
+    throws IOException {
+    out.writeInt( size );
+    for ( int j = 0; j < columns.length; j++ ) {
+      Column column = columns[ j ];
+      Arrays.fill( column.present, (byte) 0 );
+      switch ( column.type ) {
+        case TYPE_INTEGER:
+          writeIntegers( out, column, batch, lengths, j, size );
+          break;
+        case TYPE_NUMERIC:
+          writeNumbers( out, column, batch, lengths, j, size );
+          break;
+        case TYPE_BOOLEAN:
+          writeBooleans( out, column, batch, lengths, j, size );
+          break;
+        default:
+          writeStrings( out, column, batch, lengths, j, size );
+      }
+    }
+  }
+
+  private static void writeStrings( DataOutputStream out, Column column, String[][] batch, int[] lengths, int j,
+                                    int size ) throws IOException {
+    boolean reset = column.dictionary.size() > MAX_DICTIONARY_SIZE;
+    if ( reset ) {
+      column.dictionary.clear();
+    }
+    List<String> entries = new ArrayList<String>();
+    for ( int i = 0; i < size; i++ ) {
+      int index = 0;
+      String value = j < lengths[ i ] ? batch[ i ][ j ] : null;
+      if ( value != null ) {
+        Integer entry = column.dictionary.get( value );
+        if ( entry == null ) {
+          entry = column.dictionary.size();
+          column.dictionary.put( value, entry );
+          entries.add( value );
+        }
+        index = entry;
+        setBit( column.present, i );
+      }
+      column.indexes[ i ] = index;
+    }
+
+    out.write( column.present, 0, bitsLength( size ) );
+    out.writeByte( reset ? 1 : 0 );
+    out.writeInt( entries.size() );
+    for ( String entry : entries ) {
+      writeString( out, entry );
+    }
+    for ( int i = 0; i < size; i++ ) {
+      out.writeInt( column.indexes[ i ] );
+    }
+  }
+
+  private static void writeIntegers( DataOutputStream out, Column column, String[][] batch, int[] lengths, int j,
+                                     int size ) throws IOException {
+    for ( int i = 0; i < size; i++ ) {
+      long value = 0;
+      String text = j < lengths[ i ] ? batch[ i ][ j ] : null;
+      if ( text != null ) {
+        if ( isInteger( text ) ) {
+          value = Long.parseLong( text );
+        } else if ( CsvWriter.isNumber( text ) ) {
+          value = (long) Double.parseDouble( text );
+        } else {
+          throw invalidValue( column, text );
+        }
+        setBit( column.present, i );
+      }
+      column.longs[ i ] = value;
+    }
+
+    out.write( column.present, 0, bitsLength( size ) );
+    for ( int i = 0; i < size; i++ ) {
+      out.writeLong( column.longs[ i ] );
+    }
+  }
+
+  private static void writeNumbers( DataOutputStream out, Column column, String[][] batch, int[] lengths, int j,
+                                    int size ) throws IOException {
+    for ( int i = 0; i < size; i++ ) {
+      double value = 0;
+      String text = j < lengths[ i ] ? batch[ i ][ j ] : null;
+      if ( text != null ) {
+        if ( !CsvWriter.isNumber( text ) ) {
+          throw invalidValue( column, text );
+        }
+        value = Double.parseDouble( text );
+        setBit( column.present, i );
+      }
+      column.doubles[ i ] = value;
+    }
+
+    out.write( column.present, 0, bitsLength( size ) );
+    for ( int i = 0; i < size; i++ ) {
+      out.writeDouble( column.doubles[ i ] );
+    }
+  }
+
+  private static void writeBooleans( DataOutputStream out, Column column, String[][] batch, int[] lengths, int j,
+                                     int size ) throws IOException {
+    byte[] values = new byte[ bitsLength( size ) ];
+    for ( int i = 0; i < size; i++ ) {
+      String text = j < lengths[ i ] ? batch[ i ][ j ] : null;
+      if ( text != null ) {
+        if ( "true".equalsIgnoreCase( text ) ) {
+          setBit( values, i );
+        } else if ( !"false".equalsIgnoreCase( text ) ) {
+          throw invalidValue( column, text );
+        }
+        setBit( column.present, i );
+      }
+    }
+
+    out.write( column.present, 0, values.length );
+    out.write( values );
+  }
+
+  /**
+   * @return if an optionally signed sequence of digits that fits a long
+   */
+  static boolean isInteger( String value ) {
+    int length = value.length();
+    int start = length > 0 && ( value.charAt( 0 ) == '-' || value.charAt( 0 ) == '+' ) ? 1 : 0;
+    if ( length == start || length - start > MAX_INTEGER_DIGITS ) {
+      return false;
+    }
+    for ( int i = start; i < length; i++ ) {
+      char c = value.charAt( i );
+      if ( c < '0' || c > '9' ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void writeString( DataOutputStream out, String value ) throws IOException {
+    byte[] bytes = value.getBytes( ENCODING );
+    out.writeInt( bytes.length );
+    out.write( bytes );
+  }
+
+  private static IOException invalidValue( Column column, String value ) {
+    return new IOException( "Invalid value '" + value + "' in column " + column.name );
+  }
+
+  private static int bitsLength( int size ) {
+    return ( size + 7 ) / 8;
+  }
+
+  private static void setBit( byte[] bits, int i ) {
+    bits[ i >> 3 ] |= 1 << ( i & 7 );
+  }
+
+  public String getExtension() {
+    return extensionFile;
+  }
+
+  public String getMimeType() {
+    return MIME_TYPE;
+  }
+
+  /**
+   * Encoding state of a column, arrays are reused by every batch.
+   */
+  private static class Column {
+    private final String name;
+    private final byte type;
+    private final byte[] present = new byte[ ( BATCH_SIZE + 7 ) / 8 ];
+    private final Map<String, Integer> dictionary;
+    private final int[] indexes;
+    private final long[] longs;
+    private final double[] doubles;
+
+    Column( String name, byte type ) {
+      this.name = name;
+      this.type = type;
+      this.dictionary = type == TYPE_STRING ? new HashMap<String, Integer>() : null;
+      this.indexes = type == TYPE_STRING ? new int[ BATCH_SIZE ] : null;
+      this.longs = type == TYPE_INTEGER ? new long[ BATCH_SIZE ] : null;
+      this.doubles = type == TYPE_NUMERIC ? new double[ BATCH_SIZE ] : null;
+    }
+  }
+}
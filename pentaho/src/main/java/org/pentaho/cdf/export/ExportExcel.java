@@ -13,6 +13,8 @@
 
 package org.pentaho.cdf.export;
 
+import static pt.webdetails.cpf.utils.MimeTypes.XLS;
+
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -43,23 +45,45 @@ public class ExportExcel extends Export implements IExport {
     super( out );
   }
 
-  public void export( String[][] resultSet ) {
+  /**
+   * Rows are kept by the workbook until all are read, xls files are written whole.
+   */
+  public void export( IExportRows rows ) {
+    try {
+      writeWorkbook( rows );
+    } catch ( IOException e ) {
+      logger.error( Messages.getErrorString( "CdfExportExcel.ERROR_0001_OPENING_CLOSING_EXCEL" ) );
+    } catch ( WriteException e ) {
+      logger.error( Messages.getErrorString( "CdfExportExcel.ERROR_0002_WRITING_EXCEL" ) );
+    } catch ( Exception e ) {
+      logger.error( Messages.getErrorString( "CdfExportExcel.ERROR_0003_BUILDING_EXCEL" ) );
+    }
+  }
 
-    WritableWorkbook wb = null;
+  protected void exportRows( IExportRows rows ) throws IOException {
+    try {
+      writeWorkbook( rows );
+    } catch ( WriteException e ) {
+      throw new IOException( Messages.getErrorString( "CdfExportExcel.ERROR_0002_WRITING_EXCEL" ), e );
+    }
+  }
+
+  private void writeWorkbook( IExportRows rows ) throws IOException, WriteException {
+
+    WritableWorkbook wb = Workbook.createWorkbook( outputStream );
 
     try {
 
-      wb = Workbook.createWorkbook( outputStream );
       WritableSheet sheet = wb.createSheet( "Sheet", 0 );
       setCellsStyles();
       WritableCellFormat cf;
 
-      if ( resultSet.length > 0 ) {
+      String[] vs = rows.nextRow();
+      if ( vs != null ) {
 
-        boolean swapRows = resultSet[ 0 ].length > 256 ? true : false;
+        boolean swapRows = vs.length > 256 ? true : false;
 
-        for ( int i = 0; i < resultSet.length; i++ ) {
-          String[] vs = resultSet[ i ];
+        for ( int i = 0; vs != null; i++, vs = rows.nextRow() ) {
           for ( int j = 0; j < vs.length; j++ ) {
             cf = i == 0 ? hcs : j != 0 ? cs : ( i % 2 != 0 ? hcs : rcs );
             String value = vs[ j ];
@@ -79,18 +103,8 @@ public class ExportExcel extends Export implements IExport {
 
       wb.write();
 
-    } catch ( IOException e ) {
-      logger.error( Messages.getErrorString( "CdfExportExcel.ERROR_0001_OPENING_CLOSING_EXCEL" ) );
-    } catch ( WriteException e ) {
-      logger.error( Messages.getErrorString( "CdfExportExcel.ERROR_0002_WRITING_EXCEL" ) );
-    } catch ( Exception e ) {
-      logger.error( Messages.getErrorString( "CdfExportExcel.ERROR_0003_BUILDING_EXCEL" ) );
     } finally {
-      try {
-        wb.close();
-      } catch ( Exception e ) {
-        logger.error( Messages.getErrorString( "CdfExportExcel.ERROR_0001_OPENING_CLOSING_EXCEL" ) );
-      }
+      wb.close();
     }
   }
 
@@ -118,4 +132,8 @@ public class ExportExcel extends Export implements IExport {
   public String getExtension() {
     return extensionFile;
   }
+
+  public String getMimeType() {
+    return XLS;
+  }
 }
@@ -0,0 +1,128 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+package org.pentaho.cdf.export;
+
+import java.io.File;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * An export running in the background, its result is kept in a temporary file until downloaded or expired.
+ */
+public class ExportJob {
+
+  public static enum Status {
+    QUEUED, RUNNING, DONE, FAILED
+  }
+
+  private final String id;
+  private final String owner;
+  private final boolean gzip;
+  private final long created;
+
+  private volatile Status status = Status.QUEUED;
+  private volatile File file;
+  private volatile String extension;
+  private volatile String mimeType;
+  private volatile String error;
+  private volatile long finished;
+
+  public ExportJob( String id, String owner, boolean gzip ) {
+    this.id = id;
+    this.owner = owner;
+    this.gzip = gzip;
+    this.created = System.currentTimeMillis();
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getOwner() {
+    return owner;
+  }
+
+  /**
+   * @return if the result file is gzipped
+   */
+  public boolean isGzip() {
+    return gzip;
+  }
+
+  public long getCreated() {
+    return created;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  /**
+   * @return result file, only once {@link Status#DONE}
+   */
+  public File getFile() {
+    return file;
+  }
+
+  public String getExtension() {
+    return extension;
+  }
+
+  public String getMimeType() {
+    return mimeType;
+  }
+
+  public String getError() {
+    return error;
+  }
+
+  /**
+   * @return when the job ended, 0 while queued or running
+   */
+  public long getFinished() {
+    return finished;
+  }
+
+  public boolean isFinished() {
+    return status == Status.DONE || status == Status.FAILED;
+  }
+
+  void running() {
+    status = Status.RUNNING;
+  }
+
+  void done( File file, IExport export ) {
+    this.file = file;
+    this.extension = export.getExtension();
+    this.mimeType = export.getMimeType();
+    this.finished = System.currentTimeMillis();
+    this.status = Status.DONE;
+  }
+
+  void failed( String error ) {
+    this.error = error;
+    this.finished = System.currentTimeMillis();
+    this.status = Status.FAILED;
+  }
+
+  public JSONObject toJson() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put( "jobId", id );
+    json.put( "status", status.name() );
+    if ( error != null ) {
+      json.put( "error", error );
+    }
+    return json;
+  }
+}
@@ -0,0 +1,244 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+package org.pentaho.cdf.export;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.cdf.CdfConstants;
+import org.pentaho.cdf.environment.CdfEngine;
+
+/**
+ * Runs exports in the background on a bounded pool, so request threads aren't held while large results are built.
+ * <br>
+ * Each result is written to a temporary file, optionally gzipped, and kept for a retention time after the job ends.
+ * Expired jobs and their files are removed periodically.
+ */
+public class ExportJobs {
+
+  private static final Log logger = LogFactory.getLog( ExportJobs.class );
+
+  static final int DEFAULT_THREADS = 2;
+  static final int DEFAULT_QUEUE_SIZE = 20;
+  // minutes
+  static final int DEFAULT_RETENTION = 60;
+  private static final long CLEANUP_INTERVAL = 60000L;
+  // how long close waits for running exports
+  private static final long CLOSE_TIMEOUT = 10000L;
+  // sent to clients, the cause is only logged
+  static final String FAILED_MESSAGE = "Export failed";
+
+  private static ExportJobs instance;
+
+  private final Map<String, ExportJob> jobs = new ConcurrentHashMap<String, ExportJob>();
+  private final ThreadPoolExecutor executor;
+  private final ScheduledExecutorService cleaner;
+  private final long retention;
+
+  /**
+   * Writes an export to the job result.
+   */
+  public interface Task {
+    /**
+     * @param out result stream, closed once the task returns
+     * @return the export written
+     */
+    IExport run( OutputStream out ) throws Exception;
+  }
+
+  /**
+   * @param threads exports running at the same time
+   * @param queueSize exports waiting for a thread, more are rejected
+   * @param retention milliseconds a result is kept after the job ends
+   */
+  public ExportJobs( int threads, int queueSize, long retention ) {
+    this.retention = retention;
+    this.executor = new ThreadPoolExecutor( threads, threads, 60L, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>( queueSize ), new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          @Override
+          public Thread newThread( Runnable r ) {
+            Thread thread = new Thread( r, "cdf-export-" + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+          }
+        } );
+    this.executor.allowCoreThreadTimeOut( true );
+    this.cleaner = new ScheduledThreadPoolExecutor( 1, new ThreadFactory() {
+      @Override
+      public Thread newThread( Runnable r ) {
+        Thread thread = new Thread( r, "cdf-export-cleanup" );
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+    this.cleaner.scheduleWithFixedDelay( new Runnable() {
+      @Override
+      public void run() {
+        try {
+          cleanup();
+        } catch ( Exception e ) {
+          logger.error( "Unable to remove expired exports", e );
+        }
+      }
+    }, CLEANUP_INTERVAL, CLEANUP_INTERVAL, TimeUnit.MILLISECONDS );
+  }
+
+  public static synchronized ExportJobs getInstance() {
+    if ( instance == null ) {
+      instance = new ExportJobs(
+          getSetting( CdfConstants.PLUGIN_SETTINGS_EXPORT_JOBS_THREADS, DEFAULT_THREADS ),
+          getSetting( CdfConstants.PLUGIN_SETTINGS_EXPORT_JOBS_QUEUE_SIZE, DEFAULT_QUEUE_SIZE ),
+          TimeUnit.MINUTES.toMillis( getSetting( CdfConstants.PLUGIN_SETTINGS_EXPORT_JOBS_RETENTION,
+              DEFAULT_RETENTION ) ) );
+    }
+    return instance;
+  }
+
+  /**
+   * Stops running exports and removes all results, to be called when the plugin is unloaded.
+   */
+  public static synchronized void shutdown() {
+    if ( instance != null ) {
+      instance.close();
+      instance = null;
+    }
+  }
+
+  /**
+   * @param owner user allowed to see the job
+   * @param gzip if the result file is gzipped
+   * @return the queued job
+   * @throws RejectedExecutionException if too many exports are waiting
+   */
+  public ExportJob submit( String owner, boolean gzip, final Task task ) throws RejectedExecutionException {
+    final ExportJob job = new ExportJob( UUID.randomUUID().toString(), owner, gzip );
+    jobs.put( job.getId(), job );
+    try {
+      executor.execute( new Runnable() {
+        @Override
+        public void run() {
+          execute( job, task );
+        }
+      } );
+    } catch ( RejectedExecutionException e ) {
+      jobs.remove( job.getId() );
+      throw e;
+    }
+    return job;
+  }
+
+  /**
+   * @return the job, <code>null</code> if unknown, expired or not owned by the user
+   */
+  public ExportJob get( String id, String owner ) {
+    ExportJob job = id == null ? null : jobs.get( id );
+    return job != null && StringUtils.equals( job.getOwner(), owner ) ? job : null;
+  }
+
+  /**
+   * Removes jobs that ended longer than the retention time ago.
+   */
+  public void cleanup() {
+    long expired = System.currentTimeMillis() - retention;
+    for ( Iterator<ExportJob> it = jobs.values().iterator(); it.hasNext(); ) {
+      ExportJob job = it.next();
+      if ( job.isFinished() && job.getFinished() <= expired ) {
+        it.remove();
+        delete( job );
+      }
+    }
+  }
+
+  public void close() {
+    cleaner.shutdownNow();
+    executor.shutdownNow();
+    try {
+      // exports ignoring the interrupt still end before their files are removed
+      if ( !executor.awaitTermination( CLOSE_TIMEOUT, TimeUnit.MILLISECONDS ) ) {
+        logger.warn( "Exports still running after " + CLOSE_TIMEOUT + " ms" );
+      }
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+    for ( ExportJob job : jobs.values() ) {
+      delete( job );
+    }
+    jobs.clear();
+  }
+
+  private void execute( ExportJob job, Task task ) {
+    job.running();
+    File file = null;
+    OutputStream out = null;
+    try {
+      file = File.createTempFile( "cdf-export-", job.isGzip() ? ".gz" : ".tmp" );
+      out = new BufferedOutputStream( new FileOutputStream( file ) );
+      if ( job.isGzip() ) {
+        out = new GZIPOutputStream( out );
+      }
+      IExport export = task.run( out );
+      out.close();
+      if ( executor.isShutdown() ) {
+        // closed meanwhile, the result would never be removed
+        throw new IOException( "Export jobs closed" );
+      }
+      job.done( file, export );
+    } catch ( Exception e ) {
+      logger.error( "Export " + job.getId() + " failed", e );
+      IOUtils.closeQuietly( out );
+      if ( file != null ) {
+        file.delete();
+      }
+      job.failed( FAILED_MESSAGE );
+    }
+  }
+
+  private static void delete( ExportJob job ) {
+    File file = job.getFile();
+    if ( file != null && file.exists() && !file.delete() ) {
+      logger.warn( "Unable to delete " + file );
+    }
+  }
+
+  private static int getSetting( String key, int defaultValue ) {
+    try {
+      String value = CdfEngine.getEnvironment().getResourceLoader().getPluginSetting( ExportJobs.class, key );
+      return StringUtils.isEmpty( value ) ? defaultValue : Integer.parseInt( value.trim() );
+    } catch ( Exception e ) {
+      logger.error( "Invalid value for " + key + ", using " + defaultValue );
+      return defaultValue;
+    }
+  }
+}
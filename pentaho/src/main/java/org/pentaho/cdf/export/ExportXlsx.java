@@ -0,0 +1,256 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+package org.pentaho.cdf.export;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.pentaho.cdf.Messages;
+
+/**
+ * Office Open XML spreadsheet export.<br>
+ * The sheet XML is written to the zip stream as rows are read, no row is kept after being written, so memory use
+ * doesn't depend on the number of rows. Cells use inline strings and a fixed set of styles shared by all cells, with
+ * the same look as the xls export.
+ */
+@SuppressWarnings( "serial" )
+public class ExportXlsx extends Export implements IExport {
+
+  public static final String extensionFile = ".xlsx";
+  public static final String MIME_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+  static final int MAX_ROWS = 1048576;
+  static final int MAX_COLUMNS = 16384;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final String ENCODING = "UTF-8";
+  private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+  private static final String SPREADSHEET_NS = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+  private static final String RELATIONSHIPS_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+  // indexes in cellXfs
+  private static final int STYLE_CELL = 1;
+  private static final int STYLE_HEADER = 2;
+  private static final int STYLE_ROW_HEADER = 3;
+  private static final int STYLE_NUMBER = 4;
+
+  private static final String CONTENT_TYPES = XML_HEADER
+      + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+      + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+      + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+      + "<Override PartName=\"/xl/workbook.xml\""
+      + " ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+      + "<Override PartName=\"/xl/worksheets/sheet1.xml\""
+      + " ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>"
+      + "<Override PartName=\"/xl/styles.xml\""
+      + " ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>"
+      + "</Types>";
+
+  private static final String ROOT_RELATIONSHIPS = XML_HEADER
+      + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+      + "<Relationship Id=\"rId1\" Type=\"" + RELATIONSHIPS_NS + "/officeDocument\" Target=\"xl/workbook.xml\"/>"
+      + "</Relationships>";
+
+  private static final String WORKBOOK = XML_HEADER
+      + "<workbook xmlns=\"" + SPREADSHEET_NS + "\" xmlns:r=\"" + RELATIONSHIPS_NS + "\">"
+      + "<sheets><sheet name=\"Sheet\" sheetId=\"1\" r:id=\"rId1\"/></sheets>"
+      + "</workbook>";
+
+  private static final String WORKBOOK_RELATIONSHIPS = XML_HEADER
+      + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+      + "<Relationship Id=\"rId1\" Type=\"" + RELATIONSHIPS_NS + "/worksheet\" Target=\"worksheets/sheet1.xml\"/>"
+      + "<Relationship Id=\"rId2\" Type=\"" + RELATIONSHIPS_NS + "/styles\" Target=\"styles.xml\"/>"
+      + "</Relationships>";
+
+  private static final String STYLES = XML_HEADER
+      + "<styleSheet xmlns=\"" + SPREADSHEET_NS + "\">"
+      + "<numFmts count=\"1\"><numFmt numFmtId=\"164\" formatCode=\"###,###,###.###\"/></numFmts>"
+      + "<fonts count=\"1\"><font><sz val=\"10\"/><name val=\"Arial\"/></font></fonts>"
+      + "<fills count=\"4\">"
+      + "<fill><patternFill patternType=\"none\"/></fill>"
+      + "<fill><patternFill patternType=\"gray125\"/></fill>"
+      + "<fill><patternFill patternType=\"solid\"><fgColor rgb=\"FF808080\"/></patternFill></fill>"
+      + "<fill><patternFill patternType=\"solid\"><fgColor rgb=\"FFC0C0C0\"/></patternFill></fill>"
+      + "</fills>"
+      + "<borders count=\"2\">"
+      + "<border><left/><right/><top/><bottom/><diagonal/></border>"
+      + "<border><left style=\"thin\"/><right style=\"thin\"/><top style=\"thin\"/><bottom style=\"thin\"/>"
+      + "<diagonal/></border>"
+      + "</borders>"
+      + "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>"
+      + "<cellXfs count=\"5\">"
+      + "<xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>"
+      + "<xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"1\" xfId=\"0\" applyBorder=\"1\""
+      + " applyAlignment=\"1\"><alignment shrinkToFit=\"1\"/></xf>"
+      + "<xf numFmtId=\"0\" fontId=\"0\" fillId=\"2\" borderId=\"1\" xfId=\"0\" applyFill=\"1\" applyBorder=\"1\""
+      + " applyAlignment=\"1\"><alignment shrinkToFit=\"1\"/></xf>"
+      + "<xf numFmtId=\"0\" fontId=\"0\" fillId=\"3\" borderId=\"1\" xfId=\"0\" applyFill=\"1\" applyBorder=\"1\""
+      + " applyAlignment=\"1\"><alignment shrinkToFit=\"1\"/></xf>"
+      + "<xf numFmtId=\"164\" fontId=\"0\" fillId=\"0\" borderId=\"1\" xfId=\"0\" applyNumberFormat=\"1\""
+      + " applyBorder=\"1\" applyAlignment=\"1\"><alignment shrinkToFit=\"1\"/></xf>"
+      + "</cellXfs>"
+      + "<cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>"
+      + "</styleSheet>";
+
+  private static final String SHEET_START = XML_HEADER
+      + "<worksheet xmlns=\"" + SPREADSHEET_NS + "\"><sheetData>";
+  private static final String SHEET_END = "</sheetData></worksheet>";
+
+  // column references, built as needed
+  private String[] columnNames = new String[ 0 ];
+
+  public ExportXlsx( final OutputStream out ) throws IOException {
+    super( out );
+  }
+
+  public void export( IExportRows rows ) {
+    try {
+      exportRows( rows );
+    } catch ( Exception e ) {
+      logger.error( Messages.getErrorString( "CdfExportXlsx.ERROR_0001_BUILDING_XLSX" ) );
+    }
+  }
+
+  protected void exportRows( IExportRows rows ) throws IOException {
+
+    ZipOutputStream zip = new ZipOutputStream( outputStream );
+
+    try {
+
+      writeEntry( zip, "[Content_Types].xml", CONTENT_TYPES );
+      writeEntry( zip, "_rels/.rels", ROOT_RELATIONSHIPS );
+      writeEntry( zip, "xl/workbook.xml", WORKBOOK );
+      writeEntry( zip, "xl/_rels/workbook.xml.rels", WORKBOOK_RELATIONSHIPS );
+      writeEntry( zip, "xl/styles.xml", STYLES );
+
+      zip.putNextEntry( new ZipEntry( "xl/worksheets/sheet1.xml" ) );
+      Writer sheet = new BufferedWriter( new OutputStreamWriter( zip, ENCODING ), BUFFER_SIZE );
+      sheet.write( SHEET_START );
+
+      String[] vs;
+      for ( int i = 0; ( vs = rows.nextRow() ) != null; i++ ) {
+        if ( i == MAX_ROWS ) {
+          logger.warn( "Export truncated to " + MAX_ROWS + " rows" );
+          break;
+        }
+        writeRow( sheet, i, vs );
+      }
+
+      sheet.write( SHEET_END );
+      sheet.flush();
+      zip.closeEntry();
+      zip.finish();
+
+    } finally {
+      zip.close();
+    }
+  }
+
+  private void writeRow( Writer sheet, int i, String[] vs ) throws IOException {
+    String rowNumber = Integer.toString( i + 1 );
+    sheet.write( "<row r=\"" );
+    sheet.write( rowNumber );
+    sheet.write( "\">" );
+    for ( int j = 0; j < vs.length && j < MAX_COLUMNS; j++ ) {
+      String value = vs[ j ];
+      if ( value == null ) {
+        break;
+      }
+      sheet.write( "<c r=\"" );
+      sheet.write( getColumnName( j ) );
+      sheet.write( rowNumber );
+      if ( CsvWriter.isNumber( value ) ) {
+        sheet.write( "\" s=\"" + STYLE_NUMBER + "\"><v>" );
+        sheet.write( value );
+        sheet.write( "</v></c>" );
+      } else {
+        int style = i == 0 ? STYLE_HEADER : j != 0 ? STYLE_CELL : ( i % 2 != 0 ? STYLE_HEADER : STYLE_ROW_HEADER );
+        sheet.write( "\" s=\"" );
+        sheet.write( Integer.toString( style ) );
+        sheet.write( "\" t=\"inlineStr\"><is><t xml:space=\"preserve\">" );
+        writeEscaped( sheet, value );
+        sheet.write( "</t></is></c>" );
+      }
+    }
+    sheet.write( "</row>" );
+  }
+
+  private String getColumnName( int j ) {
+    if ( j >= columnNames.length ) {
+      String[] names = new String[ Math.min( Math.max( j + 1, columnNames.length * 2 ), MAX_COLUMNS ) ];
+      System.arraycopy( columnNames, 0, names, 0, columnNames.length );
+      for ( int k = columnNames.length; k < names.length; k++ ) {
+        names[ k ] = toColumnName( k );
+      }
+      columnNames = names;
+    }
+    return columnNames[ j ];
+  }
+
+  /**
+   * @return spreadsheet column name of a zero based index, A to Z, then AA and so on
+   */
+  static String toColumnName( int index ) {
+    StringBuilder name = new StringBuilder();
+    for ( int n = index + 1; n > 0; n = ( n - 1 ) / 26 ) {
+      name.insert( 0, (char) ( 'A' + ( n - 1 ) % 26 ) );
+    }
+    return name.toString();
+  }
+
+  /**
+   * Escapes markup and leaves out characters not allowed in XML.
+   */
+  static void writeEscaped( Writer out, String value ) throws IOException {
+    int length = value.length();
+    int start = 0;
+    for ( int i = 0; i < length; i++ ) {
+      char c = value.charAt( i );
+      String replacement;
+      if ( c == '&' ) {
+        replacement = "&amp;";
+      } else if ( c == '<' ) {
+        replacement = "&lt;";
+      } else if ( c == '>' ) {
+        replacement = "&gt;";
+      } else if ( c < 0x20 && c != '\t' && c != '\n' && c != '\r' || c == 0xFFFE || c == 0xFFFF ) {
+        replacement = "";
+      } else {
+        continue;
+      }
+      out.write( value, start, i - start );
+      out.write( replacement );
+      start = i + 1;
+    }
+    out.write( value, start, length - start );
+  }
+
+  private static void writeEntry( ZipOutputStream zip, String name, String content ) throws IOException {
+    zip.putNextEntry( new ZipEntry( name ) );
+    zip.write( content.getBytes( ENCODING ) );
+    zip.closeEntry();
+  }
+
+  public String getExtension() {
+    return extensionFile;
+  }
+
+  public String getMimeType() {
+    return MIME_TYPE;
+  }
+}
@@ -17,10 +17,19 @@ public interface IExport {
 
   public static final String EXPORT_TYPE_EXCEL = "excel";
   public static final String EXPORT_TYPE_CSV = "csv";
+  public static final String EXPORT_TYPE_XLSX = "xlsx";
+  public static final String EXPORT_TYPE_COLUMNAR = "columnar";
 
   public static final String DEFAULT_EXPORT_TYPE = EXPORT_TYPE_EXCEL;
 
   public abstract void export( String[][] resultSet );
 
+  /**
+   * Writes each row as soon as it is read.
+   */
+  public abstract void export( IExportRows rows );
+
   public abstract String getExtension();
+
+  public abstract String getMimeType();
 }
@@ -0,0 +1,53 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.export;
+
+import java.io.IOException;
+
+/**
+ * Rows to export, read one at a time so they don't need to be all in memory.
+ */
+public interface IExportRows {
+
+  /**
+   * @return next row, the first one being the header when the column names are known, <code>null</code> after the
+   *         last one
+   */
+  public String[] nextRow() throws IOException;
+
+  /**
+   * @param column column index
+   * @return if that cell of the last row read has no value. Its text is then "null" rather than <code>null</code>,
+   *         which would end the row.
+   */
+  public boolean isNull( int column );
+
+  /**
+   * @return column names as given by the result set metadata, <code>null</code> if unknown or before the first row
+   *         is read
+   */
+  public String[] getColumnNames();
+
+  /**
+   * @return column types as given by the result set metadata, <code>null</code> if unknown or before the first row
+   *         is read. Entries are <code>null</code> for columns without a type.
+   */
+  public String[] getColumnTypes();
+
+  /**
+   * @return if the result set has no values, known once the first row is read. That row is then a message rather
+   *         than a header or values.
+   */
+  public boolean isEmpty();
+}
@@ -0,0 +1,220 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.export;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Rows of a JSON result set read from a stream, <code>{"metadata": [...], "values": [[...], ...]}</code>.<br>
+ * Only one row is parsed at a time. Other members are parsed whole, and reading stops at the end of the rows.
+ * The header is taken from the metadata, so it's only written when the metadata comes before the rows.
+ * Metadata entries may be column names or objects with a <code>colName</code> and a <code>colType</code>. A result
+ * set without rows is exported as a single "No results Returned" cell.
+ */
+public class JsonExportRows implements IExportRows {
+
+  public static final String NO_RESULTS = "No results Returned";
+
+  private static final String METADATA = "metadata";
+  private static final String VALUES = "values";
+  // CDA result sets
+  private static final String RESULTSET = "resultset";
+  private static final String COLUMN_NAME = "colName";
+  private static final String COLUMN_TYPE = "colType";
+
+  private final JSONTokener tokener;
+  private JSONArray metadata;
+  private boolean started;
+  private boolean inRows;
+  private boolean firstRow;
+  private boolean done;
+  private boolean empty;
+  private String[] pending;
+  private boolean[] pendingNulls;
+  // cells without a value, for the last row returned and the last row read (null if none)
+  private boolean[] nulls;
+  private boolean[] readNulls;
+  private String[] columnNames;
+  private String[] columnTypes;
+
+  public JsonExportRows( Reader json ) {
+    this.tokener = new JSONTokener( json );
+  }
+
+  @Override
+  public String[] nextRow() throws IOException {
+    try {
+      if ( !started ) {
+        started = true;
+        String[] first = readRow();
+        if ( metadata != null && metadata.length() > 0 ) {
+          readMetadata();
+        }
+        if ( first == null || first.length == 0 ) {
+          done = true;
+          empty = true;
+          return new String[] { NO_RESULTS };
+        }
+        pending = first;
+        pendingNulls = readNulls;
+        if ( columnNames != null ) {
+          return columnNames;
+        }
+      }
+      if ( pending != null ) {
+        String[] row = pending;
+        nulls = pendingNulls;
+        pending = null;
+        pendingNulls = null;
+        return row;
+      }
+      String[] row = readRow();
+      nulls = readNulls;
+      return row;
+    } catch ( JSONException e ) {
+      done = true;
+      throw new IOException( "Invalid result set: " + e.getMessage() );
+    }
+  }
+
+  @Override
+  public boolean isNull( int column ) {
+    return nulls != null && column < nulls.length && nulls[ column ];
+  }
+
+  @Override
+  public String[] getColumnNames() {
+    return columnNames;
+  }
+
+  @Override
+  public String[] getColumnTypes() {
+    return columnTypes;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return empty;
+  }
+
+  private void readMetadata() throws JSONException {
+    String[] header = new String[ metadata.length() ];
+    String[] types = new String[ header.length ];
+    boolean typed = false;
+    for ( int i = 0; i < header.length; i++ ) {
+      Object column = metadata.get( i );
+      if ( column instanceof JSONObject && ( (JSONObject) column ).has( COLUMN_NAME ) ) {
+        header[ i ] = ( (JSONObject) column ).getString( COLUMN_NAME );
+      } else {
+        header[ i ] = String.valueOf( column );
+      }
+      if ( column instanceof JSONObject && ( (JSONObject) column ).has( COLUMN_TYPE ) ) {
+        types[ i ] = ( (JSONObject) column ).getString( COLUMN_TYPE );
+        typed = true;
+      }
+    }
+    columnNames = header;
+    columnTypes = typed ? types : null;
+  }
+
+  /**
+   * @return next data row, <code>null</code> after the last one
+   */
+  private String[] readRow() throws JSONException {
+    if ( done ) {
+      return null;
+    }
+    if ( !inRows && !seekRows() ) {
+      done = true;
+      return null;
+    }
+    char c = tokener.nextClean();
+    if ( !firstRow && c == ',' ) {
+      c = tokener.nextClean();
+    }
+    if ( c == ']' ) {
+      done = true;
+      return null;
+    }
+    firstRow = false;
+    tokener.back();
+    Object value = tokener.nextValue();
+    if ( !( value instanceof JSONArray ) ) {
+      throw tokener.syntaxError( "Expected a row array" );
+    }
+    JSONArray row = (JSONArray) value;
+    String[] cells = new String[ row.length() ];
+    readNulls = null;
+    for ( int i = 0; i < cells.length; i++ ) {
+      Object cell = row.get( i );
+      if ( JSONObject.NULL.equals( cell ) ) {
+        if ( readNulls == null ) {
+          readNulls = new boolean[ cells.length ];
+        }
+        readNulls[ i ] = true;
+      }
+      cells[ i ] = String.valueOf( cell );
+    }
+    return cells;
+  }
+
+  /**
+   * Reads object members up to the start of the rows array.
+   *
+   * @return <code>false</code> if the object has no rows
+   */
+  private boolean seekRows() throws JSONException {
+    boolean firstMember = true;
+    char c = tokener.nextClean();
+    if ( c != '{' ) {
+      throw tokener.syntaxError( "A JSONObject text must begin with '{'" );
+    }
+    while ( true ) {
+      c = tokener.nextClean();
+      if ( !firstMember && c == ',' ) {
+        c = tokener.nextClean();
+      }
+      firstMember = false;
+      if ( c == '}' ) {
+        return false;
+      }
+      if ( c == 0 ) {
+        throw tokener.syntaxError( "A JSONObject text must end with '}'" );
+      }
+      tokener.back();
+      String key = tokener.nextValue().toString();
+      if ( tokener.nextClean() != ':' ) {
+        throw tokener.syntaxError( "Expected a ':' after a key" );
+      }
+      if ( VALUES.equals( key ) || RESULTSET.equals( key ) ) {
+        if ( tokener.nextClean() != '[' ) {
+          throw tokener.syntaxError( "Expected a rows array" );
+        }
+        inRows = true;
+        firstRow = true;
+        return true;
+      }
+      Object value = tokener.nextValue();
+      if ( METADATA.equals( key ) && value instanceof JSONArray ) {
+        metadata = (JSONArray) value;
+      }
+    }
+  }
+}
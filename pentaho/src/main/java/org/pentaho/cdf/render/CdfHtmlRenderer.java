@@ -13,32 +13,33 @@
 
 package org.pentaho.cdf.render;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.regex.Pattern;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.json.JSONException;
-import org.json.JSONObject;
 import org.pentaho.cdf.CdfConstants;
 import org.pentaho.cdf.context.ContextEngine;
+import org.pentaho.cdf.context.RenderContext;
 import org.pentaho.cdf.environment.CdfEngine;
 import org.pentaho.cdf.environment.packager.ICdfHeadersProvider;
 import org.pentaho.cdf.environment.templater.ITemplater;
 import org.pentaho.cdf.environment.templater.ITemplater.Section;
-import org.pentaho.cdf.storage.StorageEngine;
+import org.pentaho.cdf.render.DashboardTemplateCache.DashboardTemplate;
 import org.pentaho.cdf.util.Parameter;
 
 import pt.webdetails.cpf.Util;
@@ -54,6 +55,9 @@ public class CdfHtmlRenderer {
 
   private static Log logger = LogFactory.getLog( CdfHtmlRenderer.class );
 
+  // cache key of the template used for unknown styles
+  private static final String FALLBACK_STYLE = "?fallback";
+
   public void execute( final OutputStream out, final String solution, final String path, String templateName,
                        String style, String dashboardsMessagesBaseFilename, HashMap<String, String> parameterMap,
                        String user, int inactiveInterval ) throws Exception {
@@ -94,49 +98,12 @@ public class CdfHtmlRenderer {
                        String dashboardsMessagesBaseFilename, HashMap<String, String> parameterMap, String user,
                        int inactiveInterval, boolean isRequire, boolean loadTheme ) throws Exception {
 
-    String intro = ""; //$NON-NLS-1$
-    String footer = ""; //$NON-NLS-1$
-
-    IReadAccess systemAccess = getPluginSystemReader( null );
-    style = StringUtils.isEmpty( style ) ? "" : "-" + style;
-
-    final String dashboardTemplate = "template-dashboard" + style + ".html"; //$NON-NLS-1$
-
     ArrayList<String> i18nTagsList = new ArrayList<String>();
-    final String requireDashboardTemplate = "template-dashboard" + style + "-require.html";
-    IBasicFile templateResourceFile = null;
-    IReadAccess pluginRepoAccess = getPluginRepositoryReader( "templates/" );
-
-    if ( isRequire && pluginRepoAccess.fileExists( requireDashboardTemplate ) ) {
-      templateResourceFile = pluginRepoAccess.fetchFile( requireDashboardTemplate );
-    } else if ( isRequire && systemAccess.fileExists( requireDashboardTemplate ) ) {
-      templateResourceFile = systemAccess.fetchFile( requireDashboardTemplate );
-    } else if ( pluginRepoAccess.fileExists( dashboardTemplate ) ) {
-      templateResourceFile = pluginRepoAccess.fetchFile( dashboardTemplate );
-    } else if ( systemAccess.fileExists( dashboardTemplate ) ) {
-      // then try in system
-      templateResourceFile = systemAccess.fetchFile( dashboardTemplate );
-    }
-
-    String templateContent;
-    if ( templateResourceFile != null ) { //if a file was obtained correctly
-      templateContent = getContentString( templateResourceFile.getContents() );
-    } else { //if not get a default one
-      logger.error( "Template " + dashboardTemplate + " not available on cdf/templates, loading fallback instead" );
-      templateContent = getContentString( systemAccess.fetchFile( "template-dashboard.html" ).getContents() );
-    }
-
-    if ( !isRequire ) {
-      // Process i18n on dashboard outer template
-      templateContent = updateUserLanguageKey( templateContent );
-      templateContent = processi18nTags( templateContent, i18nTagsList );
-      // Process i18n on dashboard outer template - end
-    }
 
-    ITemplater templater = getTemplater();
-
-    intro = templater.getTemplateSection( templateContent, Section.HEADER );
-    footer = templater.getTemplateSection( templateContent, Section.FOOTER );
+    DashboardTemplate template = getOuterTemplate( style, isRequire );
+    String intro = template.getHeader();
+    String footer = template.getFooter();
+    i18nTagsList.addAll( template.getI18nTags() );
 
     final String dashboardContent = getDashboardContent( dashboardTemplateFile.getContents(), i18nTagsList );
 
@@ -149,32 +116,65 @@ public class CdfHtmlRenderer {
       intro = getMessageBundlesHelper( path ).replaceParameters( intro, i18nTagsList );
     }
 
+    final int headIndex = intro.indexOf( "<head>" ) + 6;
+
+    if ( isStreamingRender() ) {
+      // encode straight into the response, sections are never copied into byte arrays
+      Writer writer = new OutputStreamWriter( out, CharsetHelper.getEncoding() );
+      writer.write( intro, 0, headIndex );
+      writer.flush();
+      writeHeaders( out, dashboardContent, parameterMap, isRequire, loadTheme );
+      writer.write( intro, headIndex, intro.length() - headIndex );
+      writer.flush();
+      writeContext( out, path, parameterMap, user, inactiveInterval, isRequire );
+      writer.write( "<div id=\"dashboardContent\">" );
+      writer.write( dashboardContent );
+      writer.write( "</div>" );
+      writer.write( footer );
+      // not closed, out belongs to the caller
+      writer.flush();
+      return;
+    }
+
     /*
      * Add cdf libraries
      */
-    // final Date startDate = new Date();
-    final int headIndex = intro.indexOf( "<head>" );
-    final int length = intro.length();
-    // final Hashtable addedFiles = new Hashtable();
+    out.write( intro.substring( 0, headIndex ).getBytes( CharsetHelper.getEncoding() ) );
+    writeHeaders( out, dashboardContent, parameterMap, isRequire, loadTheme );
+    out.write( intro.substring( headIndex, intro.length() ).getBytes( CharsetHelper.getEncoding() ) );
+
+    writeContext( out, path, parameterMap, user, inactiveInterval, isRequire );
+
+    out.write( "<div id=\"dashboardContent\">".getBytes( CharsetHelper.getEncoding() ) );
+
+    out.write( dashboardContent.getBytes( CharsetHelper.getEncoding() ) );
+    out.write( "</div>".getBytes( CharsetHelper.getEncoding() ) );
+    out.write( footer.getBytes( CharsetHelper.getEncoding() ) );
+  }
 
-    out.write( intro.substring( 0, headIndex + 6 ).getBytes( CharsetHelper.getEncoding() ) );
+  private void writeHeaders( OutputStream out, String dashboardContent, HashMap<String, String> parameterMap,
+                             boolean isRequire, boolean loadTheme ) throws Exception {
     if ( !isRequire ) { // Concat libraries to html head content
       getHeadersInternal( dashboardContent, parameterMap, out );
     } else { // add the webcontext dependency checking if webcontext should load pentaho active theme
       getWebContextHeader( out, loadTheme );
     }
-    out.write( intro.substring( headIndex + 6, length ).getBytes( CharsetHelper.getEncoding() ) );
+  }
 
+  private void writeContext( OutputStream out, String path, HashMap<String, String> parameterMap, String user,
+                             int inactiveInterval, boolean isRequire ) throws Exception {
     if ( !isRequire ) {
+      // context and storage share the same lookups
+      RenderContext renderContext = createRenderContext( user );
       // Add context
       try {
-        generateContext( out, parameterMap, inactiveInterval );
+        generateContext( out, renderContext, parameterMap, inactiveInterval );
       } catch ( Exception e ) {
         logger.error( "Error generating cdf context.", e );
       }
       // Add storage
       try {
-        generateStorage( out, user );
+        generateStorage( out, renderContext );
       } catch ( Exception e ) {
         logger.error( "Error in cdf storage.", e );
       }
@@ -184,12 +184,83 @@ public class CdfHtmlRenderer {
           + getConfiguration( path, parameterMap, inactiveInterval ) + ";\n"
           + "requirejs.config(requireCfg);" ).getBytes( CharsetHelper.getEncoding() ) );
     }
+  }
 
-    out.write( "<div id=\"dashboardContent\">".getBytes( CharsetHelper.getEncoding() ) );
+  protected boolean isStreamingRender() {
+    return Boolean.valueOf( StringUtils.defaultIfEmpty( CdfEngine.getEnvironment().getResourceLoader()
+        .getPluginSetting( CdfHtmlRenderer.class, CdfConstants.PLUGIN_SETTINGS_STREAMING_RENDER ), "true" ) );
+  }
 
-    out.write( dashboardContent.getBytes( CharsetHelper.getEncoding() ) );
-    out.write( "</div>".getBytes( CharsetHelper.getEncoding() ) );
-    out.write( footer.getBytes( CharsetHelper.getEncoding() ) );
+  /**
+   * Outer dashboard template for the given style, processed and split into header and footer.<br>
+   * Served from {@link DashboardTemplateCache} while the template file doesn't change.
+   */
+  protected DashboardTemplate getOuterTemplate( String style, boolean isRequire ) throws Exception {
+    DashboardTemplateCache cache = getTemplateCache();
+    String key = DashboardTemplateCache.getKey( style, isRequire, getLocale() );
+    DashboardTemplate template = cache.get( key );
+    if ( template != null && !template.isCheckDue() ) {
+      return template;
+    }
+
+    IReadAccess systemAccess = getPluginSystemReader( null );
+    style = StringUtils.isEmpty( style ) ? "" : "-" + style;
+
+    final String dashboardTemplate = "template-dashboard" + style + ".html"; //$NON-NLS-1$
+    final String requireDashboardTemplate = "template-dashboard" + style + "-require.html";
+    IReadAccess pluginRepoAccess = getPluginRepositoryReader( "templates/" );
+
+    IReadAccess templateAccess;
+    String templateName;
+    if ( isRequire && pluginRepoAccess.fileExists( requireDashboardTemplate ) ) {
+      templateAccess = pluginRepoAccess;
+      templateName = requireDashboardTemplate;
+    } else if ( isRequire && systemAccess.fileExists( requireDashboardTemplate ) ) {
+      templateAccess = systemAccess;
+      templateName = requireDashboardTemplate;
+    } else if ( pluginRepoAccess.fileExists( dashboardTemplate ) ) {
+      templateAccess = pluginRepoAccess;
+      templateName = dashboardTemplate;
+    } else if ( systemAccess.fileExists( dashboardTemplate ) ) {
+      // then try in system
+      templateAccess = systemAccess;
+      templateName = dashboardTemplate;
+    } else { //if not get a default one
+      logger.error( "Template " + dashboardTemplate + " not available on cdf/templates, loading fallback instead" );
+      templateAccess = systemAccess;
+      templateName = "template-dashboard.html";
+      // not kept under unknown styles
+      key = DashboardTemplateCache.getKey( FALLBACK_STYLE, isRequire, getLocale() );
+      template = cache.get( key );
+    }
+
+    String source = ( templateAccess == pluginRepoAccess ? "templates/" : "system/" ) + templateName;
+    long lastModified = templateAccess.getLastModified( templateName );
+    if ( template != null && template.isCurrent( source, lastModified ) ) {
+      return template;
+    }
+
+    String templateContent = getContentString( templateAccess.fetchFile( templateName ).getContents() );
+
+    ArrayList<String> i18nTagsList = new ArrayList<String>();
+    if ( !isRequire ) {
+      // Process i18n on dashboard outer template
+      templateContent = updateUserLanguageKey( templateContent );
+      templateContent = processi18nTags( templateContent, i18nTagsList );
+      // Process i18n on dashboard outer template - end
+    }
+
+    ITemplater templater = getTemplater();
+
+    template = new DashboardTemplate( source, lastModified,
+        templater.getTemplateSection( templateContent, Section.HEADER ),
+        templater.getTemplateSection( templateContent, Section.FOOTER ), i18nTagsList );
+    cache.put( key, template );
+    return template;
+  }
+
+  protected DashboardTemplateCache getTemplateCache() {
+    return DashboardTemplateCache.getInstance();
   }
 
   protected String getConfiguration( String path, HashMap<String, String> parameterMap,
@@ -229,55 +300,27 @@ public class CdfHtmlRenderer {
 
   protected String getDashboardContent( InputStream is, ArrayList<String> i18nTagsList ) throws Exception {
     // Fixed ISSUE #CDF-113
-    // BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-    BufferedReader reader = new BufferedReader(
-        new InputStreamReader( is, Charset.forName( CdfEngine.getEnvironment().getSystemEncoding() ) ) );
+    Reader reader = new InputStreamReader( is, Charset.forName( CdfEngine.getEnvironment().getSystemEncoding() ) );
 
     StringBuilder sb = new StringBuilder();
-    String line = null;
-    while ( ( line = reader.readLine() ) != null ) {
+    try {
       // Process i18n for each line of the dashboard output
-      line = processi18nTags( line, i18nTagsList );
-      // Process i18n - end
-      sb.append( line + "\n" ); //$NON-NLS-1$
+      new I18nTagsProcessor( sb, i18nTagsList, true ).process( reader );
+    } finally {
+      is.close();
     }
-    is.close();
     return sb.toString();
   }
 
   protected String processi18nTags( String content, ArrayList<String> tagsList ) {
-
-    String tagPattern = "CDF.i18n\\(\""; //$NON-NLS-1$
-    String[] test = content.split( tagPattern );
-    if ( test.length == 1 ) {
-      return content;
-    }
-    StringBuffer resBuffer = new StringBuffer();
-    int i;
-    String tagValue;
-    resBuffer.append( test[ 0 ] );
-    for ( i = 1; i < test.length; i++ ) {
-
-      // First tag is processed differently that other because is the only case where I don't
-      // have key in first position
-      resBuffer.append( "<span id=\"" ); //$NON-NLS-1$
-      if ( i != 0 ) {
-        // Right part of the string with the value of the tag herein
-        tagValue = test[ i ].substring( 0, test[ i ].indexOf( "\")" ) ); //$NON-NLS-1$
-        tagsList.add( tagValue );
-        resBuffer.append( updateSelectorName( tagValue ) );
-        resBuffer.append( "\"></span>" ); //$NON-NLS-1$
-        resBuffer.append( test[ i ].substring( test[ i ].indexOf( "\")" ) + 2, test[ i ].length() ) ); //$NON-NLS-1$
-      }
-    }
-    return resBuffer.toString();
+    return I18nTagsProcessor.process( content, tagsList );
   }
 
   private String updateSelectorName( String name ) {
     // If we've the character . in the message key substitute it conventionally to _
     // when dynamically generating the selector name. The "." character is not permitted in the
     // selector id name
-    return name.replace( ".", "_" );
+    return I18nTagsProcessor.getSelectorName( name );
   }
 
   private String buildMessageSetCode( ArrayList<String> tagsList ) {
@@ -292,9 +335,8 @@ public class CdfHtmlRenderer {
 
   protected String updateUserLanguageKey( String intro ) {
     // Fill the template with the correct user locale
-    intro =
-      intro.replaceAll( "#\\{LANGUAGE_CODE\\}", CdfEngine.getEnvironment().getLocale().getLanguage() ); //$NON-NLS-1$
-    return intro;
+    return StringUtils.replace( intro, "#{LANGUAGE_CODE}", //$NON-NLS-1$
+      CdfEngine.getEnvironment().getLocale().getLanguage() );
   }
 
   public static void getHeaders( HashMap<String, String> paramMap, OutputStream out ) throws Exception {
@@ -326,15 +368,8 @@ public class CdfHtmlRenderer {
     // Identify which extra JSs and CSSs to add to header, according to components being used
     List<String> componentTypes = new ArrayList<String>( CdfConstants.DASHBOARD_COMPONENT_TYPES.length );
     if ( dashboardContent != null ) {
-      componentTypes = new ArrayList<String>();
       // search for component types in dashboardsContent (e.g. template.html)
-      for ( String[] componenType : CdfConstants.DASHBOARD_COMPONENT_TYPES ) {
-        // Screen Scrap to get component types from dashboardContent
-        if ( Pattern.compile( String.format( "type:\\s*[\"'](?i)%s[a-z]*[\"']", componenType[ 0 ] ) )
-            .matcher( dashboardContent ).find() ) {
-          componentTypes.add( componenType[ 1 ] );
-        }
-      }
+      componentTypes = ComponentTypesDetector.getInstance().detect( dashboardContent );
     }
     if ( absolute ) {
       String webRoot;
@@ -358,22 +393,26 @@ public class CdfHtmlRenderer {
     }
   }
 
-  protected void generateStorage( final OutputStream out, final String user ) throws Exception {
+  protected void generateStorage( final OutputStream out, final RenderContext renderContext ) throws Exception {
 
-    JSONObject result = StorageEngine.getInstance().read( user );
+    String result = renderContext.getStorage();
 
     StringBuilder s = new StringBuilder();
     s.append( "\n<script language=\"javascript\" type=\"text/javascript\">\n" );
     s.append( "  Dashboards.storage = " );
-    s.append( result.toString( 2 ) ).append( "\n" );
+    s.append( result ).append( "\n" );
     s.append( "</script>\n" );
     // setResponseHeaders(MIME_PLAIN,0,null);
     out.write( s.toString().getBytes( CharsetHelper.getEncoding() ) );
   }
 
-  protected void generateContext( final OutputStream out, HashMap parameterMap, int inactiveInterval )
-    throws Exception {
-    ContextEngine.getInstance().generateContext( out, parameterMap, inactiveInterval );
+  protected void generateContext( final OutputStream out, RenderContext renderContext, HashMap parameterMap,
+                                  int inactiveInterval ) throws Exception {
+    ContextEngine.getInstance().generateContext( out, renderContext, parameterMap, inactiveInterval );
+  }
+
+  protected RenderContext createRenderContext( String user ) {
+    return ContextEngine.getInstance().createRenderContext( user );
   }
 
   protected IReadAccess getPluginSystemReader( String path ) {
@@ -0,0 +1,129 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.render;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outer dashboard templates (template-dashboard*.html) already processed and split into header and footer.<br>
+ * Entries are kept until the template file changes, which is only checked once every
+ * {@link #VERSION_CHECK_INTERVAL} ms. Styles come from request parameters, so only the most recently used
+ * templates are kept.
+ */
+public class DashboardTemplateCache {
+
+  private static final long VERSION_CHECK_INTERVAL = 10000L;
+  static final int DEFAULT_CACHE_SIZE = 64;
+
+  private static DashboardTemplateCache instance;
+
+  private final Map<String, DashboardTemplate> templates;
+
+  public DashboardTemplateCache() {
+    this( DEFAULT_CACHE_SIZE );
+  }
+
+  @SuppressWarnings( "serial" )
+  public DashboardTemplateCache( final int cacheSize ) {
+    templates = Collections.synchronizedMap( new LinkedHashMap<String, DashboardTemplate>( 16, 0.75f, true ) {
+      @Override
+      protected boolean removeEldestEntry( Map.Entry<String, DashboardTemplate> eldest ) {
+        return size() > cacheSize;
+      }
+    } );
+  }
+
+  public static synchronized DashboardTemplateCache getInstance() {
+    if ( instance == null ) {
+      instance = new DashboardTemplateCache();
+    }
+    return instance;
+  }
+
+  public static String getKey( String style, boolean isRequire, Object locale ) {
+    return style + "|" + isRequire + "|" + locale;
+  }
+
+  /**
+   * @return cached template, may need to be validated with {@link DashboardTemplate#isCheckDue()}
+   */
+  public DashboardTemplate get( String key ) {
+    return templates.get( key );
+  }
+
+  public void put( String key, DashboardTemplate template ) {
+    templates.put( key, template );
+  }
+
+  public void clear() {
+    templates.clear();
+  }
+
+  public static class DashboardTemplate {
+
+    private final String source;
+    private final long lastModified;
+    private final String header;
+    private final String footer;
+    private final List<String> i18nTags;
+    private volatile long lastCheck;
+
+    /**
+     * @param source identifies the template file
+     * @param lastModified template file version
+     * @param header processed header section
+     * @param footer processed footer section
+     * @param i18nTags message keys found in the template
+     */
+    public DashboardTemplate( String source, long lastModified, String header, String footer,
+                              List<String> i18nTags ) {
+      this.source = source;
+      this.lastModified = lastModified;
+      this.header = header;
+      this.footer = footer;
+      this.i18nTags = Collections.unmodifiableList( i18nTags );
+      this.lastCheck = System.currentTimeMillis();
+    }
+
+    public String getHeader() {
+      return header;
+    }
+
+    public String getFooter() {
+      return footer;
+    }
+
+    public List<String> getI18nTags() {
+      return i18nTags;
+    }
+
+    public boolean isCheckDue() {
+      return System.currentTimeMillis() - lastCheck >= VERSION_CHECK_INTERVAL;
+    }
+
+    /**
+     * @return if the template was loaded from this file version, restarting the check interval if so
+     */
+    public boolean isCurrent( String source, long lastModified ) {
+      if ( this.source.equals( source ) && this.lastModified == lastModified ) {
+        lastCheck = System.currentTimeMillis();
+        return true;
+      }
+      return false;
+    }
+  }
+}
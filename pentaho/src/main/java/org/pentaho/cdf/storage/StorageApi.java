@@ -22,11 +22,14 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
+import org.apache.commons.lang.StringUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.pentaho.cdf.InvalidCdfOperationException;
@@ -34,12 +37,15 @@ import org.pentaho.cdf.PluginHibernateException;
 import org.pentaho.cdf.storage.ImpersonationHandler.CdfStorageApiImpersonationException;
 import org.pentaho.cdf.util.Parameter;
 import org.pentaho.cdf.utils.CorsUtil;
+import org.pentaho.cdf.utils.JsonUtil;
 
 import pt.webdetails.cpf.utils.CharsetHelper;
 
 @Path( "/pentaho-cdf/api/storage" )
 public class StorageApi {
 
+  private static final String IF_MATCH = "If-Match";
+
   private StorageEngineInterface engine = null;
 
   public StorageApi() {
@@ -109,6 +115,70 @@ public class StorageApi {
     return delete( user );
   }
 
+  /**
+   * Reads the user storage along with its version, also sent as the ETag.
+   */
+  @GET
+  @Path( "/versioned" )
+  @Produces( MediaType.APPLICATION_JSON )
+  public Response readVersioned( @QueryParam( Parameter.USER ) String user,
+                                 @Context HttpServletRequest servletRequest,
+                                 @Context HttpServletResponse servletResponse )
+    throws InvalidCdfOperationException, JSONException, PluginHibernateException {
+
+    servletResponse.setContentType( MediaType.APPLICATION_JSON );
+    servletResponse.setCharacterEncoding( CharsetHelper.getEncoding() );
+    setCorsHeaders( servletRequest, servletResponse );
+
+    return readVersioned( user );
+  }
+
+  /**
+   * Applies a JSON merge patch (RFC 7386) to the user storage. With an If-Match version the patch is refused with
+   * 412 if storage was changed since.
+   *
+   * @param patch merge patch, a JSON object
+   */
+  @POST
+  @Path( "/patch" )
+  @Consumes( { MediaType.APPLICATION_JSON, "application/merge-patch+json" } )
+  @Produces( MediaType.APPLICATION_JSON )
+  public Response patch( String patch,
+                         @HeaderParam( IF_MATCH ) String ifMatch,
+                         @QueryParam( Parameter.USER ) String user,
+                         @Context HttpServletRequest servletRequest,
+                         @Context HttpServletResponse servletResponse )
+    throws JSONException, PluginHibernateException {
+
+    servletResponse.setContentType( MediaType.APPLICATION_JSON );
+    servletResponse.setCharacterEncoding( CharsetHelper.getEncoding() );
+    setCorsHeaders( servletRequest, servletResponse );
+
+    return patch( patch, ifMatch, user );
+  }
+
+  /**
+   * Reads, stores and deletes several keys of the user's keyed storage in one transaction.
+   *
+   * @param batch {@link StorageBatch} as JSON
+   */
+  @POST
+  @Path( "/batch" )
+  @Consumes( MediaType.APPLICATION_JSON )
+  @Produces( MediaType.APPLICATION_JSON )
+  public Response batch( String batch,
+                         @QueryParam( Parameter.USER ) String user,
+                         @Context HttpServletRequest servletRequest,
+                         @Context HttpServletResponse servletResponse )
+    throws JSONException, PluginHibernateException {
+
+    servletResponse.setContentType( MediaType.APPLICATION_JSON );
+    servletResponse.setCharacterEncoding( CharsetHelper.getEncoding() );
+    setCorsHeaders( servletRequest, servletResponse );
+
+    return batch( batch, user );
+  }
+
   protected void setCorsHeaders( HttpServletRequest servletRequest, HttpServletResponse servletResponse ) {
     CorsUtil.getInstance().setCorsHeaders( servletRequest, servletResponse );
   }
@@ -149,6 +219,84 @@ public class StorageApi {
     }
   }
 
+  protected Response readVersioned( String user )
+    throws PluginHibernateException, JSONException, InvalidCdfOperationException {
+    try {
+      return versioned( Response.ok(), engine.readVersioned( impersonate( user ) ) );
+    } catch ( CdfStorageApiImpersonationException e ) {
+      return FORBIDDEN;
+    }
+  }
+
+  protected Response patch( String patch, String ifMatch, String user )
+    throws PluginHibernateException, JSONException {
+    int version;
+    try {
+      version = parseVersion( ifMatch );
+    } catch ( NumberFormatException e ) {
+      return badRequest( "Invalid If-Match version: " + ifMatch );
+    }
+
+    try {
+      return versioned( Response.ok(), engine.patch( patch, version, impersonate( user ) ) );
+    } catch ( CdfStorageApiImpersonationException e ) {
+      return FORBIDDEN;
+    } catch ( StorageVersionConflictException e ) {
+      JSONObject error = JsonUtil.makeJsonErrorResponse( e.getMessage(), false );
+      error.put( "version", e.getCurrentVersion() );
+      return Response.status( Response.Status.PRECONDITION_FAILED ).entity( error.toString( 2 ) )
+        .tag( String.valueOf( e.getCurrentVersion() ) ).build();
+    } catch ( InvalidCdfOperationException e ) {
+      return badRequest( e.getMessage() );
+    } catch ( JSONException e ) {
+      return badRequest( "Invalid patch: " + e.getMessage() );
+    }
+  }
+
+  /**
+   * @return version in an If-Match header, -1 if none
+   */
+  static int parseVersion( String ifMatch ) {
+    String version = StringUtils.trimToEmpty( ifMatch );
+    if ( version.isEmpty() || version.equals( "*" ) ) {
+      return -1;
+    }
+    version = StringUtils.removeStart( version, "W/" );
+    return Integer.parseInt( StringUtils.strip( version, "\"" ) );
+  }
+
+  private Response versioned( Response.ResponseBuilder builder, JSONObject result ) throws JSONException {
+    JSONObject versioned = result.optJSONObject( JsonUtil.JsonField.RESULT.getValue() );
+    if ( versioned != null ) {
+      builder.tag( String.valueOf( versioned.getInt( "version" ) ) );
+    }
+    return builder.entity( result.toString( 2 ) ).build();
+  }
+
+  protected Response batch( String batch, String user ) throws PluginHibernateException, JSONException {
+    StorageBatch storageBatch;
+    try {
+      storageBatch = StorageBatch.fromJson( new JSONObject( StringUtils.defaultIfEmpty( batch, "{}" ) ) );
+    } catch ( JSONException e ) {
+      return badRequest( "Invalid storage batch: " + e.getMessage() );
+    } catch ( InvalidCdfOperationException e ) {
+      return badRequest( e.getMessage() );
+    }
+
+    try {
+      return Response.ok( engine.batch( storageBatch, impersonate( user ) ).toString( 2 ) ).build();
+    } catch ( CdfStorageApiImpersonationException e ) {
+      return FORBIDDEN;
+    } catch ( InvalidCdfOperationException e ) {
+      return badRequest( e.getMessage() );
+    }
+  }
+
+  private Response badRequest( String message ) {
+    return Response.status( Response.Status.BAD_REQUEST )
+      .entity( JsonUtil.makeJsonErrorResponse( message, false ).toString() ).build();
+  }
+
   protected String impersonate( String user ) throws CdfStorageApiImpersonationException {
     return ImpersonationHandler.getUserName( user );
   }
@@ -0,0 +1,79 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * CdfHttpServletResponseWrapper sends the response body to a given stream instead of the client, headers and errors
+ * still go to the wrapped response.
+ */
+public class CdfHttpServletResponseWrapper extends HttpServletResponseWrapper {
+
+  private final ServletOutputStream body;
+  private final String encoding;
+  private PrintWriter writer;
+
+  /**
+   * @param encoding used by {@link #getWriter()}
+   */
+  public CdfHttpServletResponseWrapper( HttpServletResponse response, final OutputStream body, String encoding ) {
+    super( response );
+    this.encoding = encoding;
+    this.body = new ServletOutputStream() {
+      @Override
+      public void write( int b ) throws IOException {
+        body.write( b );
+      }
+
+      @Override
+      public void write( byte[] b, int off, int len ) throws IOException {
+        body.write( b, off, len );
+      }
+
+      @Override
+      public void flush() throws IOException {
+        body.flush();
+      }
+    };
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() {
+    return body;
+  }
+
+  @Override
+  public PrintWriter getWriter() throws IOException {
+    if ( writer == null ) {
+      writer = new PrintWriter( new OutputStreamWriter( body, encoding ) );
+    }
+    return writer;
+  }
+
+  @Override
+  public void flushBuffer() throws IOException {
+    if ( writer != null ) {
+      writer.flush();
+    }
+    body.flush();
+  }
+}
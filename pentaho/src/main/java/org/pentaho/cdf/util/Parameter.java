@@ -43,6 +43,8 @@ public class Parameter {
   public static final String RESOURCE = "resource"; //$NON-NLS-1$
   public static final String FIRST_RESULT = "firstResult"; //$NON-NLS-1$
   public static final String MAX_RESULTS = "maxResults"; //$NON-NLS-1$
+  public static final String CURSOR = "cursor"; //$NON-NLS-1$
+  public static final String BEFORE = "before"; //$NON-NLS-1$
   public static final String DELETED = "deleted"; //$NON-NLS-1$
   public static final String ARCHIVED = "archived"; //$NON-NLS-1$
   public static final String DEBUG = "debug"; //$NON-NLS-1$
@@ -50,6 +52,9 @@ public class Parameter {
   public static final String CALLBACK = "callback"; //$NON-NLS-1$
   public static final String CONTENT_TYPE = "contentType"; //$NON-NLS-1$
   public static final String EXPORT_TYPE = "exportType"; //$NON-NLS-1$
+  public static final String ASYNC = "async"; //$NON-NLS-1$
+  public static final String GZIP = "gzip"; //$NON-NLS-1$
+  public static final String JOB_ID = "jobId"; //$NON-NLS-1$
   public static final String DEPTH = "depth"; //$NON-NLS-1$
   public static final String SHOW_HIDDEN_FILES = "showHiddenFiles"; //$NON-NLS-1$
   public static final String DASHBOARD_CONTENT = "dashboardContent"; //$NON-NLS-1$
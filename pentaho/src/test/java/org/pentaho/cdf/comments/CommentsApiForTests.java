@@ -15,6 +15,7 @@ package org.pentaho.cdf.comments;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.util.List;
 
 public class CommentsApiForTests extends CommentsApi {
   @Override
@@ -39,8 +40,19 @@ public class CommentsApiForTests extends CommentsApi {
                                int maxResults,
                                boolean deleted,
                                boolean archived,
+                               String cursor,
                                HttpServletResponse servletResponse ) { }
 
+  @Override
+  protected String getListTag( String page, int firstResult, int maxResults, boolean deleted, boolean archived,
+                               String cursor ) {
+    return null;
+  }
+
+  @Override
+  protected void changeComments( CommentsEngine.Operation operation, List<Integer> commentIds, String page,
+                                 String before, boolean value, HttpServletResponse servletResponse ) { }
+
   @Override
   protected void archiveComment( int commentId, boolean value, HttpServletResponse servletResponse ) { }
 
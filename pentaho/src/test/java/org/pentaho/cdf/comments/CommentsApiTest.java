@@ -16,14 +16,21 @@ package org.pentaho.cdf.comments;
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 import static org.mockito.Mockito.*;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectOutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import junit.framework.Assert;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.pentaho.cdf.InvalidCdfOperationException;
 
 import pt.webdetails.cpf.messaging.MockHttpServletRequest;
 import pt.webdetails.cpf.messaging.MockHttpServletResponse;
@@ -70,11 +77,81 @@ public class CommentsApiTest {
     Assert.assertEquals( servletResponse.getContentType(), null );
     Assert.assertEquals( servletResponse.getCharacterEncoding(), null );
 
-    commentsApi.list( PAGE, 0, 100, false/*deleted*/, false/*archived*/, servletResponse, servletRequest );
+    commentsApi.list( PAGE, 0, 100, false/*deleted*/, false/*archived*/, "", servletResponse, servletRequest );
 
     Assert.assertTrue( servletResponse.getContentType().equals( APPLICATION_JSON ) );
     Assert.assertTrue( servletResponse.getCharacterEncoding().equals( CharsetHelper.getEncoding() ) );
-    verify( commentsApi, times( 1 ) ).listComments( PAGE, 0, 100, false/*deleted*/, false/*archived*/, servletResponse );
+    verify( commentsApi, times( 1 ) )
+      .listComments( PAGE, 0, 100, false/*deleted*/, false/*archived*/, "", servletResponse );
+  }
+
+  @Test
+  public void listNotModifiedTest() throws Exception {
+    HttpServletRequest request = mock( HttpServletRequest.class );
+    HttpServletResponse response = mock( HttpServletResponse.class );
+    doReturn( "\"tag\"" ).when( commentsApi ).getListTag( PAGE, 0, 100, false, false, "" );
+    doReturn( "\"old\", W/\"tag\"" ).when( request ).getHeader( "If-None-Match" );
+
+    commentsApi.list( PAGE, 0, 100, false/*deleted*/, false/*archived*/, "", response, request );
+
+    verify( response ).setHeader( "ETag", "\"tag\"" );
+    verify( response ).setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+    verify( commentsApi, never() )
+      .listComments( anyString(), anyInt(), anyInt(), anyBoolean(), anyBoolean(), anyString(), eq( response ) );
+  }
+
+  @Test
+  public void listModifiedTest() throws Exception {
+    HttpServletRequest request = mock( HttpServletRequest.class );
+    HttpServletResponse response = mock( HttpServletResponse.class );
+    doReturn( "\"tag\"" ).when( commentsApi ).getListTag( PAGE, 0, 100, false, false, "" );
+    doReturn( "\"old\"" ).when( request ).getHeader( "If-None-Match" );
+
+    commentsApi.list( PAGE, 0, 100, false/*deleted*/, false/*archived*/, "", response, request );
+
+    verify( response ).setHeader( "ETag", "\"tag\"" );
+    verify( response, never() ).setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+    verify( commentsApi, times( 1 ) ).listComments( PAGE, 0, 100, false, false, "", response );
+  }
+
+  @Test
+  public void bulkArchiveTest() throws Exception {
+    List<Integer> ids = Arrays.asList( 1, 2 );
+    commentsApi.bulkArchive( ids, "", "", true/*value*/, servletResponse, servletRequest );
+
+    Assert.assertTrue( servletResponse.getContentType().equals( APPLICATION_JSON ) );
+    verify( commentsApi, times( 1 ) )
+      .changeComments( CommentsEngine.Operation.ARCHIVE, ids, "", "", true/*value*/, servletResponse );
+  }
+
+  @Test
+  public void bulkDeleteTest() throws Exception {
+    commentsApi.bulkDelete( null, PAGE, "2017-01-01 10:00:00", true/*value*/, servletResponse, servletRequest );
+
+    verify( commentsApi, times( 1 ) ).changeComments( CommentsEngine.Operation.DELETE, null, PAGE,
+      "2017-01-01 10:00:00", true/*value*/, servletResponse );
+  }
+
+  @Test
+  public void parseDateTest() throws Exception {
+    Assert.assertNull( CommentsApi.parseDate( "" ) );
+    Assert.assertEquals( new SimpleDateFormat( "yyyy-MM-dd HH:mm:ss" ).parse( "2017-01-01 10:00:00" ),
+      CommentsApi.parseDate( "2017-01-01 10:00:00" ) );
+    try {
+      CommentsApi.parseDate( "yesterday" );
+      Assert.fail( "invalid date accepted" );
+    } catch ( InvalidCdfOperationException e ) {
+      // expected
+    }
+  }
+
+  @Test
+  public void matchesTagTest() {
+    Assert.assertTrue( CommentsApi.matchesTag( "\"a\"", "\"a\"" ) );
+    Assert.assertTrue( CommentsApi.matchesTag( "\"b\" ,W/\"a\"", "\"a\"" ) );
+    Assert.assertTrue( CommentsApi.matchesTag( "*", "\"a\"" ) );
+    Assert.assertFalse( CommentsApi.matchesTag( "\"b\"", "\"a\"" ) );
+    Assert.assertFalse( CommentsApi.matchesTag( null, "\"a\"" ) );
   }
 
   @Test
@@ -14,6 +14,7 @@
 package org.pentaho.cdf.context;
 
 import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
 import org.dom4j.Node;
 import org.json.JSONObject;
 import org.junit.Before;
@@ -21,8 +22,11 @@ import org.junit.Test;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.pentaho.cdf.context.autoinclude.AutoInclude;
+import org.pentaho.cdf.context.autoinclude.AutoIncludeIndex;
 import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.engine.security.SecurityParameterProvider;
+import pt.webdetails.cpf.repository.api.IBasicFile;
+import pt.webdetails.cpf.repository.api.IBasicFileFilter;
 import pt.webdetails.cpf.repository.api.IReadAccess;
 import pt.webdetails.cpf.repository.api.IUserContentAccess;
 
@@ -31,10 +35,12 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import static java.util.Arrays.asList;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
@@ -57,8 +63,8 @@ public class ContextEngineTest {
         username = "admin";
     int inactiveInterval = 1234;
 
-    Document doc = mock( Document.class );
-    doReturn( doc ).when( contextEngine ).getConfigFile();
+    ContextConfig config = new ContextConfig( null, 0L );
+    doReturn( config ).when( contextEngine ).getContextConfig();
 
     Locale locale = new Locale( "EN" );
 
@@ -73,7 +79,7 @@ public class ContextEngineTest {
 
     JSONObject contextConfig = new JSONObject();
     doReturn( contextConfig ).when( contextEngine ).buildContextConfig( any( JSONObject.class ), eq( path ),
-        eq( doc ) );
+        eq( config ) );
     doReturn( contextConfig ).when( contextEngine ).buildContextSessionTimeout( any( JSONObject.class ),
         eq( inactiveInterval ) );
     doReturn( contextConfig ).when( contextEngine ).buildContextDates( any( JSONObject.class ) );
@@ -101,22 +107,42 @@ public class ContextEngineTest {
     assertTrue( result.has( "file" ) );
   }
 
+  @Test
+  public void renderContextStorageTest() throws Exception {
+    doReturn( new JSONObject( "{\"a\": 1}" ) ).when( contextEngine ).readStorage( "admin" );
+    doReturn( new JSONObject() ).when( contextEngine ).buildContext( any( RenderContext.class ), anyString(),
+        anyMap(), anyInt() );
+
+    RenderContext renderContext = contextEngine.createRenderContext( "admin" );
+    contextEngine.getContext( renderContext, "/public/dash.wcdf", new HashMap<String, String>(), 1234 );
+    assertEquals( 1, new JSONObject( renderContext.getStorage() ).getInt( "a" ) );
+    verify( contextEngine, times( 1 ) ).readStorage( "admin" );
+
+    // failures aren't retried in the same render either
+    doThrow( new IllegalStateException() ).when( contextEngine ).readStorage( "suzy" );
+    renderContext = contextEngine.createRenderContext( "suzy" );
+    assertEquals( "", contextEngine.getStorage( renderContext ) );
+    assertEquals( "", contextEngine.getStorage( renderContext ) );
+    verify( contextEngine, times( 1 ) ).readStorage( "suzy" );
+  }
+
   @Test
   public void buildContextConfigTest() throws Exception {
     String fullPath = "/public/admin/myDash.xcdf",
         user = "admin";
-    Document config = mock( Document.class );
+    Document doc = mock( Document.class );
+    ContextConfig config = new ContextConfig( doc, 0L );
 
     JSONObject jsonObject1 = new JSONObject(),
         jsonObject2 = new JSONObject( "{}" ),
         jsonObject3 = new JSONObject( "{ user: 'admin'}" );
 
-    doReturn( jsonObject2 ).when( contextEngine ).processAutoIncludes( fullPath, config );
+    doReturn( jsonObject2 ).when( contextEngine ).processAutoIncludes( fullPath, doc );
     doReturn( jsonObject3 ).when( contextEngine ).processSessionAttributes( config );
 
     contextEngine.buildContextConfig( jsonObject1, fullPath, config );
 
-    verify( contextEngine, times( 1 ) ).processAutoIncludes( fullPath, config );
+    verify( contextEngine, times( 1 ) ).processAutoIncludes( fullPath, doc );
     verify( contextEngine, times( 1 ) ).processSessionAttributes( config );
     assertTrue( jsonObject1.has( "queryData" ) );
     assertTrue( jsonObject1.has( "sessionAttributes" ) );
@@ -148,33 +174,120 @@ public class ContextEngineTest {
         autoInclude1, autoInclude2, autoInclude3
     ) );
     doReturn( autoIncludeList ).when( contextEngine ).getAutoIncludes( doc );
-    doNothing().when( contextEngine ).addCdaQuery( any( JSONObject.class ), anyString() );
+    doNothing().when( contextEngine ).addCdaQueries( any( JSONObject.class ), anyList() );
 
     contextEngine.processAutoIncludes( fullPath, doc );
 
     verify( contextEngine, times( 1 ) ).cdaExists();
     verify( autoIncludesFolder, times( 1 ) ).fileExists( "/public/cdf/includes" );
-    verify( contextEngine, times( 3 ) ).addCdaQuery( any( JSONObject.class ), anyString() );
+    verify( contextEngine, times( 1 ) ).addCdaQueries( any( JSONObject.class ), eq( asList(
+        "/public/cdf/includes/myDash1.cda", "/public/cdf/includes/myDash2.cda", "/public/cdf/includes/myDash3.cda" ) ) );
   }
 
   @Test
   public void getAutoIncludesTest() throws Exception {
     Document doc = mock( Document.class );
-    IUserContentAccess readAccess = mock( IUserContentAccess.class );
-
+    AutoIncludeIndex index = mock( AutoIncludeIndex.class );
     List<AutoInclude> autoIncludeList = new ArrayList<AutoInclude>();
-    doReturn( autoIncludeList ).when( contextEngine ).buildAutoIncludeList( any( Document.class ),
-        any( IReadAccess.class ) );
-    doReturn( readAccess ).when( contextEngine ).getUserContentAccess( anyString() );
-    doReturn( "/public/cdf" ).when( contextEngine ).getPluginRepositoryDir();
 
-    contextEngine.getAutoIncludes( doc );
-    verify( contextEngine, times( 1 ) ).getUserContentAccess( anyString() );
-    verify( contextEngine, times( 1 ) ).buildAutoIncludeList( any( Document.class ), any( IReadAccess.class ) );
+    doReturn( index ).when( contextEngine ).createAutoIncludeIndex( doc );
+    doReturn( true ).when( index ).isFor( doc );
+    doReturn( autoIncludeList ).when( index ).getAutoIncludes();
+    doReturn( false ).when( index ).isReady();
+    doReturn( true ).when( index ).startRefresh();
+    doNothing().when( contextEngine ).refreshAutoIncludeIndex( index );
+    doReturn( new Executor() {
+      @Override
+      public void execute( Runnable command ) {
+        command.run();
+      }
+    } ).when( contextEngine ).getAutoIncludesExecutor();
+
+    assertSame( autoIncludeList, contextEngine.getAutoIncludes( doc ) );
+    verify( contextEngine, times( 1 ) ).createAutoIncludeIndex( doc );
+    verify( contextEngine, times( 1 ) ).refreshAutoIncludeIndex( index );
 
+    // scanned recently, requests don't trigger a refresh
+    doReturn( true ).when( index ).isReady();
+    doReturn( System.currentTimeMillis() ).when( index ).getLastRefresh();
+    assertSame( autoIncludeList, contextEngine.getAutoIncludes( doc ) );
+    verify( contextEngine, times( 1 ) ).createAutoIncludeIndex( doc );
+    verify( contextEngine, times( 1 ) ).refreshAutoIncludeIndex( index );
+
+    // periodic rescan keeps the same index
+    doReturn( 0L ).when( index ).getLastRefresh();
     contextEngine.getAutoIncludes( doc );
-    verify( contextEngine, times( 1 ) ).getUserContentAccess( anyString() );
-    verify( contextEngine, times( 1 ) ).buildAutoIncludeList( any( Document.class ), any( IReadAccess.class ) );
+    verify( contextEngine, times( 1 ) ).createAutoIncludeIndex( doc );
+    verify( contextEngine, times( 2 ) ).refreshAutoIncludeIndex( index );
+    verify( contextEngine, never() ).getUserContentAccess( anyString() );
+  }
+
+  @Test
+  public void autoIncludesKeptOnClearCacheTest() throws Exception {
+    ContextEngine.shutdown();
+    final String config = "<context><autoincludes><autoinclude><cda>/public/cdf/includes/(.*)\\.cda</cda>"
+        + "<dashboards><include>.*</include></dashboards></autoinclude></autoincludes></context>";
+    IReadAccess configAccess = mock( IReadAccess.class );
+    doReturn( 1L ).when( configAccess ).getLastModified( anyString() );
+    doReturn( configAccess ).when( contextEngine ).getConfigFileAccess();
+    // each read parses a new document
+    doAnswer( new Answer<Document>() {
+      @Override
+      public Document answer( InvocationOnMock invocation ) throws Throwable {
+        return DocumentHelper.parseText( config );
+      }
+    } ).when( contextEngine ).getConfigFile();
+    doAnswer( new Answer<AutoIncludeIndex>() {
+      @Override
+      public AutoIncludeIndex answer( InvocationOnMock invocation ) throws Throwable {
+        return new AutoIncludeIndex( (Document) invocation.getArguments()[ 0 ] ) {
+          @Override
+          protected String getIncludesDir() {
+            return "/public/cdf/includes";
+          }
+        };
+      }
+    } ).when( contextEngine ).createAutoIncludeIndex( any( Document.class ) );
+
+    final IReadAccess cdaRoot = mock( IReadAccess.class );
+    IBasicFile cda = mock( IBasicFile.class );
+    doReturn( "sales.cda" ).when( cda ).getPath();
+    doReturn( asList( cda ) ).when( cdaRoot ).listFiles( anyString(), any( IBasicFileFilter.class ), anyInt(),
+        anyBoolean() );
+    doReturn( 1L ).when( cdaRoot ).getLastModified( "sales.cda" );
+    doAnswer( new Answer<Void>() {
+      @Override
+      public Void answer( InvocationOnMock invocation ) throws Throwable {
+        ( (AutoIncludeIndex) invocation.getArguments()[ 0 ] ).refresh( cdaRoot );
+        return null;
+      }
+    } ).when( contextEngine ).refreshAutoIncludeIndex( any( AutoIncludeIndex.class ) );
+    doReturn( new Executor() {
+      @Override
+      public void execute( Runnable command ) {
+        command.run();
+      }
+    } ).when( contextEngine ).getAutoIncludesExecutor();
+
+    try {
+      List<AutoInclude> before = contextEngine.getAutoIncludes( contextEngine.getContextConfig().getDocument() );
+      assertEquals( 1, before.size() );
+
+      // what clearCache does to the engine, the configuration is parsed again
+      contextEngine.clearConfig();
+      Document reloaded = contextEngine.getContextConfig().getDocument();
+      doReturn( new Executor() {
+        @Override
+        public void execute( Runnable command ) {
+          // rescan still running
+        }
+      } ).when( contextEngine ).getAutoIncludesExecutor();
+
+      assertSame( before, contextEngine.getAutoIncludes( reloaded ) );
+      verify( contextEngine, times( 1 ) ).createAutoIncludeIndex( any( Document.class ) );
+    } finally {
+      ContextEngine.shutdown();
+    }
   }
 
   @Test
@@ -218,6 +331,51 @@ public class ContextEngineTest {
     assertEquals( result.get( SESSION_ATTRIBUTE_TEST ), "test" );
   }
 
+  @Test
+  public void processSessionAttributesConfigTest() throws Exception {
+    Document doc = mock( Document.class );
+    Node userNode = mock( Node.class );
+    Node testNode = mock( Node.class );
+    Node nameNode = mock( Node.class );
+    doReturn( SESSION_ATTRIBUTE_USER ).when( userNode ).getText();
+    doReturn( SESSION_ATTRIBUTE_TEST ).when( testNode ).getText();
+    doReturn( "renamed" ).when( nameNode ).getText();
+    doReturn( nameNode ).when( testNode ).selectSingleNode( "@name" );
+    doReturn( new ArrayList<Node>( asList( userNode, testNode ) ) ).when( doc )
+        .selectNodes( "//sessionattributes/attribute" );
+
+    ContextConfig config = new ContextConfig( doc, 1L );
+
+    IPentahoSession session = mock( IPentahoSession.class );
+    doReturn( "admin" ).when( session ).getAttribute( SESSION_ATTRIBUTE_USER );
+    doReturn( "test" ).when( session ).getAttribute( SESSION_ATTRIBUTE_TEST );
+    doReturn( session ).when( contextEngine ).getUserSession();
+
+    JSONObject result = contextEngine.processSessionAttributes( config );
+    assertEquals( "admin", result.get( SESSION_ATTRIBUTE_USER ) );
+    assertEquals( "test", result.get( "renamed" ) );
+    // document is only queried when parsed
+    contextEngine.processSessionAttributes( config );
+    verify( doc, times( 1 ) ).selectNodes( "//sessionattributes/attribute" );
+  }
+
+  @Test
+  public void getContextConfigTest() throws Exception {
+    IReadAccess access = mock( IReadAccess.class );
+    doReturn( 1L ).when( access ).getLastModified( "dashboardContext.xml" );
+    doReturn( access ).when( contextEngine ).getConfigFileAccess();
+    Document doc = mock( Document.class );
+    doReturn( doc ).when( contextEngine ).getConfigFile();
+
+    ContextConfig config = contextEngine.getContextConfig();
+    assertSame( doc, config.getDocument() );
+    assertEquals( 1L, config.getVersion() );
+
+    assertSame( config, contextEngine.getContextConfig() );
+    verify( contextEngine, times( 1 ) ).getConfigFileAccess();
+    verify( contextEngine, times( 1 ) ).getConfigFile();
+  }
+
   @Test
   public void buildContextSessionTimeoutTest() throws Exception {
     JSONObject jsonObject = new JSONObject();
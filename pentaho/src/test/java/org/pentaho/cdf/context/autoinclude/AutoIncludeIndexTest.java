@@ -0,0 +1,163 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.context.autoinclude;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import pt.webdetails.cpf.repository.api.IBasicFile;
+import pt.webdetails.cpf.repository.api.IBasicFileFilter;
+import pt.webdetails.cpf.repository.api.IReadAccess;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+public class AutoIncludeIndexTest extends TestCase {
+
+  private static final String INCLUDES_DIR = "/public/cdf/includes";
+  private static final String CONFIG = "<context><autoincludes>"
+      + "<autoinclude><cda>/public/cdf/includes/(.*)/(.*?)\\.cda</cda><dashboards>"
+      + "<include>.*/$1/.*</include></dashboards></autoinclude>"
+      + "<autoinclude><cda>/public/cdf/includes/(sales)/(.*?)\\.cda</cda><dashboards>"
+      + "<include>/public/$1/.*</include></dashboards></autoinclude>"
+      + "</autoincludes></context>";
+
+  @Test
+  public void testRefresh() throws Exception {
+    Document config = DocumentHelper.parseText( CONFIG );
+    AutoIncludeIndex index = createIndex( config );
+    assertTrue( index.isFor( config ) );
+    assertFalse( index.isReady() );
+    assertTrue( index.getAutoIncludes().isEmpty() );
+
+    Map<String, Long> files = new HashMap<String, Long>();
+    files.put( "sales/q2.cda", 1L );
+    files.put( "hr/q1.cda", 1L );
+    files.put( "sales/q1.cda", 1L );
+    files.put( "q1.cda", 1L );
+    refresh( index, files );
+    assertTrue( index.isReady() );
+
+    // by configuration entry, then by path
+    assertEquals( Arrays.asList( "/public/cdf/includes/hr/q1.cda", "/public/cdf/includes/sales/q1.cda",
+        "/public/cdf/includes/sales/q2.cda", "/public/cdf/includes/sales/q1.cda",
+        "/public/cdf/includes/sales/q2.cda" ), getCdaPaths( index ) );
+  }
+
+  @Test
+  public void testRefreshChanges() throws Exception {
+    AutoIncludeIndex index = createIndex( DocumentHelper.parseText( CONFIG ) );
+    Map<String, Long> files = new HashMap<String, Long>();
+    files.put( "hr/q1.cda", 1L );
+    files.put( "sales/q1.cda", 1L );
+    refresh( index, files );
+
+    List<AutoInclude> before = index.getAutoIncludes();
+    files.remove( "sales/q1.cda" );
+    refresh( index, files );
+    assertEquals( Arrays.asList( "/public/cdf/includes/hr/q1.cda" ), getCdaPaths( index ) );
+    // snapshots already handed out are not changed
+    assertEquals( 3, before.size() );
+
+    // nothing changed, same snapshot
+    List<AutoInclude> current = index.getAutoIncludes();
+    refresh( index, files );
+    assertSame( current, index.getAutoIncludes() );
+
+    // new version, entries rebuilt
+    files.put( "hr/q1.cda", 2L );
+    refresh( index, files );
+    assertNotSame( current, index.getAutoIncludes() );
+    assertEquals( Arrays.asList( "/public/cdf/includes/hr/q1.cda" ), getCdaPaths( index ) );
+  }
+
+  @Test
+  public void testIsFor() throws Exception {
+    AutoIncludeIndex index = new AutoIncludeIndex( DocumentHelper.parseText( CONFIG ) );
+
+    // reloaded with the same entries
+    Document reloaded = DocumentHelper.parseText( CONFIG );
+    assertTrue( index.isFor( reloaded ) );
+    assertTrue( index.isFor( reloaded ) );
+
+    assertFalse( index.isFor( DocumentHelper.parseText( CONFIG.replace( "sales", "hr" ) ) ) );
+  }
+
+  @Test
+  public void testStartRefresh() throws Exception {
+    AutoIncludeIndex index = new AutoIncludeIndex( DocumentHelper.parseText( CONFIG ) );
+    assertTrue( index.startRefresh() );
+    assertFalse( index.startRefresh() );
+    index.abortRefresh();
+    assertTrue( index.startRefresh() );
+  }
+
+  private AutoIncludeIndex createIndex( Document config ) {
+    return new AutoIncludeIndex( config ) {
+      @Override
+      protected String getIncludesDir() {
+        return INCLUDES_DIR;
+      }
+    };
+  }
+
+  /**
+   * Refreshes the index against a mocked includes folder holding the given files and versions.
+   */
+  private void refresh( AutoIncludeIndex index, final Map<String, Long> files ) {
+    IReadAccess cdaRoot = mock( IReadAccess.class );
+    doAnswer( new Answer<List<IBasicFile>>() {
+      @Override
+      public List<IBasicFile> answer( InvocationOnMock invocation ) throws Throwable {
+        IBasicFileFilter filter = (IBasicFileFilter) invocation.getArguments()[ 1 ];
+        List<IBasicFile> result = new ArrayList<IBasicFile>();
+        for ( String path : files.keySet() ) {
+          IBasicFile file = mock( IBasicFile.class );
+          doReturn( path ).when( file ).getPath();
+          if ( filter.accept( file ) ) {
+            result.add( file );
+          }
+        }
+        return result;
+      }
+    } ).when( cdaRoot ).listFiles( anyString(), any( IBasicFileFilter.class ), anyInt(), anyBoolean() );
+    for ( Map.Entry<String, Long> file : files.entrySet() ) {
+      doReturn( file.getValue() ).when( cdaRoot ).getLastModified( file.getKey() );
+    }
+    assertTrue( index.startRefresh() );
+    index.refresh( cdaRoot );
+  }
+
+  private List<String> getCdaPaths( AutoIncludeIndex index ) {
+    List<String> cdaPaths = new ArrayList<String>();
+    for ( AutoInclude autoInclude : index.getAutoIncludes() ) {
+      cdaPaths.add( autoInclude.getCdaPath() );
+    }
+    return cdaPaths;
+  }
+}
@@ -0,0 +1,94 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.context.autoinclude;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+
+import junit.framework.TestCase;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.junit.Test;
+
+public class AutoIncludeMatcherTest extends TestCase {
+
+  private static final String CONFIG = "<context><autoincludes>"
+      + "<autoinclude><cda>/public/cdf/includes/(.*)/(.*?)\\.cda</cda><dashboards>"
+      + "<include>.*/$1/.*\\.wcdf</include><include>.*/$1/.*\\.xcdf</include>"
+      + "</dashboards></autoinclude>"
+      + "<autoinclude><cda>/public/cdf/includes/(sales)/(.*?)\\.cda</cda><dashboards>"
+      + "<include>/public/$1/.*</include><exclude>/public/$1/private/.*</exclude>"
+      + "</dashboards></autoinclude>"
+      + "</autoincludes></context>";
+
+  @Test
+  public void testGetCdaPaths() throws Exception {
+    List<AutoInclude> autoIncludes = buildAutoIncludes( "/public/cdf/includes/sales/q1.cda",
+        "/public/cdf/includes/hr/q2.cda", "/public/cdf/includes/sales/q3.cda" );
+    AutoIncludeMatcher matcher = new AutoIncludeMatcher( autoIncludes );
+
+    String[] dashboards = {
+      "/public/sales/dash.wcdf",
+      "/public/sales/private/dash.xcdf",
+      "/public/sales/dash.cdfde",
+      "/home/admin/hr/dash.xcdf",
+      "/public/other/dash.xcdf",
+      ""
+    };
+    for ( String dashboard : dashboards ) {
+      assertEquals( dashboard, linearMatch( autoIncludes, dashboard ), matcher.getCdaPaths( dashboard ) );
+    }
+    assertEquals( Arrays.asList( "/public/cdf/includes/sales/q1.cda", "/public/cdf/includes/sales/q3.cda",
+        "/public/cdf/includes/sales/q1.cda", "/public/cdf/includes/sales/q3.cda" ),
+        matcher.getCdaPaths( "/public/sales/dash.wcdf" ) );
+    assertSame( matcher.getCdaPaths( "/public/sales/dash.wcdf" ), matcher.getCdaPaths( "/public/sales/dash.wcdf" ) );
+    assertTrue( matcher.isFor( autoIncludes ) );
+  }
+
+  @Test
+  public void testGetLiteralPrefix() {
+    assertEquals( "/public/", AutoIncludeMatcher.getLiteralPrefix( "/public/.*" ) );
+    assertEquals( "/public/sales/", AutoIncludeMatcher.getLiteralPrefix( "/public/\\Qsales\\E/.*" ) );
+    assertEquals( "", AutoIncludeMatcher.getLiteralPrefix( ".*/\\Qsales\\E/.*" ) );
+    assertEquals( "", AutoIncludeMatcher.getLiteralPrefix( "/public/a|/home/b" ) );
+    assertEquals( "/publi", AutoIncludeMatcher.getLiteralPrefix( "/public?/.*" ) );
+    assertEquals( "a.b", AutoIncludeMatcher.getLiteralPrefix( "a\\.b\\d" ) );
+  }
+
+  private List<AutoInclude> buildAutoIncludes( String... cdaPaths ) throws Exception {
+    Document config = DocumentHelper.parseText( CONFIG );
+    List<AutoInclude> autoIncludes = new ArrayList<AutoInclude>();
+    for ( AutoIncludeConfig autoIncludeConfig : AutoIncludeConfig.getAutoIncludeConfigs( config ) ) {
+      for ( String cdaPath : cdaPaths ) {
+        Matcher matcher = autoIncludeConfig.getCdaRegex().matcher( cdaPath );
+        if ( matcher.matches() ) {
+          autoIncludes.add( new AutoInclude( cdaPath, matcher, autoIncludeConfig.getDashboardRules() ) );
+        }
+      }
+    }
+    return autoIncludes;
+  }
+
+  private List<String> linearMatch( List<AutoInclude> autoIncludes, String dashboardPath ) {
+    List<String> cdaPaths = new ArrayList<String>();
+    for ( AutoInclude autoInclude : autoIncludes ) {
+      if ( autoInclude.canInclude( dashboardPath ) ) {
+        cdaPaths.add( autoInclude.getCdaPath() );
+      }
+    }
+    return cdaPaths;
+  }
+}
@@ -0,0 +1,144 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.cdf.environment.broker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PentahoCdfInterPluginBrokerTest extends TestCase {
+
+  private TestBroker broker;
+
+  @Before
+  public void setUp() {
+    broker = new TestBroker();
+    broker.queries.put( "/a.cda", Arrays.asList( "q1", "q2" ) );
+    broker.queries.put( "/b.cda", Arrays.asList( "q3" ) );
+  }
+
+  @After
+  public void tearDown() {
+    broker.executor.shutdownNow();
+  }
+
+  @Test
+  public void testAddCdaQueries() throws Exception {
+    // first queries take longer
+    broker.delays.put( "q1", 300L );
+    broker.delays.put( "q2", 200L );
+    broker.delays.put( "q3", 100L );
+
+    JSONObject queries = new JSONObject();
+    long start = System.currentTimeMillis();
+    broker.addCdaQueries( queries, Arrays.asList( "/a.cda", "/b.cda" ) );
+    long elapsed = System.currentTimeMillis() - start;
+
+    assertEquals( 3, queries.length() );
+    assertEquals( "/a.cda", queries.getJSONObject( "q1" ).getString( "path" ) );
+    assertEquals( "/a.cda", queries.getJSONObject( "q2" ).getString( "path" ) );
+    assertEquals( "/b.cda", queries.getJSONObject( "q3" ).getString( "path" ) );
+    assertTrue( "queries should run concurrently, took " + elapsed, elapsed < 600L );
+  }
+
+  @Test
+  public void testAddCdaQueriesDeterministicMerge() throws Exception {
+    // same id in both files, later file wins as when executed one by one
+    broker.queries.put( "/b.cda", Arrays.asList( "q1" ) );
+    broker.delays.put( "q1", 100L );
+
+    JSONObject queries = new JSONObject();
+    broker.addCdaQueries( queries, Arrays.asList( "/a.cda", "/b.cda" ) );
+    assertEquals( "/b.cda", queries.getJSONObject( "q1" ).getString( "path" ) );
+  }
+
+  @Test
+  public void testAddCdaQueriesTimeout() throws Exception {
+    broker.timeout = 200L;
+    broker.delays.put( "q2", 5000L );
+
+    JSONObject queries = new JSONObject();
+    broker.addCdaQueries( queries, Arrays.asList( "/a.cda", "/b.cda" ) );
+
+    assertTrue( queries.has( "q1" ) );
+    assertFalse( queries.has( "q2" ) );
+    assertTrue( queries.has( "q3" ) );
+  }
+
+  @Test
+  public void testCdaQueriesCached() throws Exception {
+    broker.addCdaQueries( new JSONObject(), "/a.cda" );
+    broker.addCdaQueries( new JSONObject(), "/a.cda" );
+    assertEquals( 1, broker.listCalls.get() );
+
+    broker.version = 2L;
+    broker.addCdaQueries( new JSONObject(), "/a.cda" );
+    assertEquals( 2, broker.listCalls.get() );
+  }
+
+  private static class TestBroker extends PentahoCdfInterPluginBroker {
+    final Map<String, List<String>> queries = Collections.synchronizedMap( new HashMap<String, List<String>>() );
+    final Map<String, Long> delays = Collections.synchronizedMap( new HashMap<String, Long>() );
+    final AtomicInteger listCalls = new AtomicInteger();
+    final ExecutorService executor = Executors.newFixedThreadPool( 4 );
+    volatile long timeout = 10000L;
+    volatile long version = 1L;
+
+    @Override
+    public List<String> listCdaQueries( String cda ) {
+      listCalls.incrementAndGet();
+      return new ArrayList<String>( queries.get( cda ) );
+    }
+
+    @Override
+    public String executeCdaQuery( String path, String id ) {
+      Long delay = delays.get( id );
+      if ( delay != null ) {
+        try {
+          Thread.sleep( delay );
+        } catch ( InterruptedException e ) {
+          return null;
+        }
+      }
+      return "{ \"path\": \"" + path + "\" }";
+    }
+
+    @Override
+    protected long getCdaVersion( String cda ) {
+      return version;
+    }
+
+    @Override
+    protected long getQueryTimeout() {
+      return timeout;
+    }
+
+    @Override
+    protected synchronized ExecutorService getQueryExecutor() {
+      return executor;
+    }
+  }
+}
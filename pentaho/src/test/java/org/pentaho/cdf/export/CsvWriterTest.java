@@ -0,0 +1,110 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+package org.pentaho.cdf.export;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class CsvWriterTest extends TestCase {
+
+  @Test
+  public void testIsNumber() {
+    assertTrue( CsvWriter.isNumber( "0" ) );
+    assertTrue( CsvWriter.isNumber( "-12" ) );
+    assertTrue( CsvWriter.isNumber( "+1.5" ) );
+    assertTrue( CsvWriter.isNumber( ".5" ) );
+    assertTrue( CsvWriter.isNumber( "1." ) );
+    assertTrue( CsvWriter.isNumber( "1.2E-3" ) );
+    assertTrue( CsvWriter.isNumber( "3e10" ) );
+
+    assertFalse( CsvWriter.isNumber( "" ) );
+    assertFalse( CsvWriter.isNumber( "-" ) );
+    assertFalse( CsvWriter.isNumber( "." ) );
+    assertFalse( CsvWriter.isNumber( "1e" ) );
+    assertFalse( CsvWriter.isNumber( "1.2.3" ) );
+    assertFalse( CsvWriter.isNumber( " 1" ) );
+    assertFalse( CsvWriter.isNumber( "NaN" ) );
+    assertFalse( CsvWriter.isNumber( "12abc" ) );
+  }
+
+  @Test
+  public void testWriteRow() throws IOException {
+    StringWriter out = new StringWriter();
+    CsvWriter csv = new CsvWriter( out );
+
+    csv.writeRow( new String[] { "a", "1.5", "say \"hi\"", "x,\ny" } );
+    csv.writeRow( new String[] { "b", null, "ignored" } );
+    csv.flush();
+
+    assertEquals( "\"a\",1.5,\"say \"\"hi\"\"\",\"x,\ny\"\n\"b\",\n", out.toString() );
+  }
+
+  @Test
+  public void testSmallBuffer() throws IOException {
+    StringWriter out = new StringWriter();
+    CsvWriter csv = new CsvWriter( out, 4 );
+
+    csv.writeRow( new String[] { "abcdef", "123456789", "1" } );
+    csv.close();
+
+    assertEquals( "\"abcdef\",123456789,1\n", out.toString() );
+  }
+
+  @Test
+  public void testLargeExport() throws IOException {
+    final int rows = 100000;
+    final int columns = 10;
+    String[] row = new String[ columns ];
+    for ( int i = 0; i < columns; i++ ) {
+      row[ i ] = i % 2 == 0 ? "value \"" + i + "\"" : "-" + i + ".25";
+    }
+    CountingWriter out = new CountingWriter();
+    CsvWriter csv = new CsvWriter( out );
+
+    for ( int i = 0; i < rows; i++ ) {
+      csv.writeRow( row );
+    }
+    csv.close();
+
+    StringWriter single = new StringWriter();
+    CsvWriter singleCsv = new CsvWriter( single );
+    singleCsv.writeRow( row );
+    singleCsv.close();
+    assertEquals( (long) rows * single.toString().length(), out.count );
+    assertTrue( out.closed );
+  }
+
+  // 1M cells without keeping the output
+  private static class CountingWriter extends Writer {
+    private long count;
+    private boolean closed;
+
+    @Override
+    public void write( char[] cbuf, int off, int len ) {
+      count += len;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+package org.pentaho.cdf.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class ExportCSVTest extends TestCase {
+
+  @Test
+  public void testExportFile() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ExportCSV export = new ExportCSV( out );
+
+    export.exportFile(
+        new StringReader( "{\"metadata\": [\"name\", \"value\"], \"values\": [[\"a\", 1], [\"b\", 2]]}" ) );
+
+    assertEquals( "\"name\",\"value\"\n\"a\",1\n\"b\",2\n", out.toString( "UTF-8" ) );
+  }
+
+  @Test
+  public void testExportArray() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ExportCSV export = new ExportCSV( out );
+
+    export.export( new String[][] { { "a", "say \"hi\"" } } );
+
+    assertEquals( "\"a\",\"say \"\"hi\"\"\"\n", out.toString( "UTF-8" ) );
+  }
+}
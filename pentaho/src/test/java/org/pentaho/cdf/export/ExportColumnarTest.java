@@ -0,0 +1,242 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+package org.pentaho.cdf.export;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class ExportColumnarTest extends TestCase {
+
+  @Test
+  public void testTypedColumns() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ExportColumnar export = new ExportColumnar( out );
+
+    export.exportFile( new StringReader( "{\"metadata\": ["
+        + "{\"colIndex\": 0, \"colName\": \"name\", \"colType\": \"String\"},"
+        + "{\"colIndex\": 1, \"colName\": \"count\", \"colType\": \"Integer\"},"
+        + "{\"colIndex\": 2, \"colName\": \"ratio\", \"colType\": \"Numeric\"},"
+        + "{\"colIndex\": 3, \"colName\": \"flag\", \"colType\": \"Boolean\"}],"
+        + " \"resultset\": [[\"a\", 1, 0.5, true], [\"b\", null, -2, false], [null, 3, null, null],"
+        + " [\"a\", 4, 1e3, false]]}" ) );
+
+    Result result = read( out.toByteArray() );
+    assertEquals( "[name, count, ratio, flag]", result.names.toString() );
+    assertEquals( "[0, 1, 2, 3]", result.types.toString() );
+    assertEquals( 1, result.batches );
+    assertEquals( "[a, 1, 0.5, true]", result.rows.get( 0 ).toString() );
+    assertEquals( "[b, null, -2.0, false]", result.rows.get( 1 ).toString() );
+    // a null string is absent, not the text "null"
+    assertEquals( "[null, 3, null, null]", result.rows.get( 2 ).toString() );
+    assertEquals( "[a, 4, 1000.0, false]", result.rows.get( 3 ).toString() );
+    // repeated strings are written once
+    assertEquals( 2, result.dictionaryEntries );
+  }
+
+  @Test
+  public void testInvalidValue() throws IOException {
+    ExportColumnar export = new ExportColumnar( new ByteArrayOutputStream() );
+    try {
+      export.exportFile( new StringReader( "{\"metadata\": [{\"colName\": \"ratio\", \"colType\": \"Numeric\"}],"
+          + " \"resultset\": [[0.5], [\"NaN\"]]}" ) );
+      fail( "IOException expected" );
+    } catch ( IOException e ) {
+      assertEquals( "Invalid value 'NaN' in column ratio", e.getMessage() );
+    }
+  }
+
+  @Test
+  public void testBatches() throws IOException {
+    int size = ExportColumnar.BATCH_SIZE * 2 + 1;
+    String[][] rows = new String[ size ][];
+    for ( int i = 0; i < size; i++ ) {
+      rows[ i ] = i % 2 == 0 ? new String[] { "odd" + ( i % 3 ), "x" } : new String[] { "even", null };
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new ExportColumnar( out ).export( rows );
+
+    Result result = read( out.toByteArray() );
+    assertEquals( "[, ]", result.names.toString() );
+    assertEquals( "[0, 0]", result.types.toString() );
+    assertEquals( 3, result.batches );
+    assertEquals( size, result.rows.size() );
+    for ( int i = 0; i < size; i++ ) {
+      List<Object> row = result.rows.get( i );
+      assertEquals( rows[ i ][ 0 ], row.get( 0 ) );
+      assertEquals( rows[ i ][ 1 ], row.get( 1 ) );
+    }
+    assertEquals( 5, result.dictionaryEntries );
+  }
+
+  @Test
+  public void testMetadataAfterValues() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ExportColumnar export = new ExportColumnar( out );
+
+    export.exportFile( new StringReader( "{\"values\": [[\"a\", 1], [\"b\", 2]], \"metadata\": ["
+        + "{\"colName\": \"name\", \"colType\": \"String\"}, {\"colName\": \"count\", \"colType\": \"Integer\"}]}" ) );
+
+    // columns can't be told before the values, they are unnamed strings and the first row is kept
+    Result result = read( out.toByteArray() );
+    assertEquals( "[, ]", result.names.toString() );
+    assertEquals( "[0, 0]", result.types.toString() );
+    assertEquals( 2, result.rows.size() );
+    assertEquals( "[a, 1]", result.rows.get( 0 ).toString() );
+    assertEquals( "[b, 2]", result.rows.get( 1 ).toString() );
+  }
+
+  @Test
+  public void testNoResults() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ExportColumnar export = new ExportColumnar( out );
+
+    export.exportFile( new StringReader( "{\"metadata\": [{\"colName\": \"name\", \"colType\": \"String\"},"
+        + " {\"colName\": \"count\", \"colType\": \"Integer\"}], \"resultset\": []}" ) );
+
+    Result result = read( out.toByteArray() );
+    assertEquals( "[name, count]", result.names.toString() );
+    assertEquals( "[0, 1]", result.types.toString() );
+    assertEquals( 0, result.batches );
+    assertTrue( result.rows.isEmpty() );
+
+    out = new ByteArrayOutputStream();
+    export = new ExportColumnar( out );
+    export.exportFile( new StringReader( "{\"values\": []}" ) );
+
+    result = read( out.toByteArray() );
+    assertTrue( result.names.isEmpty() );
+    assertEquals( 0, result.batches );
+    assertTrue( result.rows.isEmpty() );
+  }
+
+  @Test
+  public void testGetType() {
+    assertEquals( ExportColumnar.TYPE_STRING, ExportColumnar.getType( null ) );
+    assertEquals( ExportColumnar.TYPE_STRING, ExportColumnar.getType( "Date" ) );
+    assertEquals( ExportColumnar.TYPE_INTEGER, ExportColumnar.getType( "Integer" ) );
+    assertEquals( ExportColumnar.TYPE_NUMERIC, ExportColumnar.getType( "NUMERIC" ) );
+    assertEquals( ExportColumnar.TYPE_BOOLEAN, ExportColumnar.getType( "Boolean" ) );
+  }
+
+  @Test
+  public void testIsInteger() {
+    assertTrue( ExportColumnar.isInteger( "0" ) );
+    assertTrue( ExportColumnar.isInteger( "-123" ) );
+    assertFalse( ExportColumnar.isInteger( "" ) );
+    assertFalse( ExportColumnar.isInteger( "-" ) );
+    assertFalse( ExportColumnar.isInteger( "1.0" ) );
+    assertFalse( ExportColumnar.isInteger( "1234567890123456789" ) );
+  }
+
+  private static class Result {
+    private List<String> names = new ArrayList<String>();
+    private List<Byte> types = new ArrayList<Byte>();
+    private List<List<Object>> rows = new ArrayList<List<Object>>();
+    private int batches;
+    private int dictionaryEntries;
+  }
+
+  /**
+   * Reads the whole file as documented in {@link ExportColumnar}.
+   */
+  private static Result read( byte[] file ) throws IOException {
+    DataInputStream in = new DataInputStream( new ByteArrayInputStream( file ) );
+    byte[] magic = new byte[ 4 ];
+    in.readFully( magic );
+    assertEquals( "CDFC", new String( magic, "US-ASCII" ) );
+    assertEquals( ExportColumnar.VERSION, in.readUnsignedByte() );
+
+    Result result = new Result();
+    int columns = in.readInt();
+    List<List<String>> dictionaries = new ArrayList<List<String>>();
+    for ( int j = 0; j < columns; j++ ) {
+      result.names.add( readString( in ) );
+      result.types.add( in.readByte() );
+      dictionaries.add( new ArrayList<String>() );
+    }
+
+    int size;
+    while ( ( size = in.readInt() ) > 0 ) {
+      result.batches++;
+      List<List<Object>> batch = new ArrayList<List<Object>>();
+      for ( int i = 0; i < size; i++ ) {
+        batch.add( new ArrayList<Object>() );
+      }
+      for ( int j = 0; j < columns; j++ ) {
+        byte[] present = readBits( in, size );
+        Object[] values = new Object[ size ];
+        switch ( result.types.get( j ) ) {
+          case ExportColumnar.TYPE_INTEGER:
+            for ( int i = 0; i < size; i++ ) {
+              values[ i ] = in.readLong();
+            }
+            break;
+          case ExportColumnar.TYPE_NUMERIC:
+            for ( int i = 0; i < size; i++ ) {
+              values[ i ] = in.readDouble();
+            }
+            break;
+          case ExportColumnar.TYPE_BOOLEAN:
+            byte[] bits = readBits( in, size );
+            for ( int i = 0; i < size; i++ ) {
+              values[ i ] = isSet( bits, i );
+            }
+            break;
+          default:
+            List<String> dictionary = dictionaries.get( j );
+            if ( in.readByte() == 1 ) {
+              dictionary.clear();
+            }
+            int entries = in.readInt();
+            result.dictionaryEntries += entries;
+            for ( int k = 0; k < entries; k++ ) {
+              dictionary.add( readString( in ) );
+            }
+            for ( int i = 0; i < size; i++ ) {
+              values[ i ] = dictionary.get( in.readInt() );
+            }
+        }
+        for ( int i = 0; i < size; i++ ) {
+          batch.get( i ).add( isSet( present, i ) ? values[ i ] : null );
+        }
+      }
+      result.rows.addAll( batch );
+    }
+    assertEquals( -1, in.read() );
+    return result;
+  }
+
+  private static String readString( DataInputStream in ) throws IOException {
+    byte[] bytes = new byte[ in.readInt() ];
+    in.readFully( bytes );
+    return new String( bytes, "UTF-8" );
+  }
+
+  private static byte[] readBits( DataInputStream in, int size ) throws IOException {
+    byte[] bits = new byte[ ( size + 7 ) / 8 ];
+    in.readFully( bits );
+    return bits;
+  }
+
+  private static boolean isSet( byte[] bits, int i ) {
+    return ( bits[ i >> 3 ] & ( 1 << ( i & 7 ) ) ) != 0;
+  }
+}
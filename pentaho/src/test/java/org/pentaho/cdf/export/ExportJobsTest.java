@@ -0,0 +1,209 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+package org.pentaho.cdf.export;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import pt.webdetails.cpf.utils.MimeTypes;
+
+public class ExportJobsTest extends TestCase {
+
+  private static final long TIMEOUT = 5000L;
+
+  private ExportJobs exportJobs;
+
+  @Override
+  protected void tearDown() throws Exception {
+    if ( exportJobs != null ) {
+      exportJobs.close();
+    }
+  }
+
+  @Test
+  public void testExport() throws Exception {
+    exportJobs = new ExportJobs( 1, 1, 60000L );
+
+    ExportJob job = exportJobs.submit( "user", false, write( "a,b\n" ) );
+    waitFor( job );
+
+    assertEquals( ExportJob.Status.DONE, job.getStatus() );
+    assertEquals( ".csv", job.getExtension() );
+    assertEquals( MimeTypes.CSV, job.getMimeType() );
+    assertEquals( "a,b\n", read( new FileInputStream( job.getFile() ) ) );
+    assertSame( job, exportJobs.get( job.getId(), "user" ) );
+    assertNull( exportJobs.get( job.getId(), "other" ) );
+    assertNull( exportJobs.get( "unknown", "user" ) );
+  }
+
+  @Test
+  public void testGzipExport() throws Exception {
+    exportJobs = new ExportJobs( 1, 1, 60000L );
+
+    ExportJob job = exportJobs.submit( "user", true, write( "a,b\n" ) );
+    waitFor( job );
+
+    assertEquals( ExportJob.Status.DONE, job.getStatus() );
+    assertEquals( "a,b\n", read( new GZIPInputStream( new FileInputStream( job.getFile() ) ) ) );
+  }
+
+  @Test
+  public void testFailedExport() throws Exception {
+    exportJobs = new ExportJobs( 1, 1, 60000L );
+
+    ExportJob job = exportJobs.submit( "user", false, new ExportJobs.Task() {
+      @Override
+      public IExport run( OutputStream out ) throws Exception {
+        throw new IOException( "broken" );
+      }
+    } );
+    waitFor( job );
+
+    assertEquals( ExportJob.Status.FAILED, job.getStatus() );
+    // the cause is only logged
+    assertEquals( ExportJobs.FAILED_MESSAGE, job.getError() );
+    assertNull( job.getFile() );
+    assertEquals( "FAILED", job.toJson().getString( "status" ) );
+  }
+
+  @Test
+  public void testInvalidResultSet() throws Exception {
+    exportJobs = new ExportJobs( 1, 1, 60000L );
+
+    ExportJob job = exportJobs.submit( "user", false, new ExportJobs.Task() {
+      @Override
+      public IExport run( OutputStream out ) throws Exception {
+        ExportCSV export = new ExportCSV( out );
+        export.exportFile( new StringReader( "{\"metadata\": [\"name\"], \"values\": [[\"a\"], [\"b\"" ) );
+        return export;
+      }
+    } );
+    waitFor( job );
+
+    // a truncated result set must not end up as a finished export
+    assertEquals( ExportJob.Status.FAILED, job.getStatus() );
+    assertEquals( ExportJobs.FAILED_MESSAGE, job.getError() );
+    assertNull( job.getFile() );
+  }
+
+  @Test
+  public void testCleanup() throws Exception {
+    exportJobs = new ExportJobs( 1, 1, 0L );
+
+    ExportJob job = exportJobs.submit( "user", false, write( "a" ) );
+    waitFor( job );
+    File file = job.getFile();
+    assertTrue( file.exists() );
+
+    exportJobs.cleanup();
+
+    assertFalse( file.exists() );
+    assertNull( exportJobs.get( job.getId(), "user" ) );
+  }
+
+  @Test
+  public void testCloseWhileRunning() throws Exception {
+    exportJobs = new ExportJobs( 1, 1, 60000L );
+    final CountDownLatch started = new CountDownLatch( 1 );
+
+    ExportJob job = exportJobs.submit( "user", false, new ExportJobs.Task() {
+      @Override
+      public IExport run( OutputStream out ) throws Exception {
+        started.countDown();
+        try {
+          Thread.sleep( TIMEOUT );
+        } catch ( InterruptedException e ) {
+          // finishes anyway
+        }
+        out.write( 'a' );
+        return new ExportCSV( out );
+      }
+    } );
+    started.await();
+    exportJobs.close();
+    exportJobs = null;
+
+    // the job ended before close returned, without keeping a file
+    assertTrue( job.isFinished() );
+    assertEquals( ExportJob.Status.FAILED, job.getStatus() );
+    assertNull( job.getFile() );
+  }
+
+  @Test
+  public void testQueueFull() throws Exception {
+    exportJobs = new ExportJobs( 1, 1, 60000L );
+    final CountDownLatch started = new CountDownLatch( 1 );
+    final CountDownLatch release = new CountDownLatch( 1 );
+
+    ExportJob running = exportJobs.submit( "user", false, new ExportJobs.Task() {
+      @Override
+      public IExport run( OutputStream out ) throws Exception {
+        started.countDown();
+        release.await();
+        return new ExportCSV( out );
+      }
+    } );
+    started.await();
+    ExportJob queued = exportJobs.submit( "user", false, write( "a" ) );
+    assertEquals( ExportJob.Status.RUNNING, running.getStatus() );
+    assertEquals( ExportJob.Status.QUEUED, queued.getStatus() );
+
+    try {
+      exportJobs.submit( "user", false, write( "b" ) );
+      fail( "RejectedExecutionException expected" );
+    } catch ( RejectedExecutionException e ) {
+      // expected
+    }
+
+    release.countDown();
+    waitFor( queued );
+    assertEquals( ExportJob.Status.DONE, queued.getStatus() );
+  }
+
+  private static ExportJobs.Task write( final String content ) {
+    return new ExportJobs.Task() {
+      @Override
+      public IExport run( OutputStream out ) throws Exception {
+        out.write( content.getBytes( "UTF-8" ) );
+        return new ExportCSV( out );
+      }
+    };
+  }
+
+  private static void waitFor( ExportJob job ) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while ( !job.isFinished() && System.currentTimeMillis() < deadline ) {
+      Thread.sleep( 10 );
+    }
+    assertTrue( job.isFinished() );
+  }
+
+  private static String read( InputStream in ) throws IOException {
+    try {
+      return IOUtils.toString( in, "UTF-8" );
+    } finally {
+      in.close();
+    }
+  }
+}
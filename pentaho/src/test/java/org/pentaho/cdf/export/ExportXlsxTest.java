@@ -0,0 +1,70 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+package org.pentaho.cdf.export;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class ExportXlsxTest extends TestCase {
+
+  @Test
+  public void testExport() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ExportXlsx export = new ExportXlsx( out );
+
+    export.export( new String[][] { { "name", "value" }, { "a & <b>", "1.5" }, { "c", null, "ignored" } } );
+
+    List<String> entries = new ArrayList<String>();
+    String sheet = null;
+    ZipInputStream zip = new ZipInputStream( new ByteArrayInputStream( out.toByteArray() ) );
+    ZipEntry entry;
+    while ( ( entry = zip.getNextEntry() ) != null ) {
+      entries.add( entry.getName() );
+      if ( "xl/worksheets/sheet1.xml".equals( entry.getName() ) ) {
+        sheet = IOUtils.toString( zip, "UTF-8" );
+      }
+    }
+
+    assertTrue( entries.contains( "[Content_Types].xml" ) );
+    assertTrue( entries.contains( "xl/workbook.xml" ) );
+    assertTrue( entries.contains( "xl/styles.xml" ) );
+    assertNotNull( sheet );
+    assertTrue( sheet.contains(
+        "<c r=\"B1\" s=\"2\" t=\"inlineStr\"><is><t xml:space=\"preserve\">value</t></is></c>" ) );
+    assertTrue( sheet.contains( "<t xml:space=\"preserve\">a &amp; &lt;b&gt;</t>" ) );
+    assertTrue( sheet.contains( "<c r=\"B2\" s=\"4\"><v>1.5</v></c>" ) );
+    assertTrue( sheet.contains(
+        "<row r=\"3\"><c r=\"A3\" s=\"3\" t=\"inlineStr\"><is><t xml:space=\"preserve\">c</t></is></c></row>" ) );
+    assertFalse( sheet.contains( "ignored" ) );
+    assertTrue( sheet.endsWith( "</sheetData></worksheet>" ) );
+  }
+
+  @Test
+  public void testColumnNames() {
+    assertEquals( "A", ExportXlsx.toColumnName( 0 ) );
+    assertEquals( "Z", ExportXlsx.toColumnName( 25 ) );
+    assertEquals( "AA", ExportXlsx.toColumnName( 26 ) );
+    assertEquals( "ZZ", ExportXlsx.toColumnName( 701 ) );
+    assertEquals( "AAA", ExportXlsx.toColumnName( 702 ) );
+    assertEquals( "XFD", ExportXlsx.toColumnName( ExportXlsx.MAX_COLUMNS - 1 ) );
+  }
+}
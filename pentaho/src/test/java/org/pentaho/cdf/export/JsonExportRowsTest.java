@@ -0,0 +1,140 @@
+/*!
+ * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+package org.pentaho.cdf.export;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class JsonExportRowsTest extends TestCase {
+
+  @Test
+  public void testHeaderAndRows() throws IOException {
+    List<String[]> rows = readAll( "{\"metadata\": [\"a\", \"b\"], \"values\": [[\"x\", 1], [\"y\", 2.5]]}" );
+
+    assertEquals( 3, rows.size() );
+    assertEquals( "a,b", join( rows.get( 0 ) ) );
+    assertEquals( "x,1", join( rows.get( 1 ) ) );
+    assertEquals( "y,2.5", join( rows.get( 2 ) ) );
+  }
+
+  @Test
+  public void testResultSetWithColumnObjects() throws IOException {
+    List<String[]> rows = readAll( "{\"metadata\": [{\"colIndex\": 0, \"colName\": \"name\"}],"
+        + " \"resultset\": [[\"x\"]], \"queryInfo\": {}}" );
+
+    assertEquals( 2, rows.size() );
+    assertEquals( "name", join( rows.get( 0 ) ) );
+    assertEquals( "x", join( rows.get( 1 ) ) );
+  }
+
+  @Test
+  public void testColumnTypes() throws IOException {
+    IExportRows rows = new JsonExportRows( new StringReader( "{\"metadata\": [{\"colName\": \"name\", \"colType\":"
+        + " \"String\"}, {\"colName\": \"value\"}], \"resultset\": [[\"x\", 1]]}" ) );
+    assertNull( rows.getColumnNames() );
+    assertNull( rows.getColumnTypes() );
+
+    assertEquals( "name,value", join( rows.nextRow() ) );
+    assertEquals( "name,value", join( rows.getColumnNames() ) );
+    assertFalse( rows.isEmpty() );
+    String[] types = rows.getColumnTypes();
+    assertEquals( 2, types.length );
+    assertEquals( "String", types[ 0 ] );
+    assertNull( types[ 1 ] );
+
+    rows = new JsonExportRows( new StringReader( "{\"metadata\": [\"a\"], \"values\": [[\"x\"]]}" ) );
+    rows.nextRow();
+    assertNull( rows.getColumnTypes() );
+  }
+
+  @Test
+  public void testNulls() throws IOException {
+    IExportRows rows = new JsonExportRows( new StringReader( "{\"metadata\": [\"a\", \"b\"],"
+        + " \"values\": [[null, \"x\"], [\"null\", 1]]}" ) );
+
+    rows.nextRow();
+    assertFalse( rows.isNull( 0 ) );
+    // the text is kept for exports that write it
+    assertEquals( "null,x", join( rows.nextRow() ) );
+    assertTrue( rows.isNull( 0 ) );
+    assertFalse( rows.isNull( 1 ) );
+    assertEquals( "null,1", join( rows.nextRow() ) );
+    assertFalse( rows.isNull( 0 ) );
+  }
+
+  @Test
+  public void testMetadataAfterRows() throws IOException {
+    List<String[]> rows = readAll( "{\"values\": [[\"x\"], [\"y\"]], \"metadata\": [\"a\"]}" );
+
+    assertEquals( 2, rows.size() );
+    assertEquals( "x", join( rows.get( 0 ) ) );
+    assertEquals( "y", join( rows.get( 1 ) ) );
+
+    IExportRows exportRows = new JsonExportRows( new StringReader( "{\"values\": [[\"x\"]], \"metadata\": [\"a\"]}" ) );
+    exportRows.nextRow();
+    assertNull( exportRows.getColumnNames() );
+  }
+
+  @Test
+  public void testNoResults() throws IOException {
+    List<String[]> rows = readAll( "{\"metadata\": [\"a\"], \"values\": []}" );
+    assertEquals( 1, rows.size() );
+    assertEquals( JsonExportRows.NO_RESULTS, join( rows.get( 0 ) ) );
+
+    // the metadata still gives the columns
+    IExportRows exportRows = new JsonExportRows( new StringReader( "{\"metadata\": [\"a\"], \"values\": []}" ) );
+    exportRows.nextRow();
+    assertTrue( exportRows.isEmpty() );
+    assertEquals( "a", join( exportRows.getColumnNames() ) );
+
+    rows = readAll( "{\"metadata\": [\"a\"]}" );
+    assertEquals( 1, rows.size() );
+    assertEquals( JsonExportRows.NO_RESULTS, join( rows.get( 0 ) ) );
+  }
+
+  @Test
+  public void testInvalidResultSet() {
+    try {
+      readAll( "{\"values\": [\"x\"]}" );
+      fail( "IOException expected" );
+    } catch ( IOException e ) {
+      // expected
+    }
+  }
+
+  private static List<String[]> readAll( String json ) throws IOException {
+    IExportRows rows = new JsonExportRows( new StringReader( json ) );
+    List<String[]> result = new ArrayList<String[]>();
+    String[] row;
+    while ( ( row = rows.nextRow() ) != null ) {
+      result.add( row );
+    }
+    return result;
+  }
+
+  private static String join( String[] row ) {
+    StringBuilder sb = new StringBuilder();
+    for ( int i = 0; i < row.length; i++ ) {
+      if ( i > 0 ) {
+        sb.append( ',' );
+      }
+      sb.append( row[ i ] );
+    }
+    return sb.toString();
+  }
+}
@@ -13,19 +13,26 @@
 
 package org.pentaho.cdf.render;
 
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Locale;
 
 import junit.framework.TestCase;
 import org.json.JSONException;
 import org.junit.Before;
 import org.junit.Test;
+import org.pentaho.cdf.context.RenderContext;
 import org.pentaho.cdf.environment.templater.ITemplater;
 import pt.webdetails.cpf.localization.MessageBundlesHelper;
 import pt.webdetails.cpf.repository.api.IBasicFile;
 import pt.webdetails.cpf.repository.api.IReadAccess;
+import pt.webdetails.cpf.utils.CharsetHelper;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import static org.mockito.Mockito.*;
 
@@ -35,6 +42,10 @@ public class CdfHtmlRendererTest extends TestCase {
   @Before
   public void setUp() {
     cdfHtmlRenderer = spy( new CdfHtmlRenderer() );
+    doReturn( false ).when( cdfHtmlRenderer ).isStreamingRender();
+    doReturn( new DashboardTemplateCache() ).when( cdfHtmlRenderer ).getTemplateCache();
+    doReturn( Locale.ENGLISH ).when( cdfHtmlRenderer ).getLocale();
+    doReturn( mock( RenderContext.class ) ).when( cdfHtmlRenderer ).createRenderContext( anyString() );
     try {
       doReturn( "" ).when( cdfHtmlRenderer )
         .getConfiguration(  anyString(), any( HashMap.class ), anyInt() );
@@ -89,16 +100,18 @@ public class CdfHtmlRendererTest extends TestCase {
 
     doNothing().when( cdfHtmlRenderer )
       .getHeadersInternal( anyString(), any( HashMap.class ), any( OutputStream.class ) );
-    doNothing().when( cdfHtmlRenderer ).generateContext( any( OutputStream.class ), any( HashMap.class ), anyInt() );
-    doNothing().when( cdfHtmlRenderer ).generateStorage( any( OutputStream.class ), anyString() );
+    doNothing().when( cdfHtmlRenderer )
+      .generateContext( any( OutputStream.class ), any( RenderContext.class ), any( HashMap.class ), anyInt() );
+    doNothing().when( cdfHtmlRenderer ).generateStorage( any( OutputStream.class ), any( RenderContext.class ) );
 
     cdfHtmlRenderer.execute( outputStream, basicFile, style, messages, parameterMap, user, inactiveInterval,
       /*isRequire*/true, /*loadTheme*/false );
 
     verify( cdfHtmlRenderer, times( 0 ) )
       .getHeadersInternal( anyString(), any( HashMap.class ), any( OutputStream.class ) );
-    verify( cdfHtmlRenderer, times( 0 ) ).generateContext( any( OutputStream.class ), any( HashMap.class ), anyInt() );
-    verify( cdfHtmlRenderer, times( 0 ) ).generateStorage( any( OutputStream.class ), anyString() );
+    verify( cdfHtmlRenderer, times( 0 ) )
+      .generateContext( any( OutputStream.class ), any( RenderContext.class ), any( HashMap.class ), anyInt() );
+    verify( cdfHtmlRenderer, times( 0 ) ).generateStorage( any( OutputStream.class ), any( RenderContext.class ) );
     verify( cdfHtmlRenderer, times( 1 ) ).getWebContextHeader( any( OutputStream.class ), anyBoolean() );
 
     cdfHtmlRenderer.execute( outputStream, basicFile, style, messages, parameterMap, user, inactiveInterval,
@@ -106,8 +119,9 @@ public class CdfHtmlRendererTest extends TestCase {
 
     verify( cdfHtmlRenderer, times( 1 ) )
       .getHeadersInternal( anyString(), any( HashMap.class ), any( OutputStream.class ) );
-    verify( cdfHtmlRenderer, times( 1 ) ).generateContext( any( OutputStream.class ), any( HashMap.class ), anyInt() );
-    verify( cdfHtmlRenderer, times( 1 ) ).generateStorage( any( OutputStream.class ), anyString() );
+    verify( cdfHtmlRenderer, times( 1 ) )
+      .generateContext( any( OutputStream.class ), any( RenderContext.class ), any( HashMap.class ), anyInt() );
+    verify( cdfHtmlRenderer, times( 1 ) ).generateStorage( any( OutputStream.class ), any( RenderContext.class ) );
     verify( cdfHtmlRenderer, times( 1 ) ).getWebContextHeader( any( OutputStream.class ), anyBoolean() );
 
     cdfHtmlRenderer.execute( outputStream, basicFile, style, messages, parameterMap, user, inactiveInterval,
@@ -115,8 +129,9 @@ public class CdfHtmlRendererTest extends TestCase {
 
     verify( cdfHtmlRenderer, times( 1 ) )
       .getHeadersInternal( anyString(), any( HashMap.class ), any( OutputStream.class ) );
-    verify( cdfHtmlRenderer, times( 1 ) ).generateContext( any( OutputStream.class ), any( HashMap.class ), anyInt() );
-    verify( cdfHtmlRenderer, times( 1 ) ).generateStorage( any( OutputStream.class ), anyString() );
+    verify( cdfHtmlRenderer, times( 1 ) )
+      .generateContext( any( OutputStream.class ), any( RenderContext.class ), any( HashMap.class ), anyInt() );
+    verify( cdfHtmlRenderer, times( 1 ) ).generateStorage( any( OutputStream.class ), any( RenderContext.class ) );
     verify( cdfHtmlRenderer, times( 2 ) ).getWebContextHeader( any( OutputStream.class ), anyBoolean() );
 
     cdfHtmlRenderer.execute( outputStream, basicFile, style, messages, parameterMap, user, inactiveInterval,
@@ -124,8 +139,137 @@ public class CdfHtmlRendererTest extends TestCase {
 
     verify( cdfHtmlRenderer, times( 2 ) )
       .getHeadersInternal( anyString(), any( HashMap.class ), any( OutputStream.class ) );
-    verify( cdfHtmlRenderer, times( 2 ) ).generateContext( any( OutputStream.class ), any( HashMap.class ), anyInt() );
-    verify( cdfHtmlRenderer, times( 2 ) ).generateStorage( any( OutputStream.class ), anyString() );
+    verify( cdfHtmlRenderer, times( 2 ) )
+      .generateContext( any( OutputStream.class ), any( RenderContext.class ), any( HashMap.class ), anyInt() );
+    verify( cdfHtmlRenderer, times( 2 ) ).generateStorage( any( OutputStream.class ), any( RenderContext.class ) );
     verify( cdfHtmlRenderer, times( 2 ) ).getWebContextHeader( any( OutputStream.class ), anyBoolean() );
   }
+
+  @Test
+  public void testExecuteStreaming() throws Exception {
+    IBasicFile basicFile = mock( IBasicFile.class );
+    IBasicFile templateFile = mock( IBasicFile.class );
+    IReadAccess systemAccess = mock( IReadAccess.class );
+    doReturn( true ).when( systemAccess ).fileExists( "template-dashboard.html" );
+    doReturn( templateFile ).when( systemAccess ).fetchFile( "template-dashboard.html" );
+    doReturn( systemAccess ).when( cdfHtmlRenderer ).getPluginSystemReader( null );
+    doReturn( mock( IReadAccess.class ) ).when( cdfHtmlRenderer ).getPluginRepositoryReader( "templates/" );
+    doReturn( "template" ).when( cdfHtmlRenderer ).getContentString( any( InputStream.class ) );
+
+    ITemplater templater = mock( ITemplater.class );
+    String intro = "<html><head><title>a\u00e7\u00e3o</title></head><body>";
+    doReturn( intro ).when( templater ).getTemplateSection( anyString(), eq( ITemplater.Section.HEADER ) );
+    doReturn( "</body></html>" ).when( templater ).getTemplateSection( anyString(), eq( ITemplater.Section.FOOTER ) );
+    doReturn( templater ).when( cdfHtmlRenderer ).getTemplater();
+
+    doReturn( "" ).when( cdfHtmlRenderer ).updateUserLanguageKey( anyString() );
+    doReturn( "" ).when( cdfHtmlRenderer ).processi18nTags( anyString(), any( ArrayList.class ) );
+    doReturn( "<div>\u20ac dashboard</div>\n" ).when( cdfHtmlRenderer )
+      .getDashboardContent( any( InputStream.class ), any( ArrayList.class ) );
+    doReturn( "/public/cdf" ).when( cdfHtmlRenderer ).getPluginRepositoryDir();
+    MessageBundlesHelper mbh = mock( MessageBundlesHelper.class );
+    doReturn( intro ).when( mbh ).replaceParameters( anyString(), any( ArrayList.class ) );
+    doReturn( mbh ).when( cdfHtmlRenderer ).getMessageBundlesHelper( anyString() );
+    doAnswer( new WriteAnswer( "<script src=\"headers.js\"></script>" ) ).when( cdfHtmlRenderer )
+      .getHeadersInternal( anyString(), any( HashMap.class ), any( OutputStream.class ) );
+    doAnswer( new WriteAnswer( "<script>context</script>" ) ).when( cdfHtmlRenderer )
+      .generateContext( any( OutputStream.class ), any( RenderContext.class ), any( HashMap.class ), anyInt() );
+    doAnswer( new WriteAnswer( "<script>storage</script>" ) ).when( cdfHtmlRenderer )
+      .generateStorage( any( OutputStream.class ), any( RenderContext.class ) );
+
+    for ( boolean isRequire : new boolean[] { false, true } ) {
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      cdfHtmlRenderer.execute( expected, basicFile, "", "messages", new HashMap<String, String>(), "admin", 1234,
+        isRequire, false );
+
+      doReturn( true ).when( cdfHtmlRenderer ).isStreamingRender();
+      ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+      cdfHtmlRenderer.execute( streamed, basicFile, "", "messages", new HashMap<String, String>(), "admin", 1234,
+        isRequire, false );
+      doReturn( false ).when( cdfHtmlRenderer ).isStreamingRender();
+
+      assertEquals( expected.toString( CharsetHelper.getEncoding() ), streamed.toString( CharsetHelper.getEncoding() ) );
+    }
+  }
+
+  @Test
+  public void testOuterTemplateCached() throws Exception {
+    IBasicFile templateFile = mock( IBasicFile.class );
+    IReadAccess systemAccess = mock( IReadAccess.class );
+    doReturn( true ).when( systemAccess ).fileExists( "template-dashboard-clean.html" );
+    doReturn( templateFile ).when( systemAccess ).fetchFile( "template-dashboard-clean.html" );
+    doReturn( systemAccess ).when( cdfHtmlRenderer ).getPluginSystemReader( null );
+    doReturn( mock( IReadAccess.class ) ).when( cdfHtmlRenderer ).getPluginRepositoryReader( "templates/" );
+    doReturn( "<html><head>CDF.i18n(\"title\")</head><body></body></html>" ).when( cdfHtmlRenderer )
+      .getContentString( any( InputStream.class ) );
+    doReturn( "<html><head>CDF.i18n(\"title\")</head><body></body></html>" ).when( cdfHtmlRenderer )
+      .updateUserLanguageKey( anyString() );
+
+    ITemplater templater = mock( ITemplater.class );
+    doReturn( "header" ).when( templater ).getTemplateSection( anyString(), eq( ITemplater.Section.HEADER ) );
+    doReturn( "footer" ).when( templater ).getTemplateSection( anyString(), eq( ITemplater.Section.FOOTER ) );
+    doReturn( templater ).when( cdfHtmlRenderer ).getTemplater();
+
+    DashboardTemplateCache.DashboardTemplate template = cdfHtmlRenderer.getOuterTemplate( "clean", false );
+    assertEquals( "header", template.getHeader() );
+    assertEquals( "footer", template.getFooter() );
+    assertEquals( 1, template.getI18nTags().size() );
+    assertEquals( "title", template.getI18nTags().get( 0 ) );
+
+    assertSame( template, cdfHtmlRenderer.getOuterTemplate( "clean", false ) );
+    verify( cdfHtmlRenderer, times( 1 ) ).getPluginSystemReader( null );
+    verify( cdfHtmlRenderer, times( 1 ) ).getContentString( any( InputStream.class ) );
+
+    // other keys are loaded on their own
+    assertNotSame( template, cdfHtmlRenderer.getOuterTemplate( "clean", true ) );
+    verify( cdfHtmlRenderer, times( 2 ) ).getContentString( any( InputStream.class ) );
+  }
+
+  @Test
+  public void testUnknownStylesShareFallback() throws Exception {
+    IReadAccess systemAccess = mock( IReadAccess.class );
+    doReturn( mock( IBasicFile.class ) ).when( systemAccess ).fetchFile( "template-dashboard.html" );
+    doReturn( systemAccess ).when( cdfHtmlRenderer ).getPluginSystemReader( null );
+    doReturn( mock( IReadAccess.class ) ).when( cdfHtmlRenderer ).getPluginRepositoryReader( "templates/" );
+    doReturn( "<html></html>" ).when( cdfHtmlRenderer ).getContentString( any( InputStream.class ) );
+    doReturn( "<html></html>" ).when( cdfHtmlRenderer ).updateUserLanguageKey( anyString() );
+    doReturn( mock( ITemplater.class ) ).when( cdfHtmlRenderer ).getTemplater();
+
+    DashboardTemplateCache.DashboardTemplate template = cdfHtmlRenderer.getOuterTemplate( "unknown1", false );
+    assertSame( template, cdfHtmlRenderer.getOuterTemplate( "unknown2", false ) );
+    verify( cdfHtmlRenderer, times( 1 ) ).getContentString( any( InputStream.class ) );
+  }
+
+  @Test
+  public void testTemplateCacheBounded() {
+    DashboardTemplateCache cache = new DashboardTemplateCache( 2 );
+    DashboardTemplateCache.DashboardTemplate template =
+      new DashboardTemplateCache.DashboardTemplate( "source", 1L, "header", "footer", new ArrayList<String>() );
+    cache.put( "a", template );
+    cache.put( "b", template );
+    cache.get( "a" );
+    cache.put( "c", template );
+
+    assertSame( template, cache.get( "a" ) );
+    assertNull( cache.get( "b" ) );
+    assertSame( template, cache.get( "c" ) );
+  }
+
+  private static class WriteAnswer implements Answer<Void> {
+    private final String content;
+
+    WriteAnswer( String content ) {
+      this.content = content;
+    }
+
+    @Override
+    public Void answer( InvocationOnMock invocation ) throws Throwable {
+      for ( Object arg : invocation.getArguments() ) {
+        if ( arg instanceof OutputStream ) {
+          ( (OutputStream) arg ).write( content.getBytes( CharsetHelper.getEncoding() ) );
+        }
+      }
+      return null;
+    }
+  }
 }
@@ -71,6 +71,7 @@ public class StorageApiTest {
     when( se.delete( anyString() ) ).thenReturn( dummy );
     when( se.read( anyString() ) ).thenReturn( dummy );
     when( se.store( anyString(), anyString() ) ).thenReturn( dummy );
+    when( se.batch( Matchers.<StorageBatch>anyObject(), anyString() ) ).thenReturn( dummy );
 
     testee = spy( new StorageApi( se ) );
     doNothing().when( testee ).setCorsHeaders( Matchers.<HttpServletRequest>anyObject(), Matchers.<HttpServletResponse>anyObject() );
@@ -189,4 +190,56 @@ public class StorageApiTest {
     response = testee.store( "value", "user", servletRequest, servletResponse );
     Assert.assertEquals( Response.Status.FORBIDDEN.getStatusCode(), response.getStatus() );
   }
+
+  @Test
+  public void testBatch() throws Exception {
+    IPentahoSession thisUserSession = mock( IPentahoSession.class );
+    when( thisUserSession.getName() ).thenReturn( "user" );
+    PentahoSessionHolder.setSession( thisUserSession );
+
+    Response response = testee.batch( "{ \"read\": [ \"a\" ], \"store\": { \"b\": 1 } }", "user", servletRequest,
+        servletResponse );
+    Assert.assertEquals( Response.Status.OK.getStatusCode(), response.getStatus() );
+    Assert.assertEquals( APPLICATION_JSON, servletResponse.getContentType() );
+    verify( se ).batch( Matchers.<StorageBatch>anyObject(), eq( "user" ) );
+
+    response = testee.batch( "{ \"read\": [ \"\" ] }", "user", servletRequest, servletResponse );
+    Assert.assertEquals( Response.Status.BAD_REQUEST.getStatusCode(), response.getStatus() );
+    response = testee.batch( "not json", "user", servletRequest, servletResponse );
+    Assert.assertEquals( Response.Status.BAD_REQUEST.getStatusCode(), response.getStatus() );
+    verify( se, times( 1 ) ).batch( Matchers.<StorageBatch>anyObject(), anyString() );
+
+    PentahoSessionHolder.setSession( null );
+    response = testee.batch( "{}", "user", servletRequest, servletResponse );
+    Assert.assertEquals( Response.Status.FORBIDDEN.getStatusCode(), response.getStatus() );
+  }
+
+  @Test
+  public void testPatch() throws Exception {
+    IPentahoSession thisUserSession = mock( IPentahoSession.class );
+    when( thisUserSession.getName() ).thenReturn( "user" );
+    PentahoSessionHolder.setSession( thisUserSession );
+
+    JSONObject versioned = new JSONObject( "{\"status\": \"success\", \"result\": {\"version\": 3, \"value\": {}}}" );
+    when( se.patch( "{}", 2, "user" ) ).thenReturn( versioned );
+    Response response = testee.patch( "{}", "\"2\"", "user", servletRequest, servletResponse );
+    Assert.assertEquals( Response.Status.OK.getStatusCode(), response.getStatus() );
+    Assert.assertEquals( "3", response.getMetadata().getFirst( "ETag" ).toString().replace( "\"", "" ) );
+
+    when( se.patch( "{}", 1, "user" ) ).thenThrow( new StorageVersionConflictException( 1, 3 ) );
+    response = testee.patch( "{}", "\"1\"", "user", servletRequest, servletResponse );
+    Assert.assertEquals( Response.Status.PRECONDITION_FAILED.getStatusCode(), response.getStatus() );
+
+    response = testee.patch( "{}", "abc", "user", servletRequest, servletResponse );
+    Assert.assertEquals( Response.Status.BAD_REQUEST.getStatusCode(), response.getStatus() );
+  }
+
+  @Test
+  public void testParseVersion() {
+    Assert.assertEquals( -1, StorageApi.parseVersion( null ) );
+    Assert.assertEquals( -1, StorageApi.parseVersion( "*" ) );
+    Assert.assertEquals( 4, StorageApi.parseVersion( "\"4\"" ) );
+    Assert.assertEquals( 4, StorageApi.parseVersion( "W/\"4\"" ) );
+    Assert.assertEquals( 0, StorageApi.parseVersion( "0" ) );
+  }
 }